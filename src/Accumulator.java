@@ -0,0 +1,198 @@
+/******************************************************************************
+ *                             ChessSim 0.9                                   *
+ *                  Copyright © 2015 Ben Goldsworthy (rumperuu)               *
+ *                                                                            *
+ * A program to simulate a game of chess between two human players.           *
+ *                                                                            *
+ * This file is part of ChessSim.                                             *
+ *                                                                            *
+ * ChessSim is free software: you can redistribute it and/or modify           *
+ * it under the terms of the GNU General Public License as published by       *
+ * the Free Software Foundation, either version 3 of the License, or          *
+ * (at your option) any later version.                                        *
+ *                                                                            *
+ * ChessSim is distributed in the hope that it will be useful,                *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of             *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the              *
+ * GNU General Public License for more details.                               *
+ *                                                                            *
+ * You should have received a copy of the GNU General Public License          *
+ * along with ChessSim.  If not, see <http://www.gnu.org/licenses/>.          *
+ ******************************************************************************/
+
+
+/**
+ ** This class holds the first layer's output for one position, for a
+ ** `Network`, utilised in the ChessSim program. A `Position` given one
+ ** keeps it up to date itself, adding a piece's weight columns when it's
+ ** put on a square and taking them off when it leaves, so each move costs a
+ ** column or two per side however many pieces there are. Scoring then only
+ ** runs the output layer.
+ **
+ ** The sums and the output layer's dot products are done with the vector
+ ** API, as many 16-bit lanes at a time as the CPU's widest registers take,
+ ** so it needs `--add-modules jdk.incubator.vector` at compile and run
+ ** time. An accumulator belongs to one position, so to one thread.
+ **/
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ **   @author  Ben Goldsworthy (rumperuu) <me+chesssim@bengoldsworthy.net>
+ **   @version 0.92
+ **/
+public class Accumulator {
+   // scores are kept short of anything the search takes as a known result
+   public static final int MAX_SCORE = Search.TABLEBASE_WIN - 1;
+
+   private static final VectorSpecies<Short> SHORTS =
+      ShortVector.SPECIES_PREFERRED;
+   private static final VectorSpecies<Integer> INTS =
+      IntVector.SPECIES_PREFERRED;
+   // shorts in as many lanes as `INTS` has, to be widened into them
+   private static final VectorSpecies<Short> HALF_SHORTS = VectorSpecies.of(
+      short.class, VectorShape.forBitSize(INTS.vectorBitSize() / 2));
+
+   private final Network network;
+   private final int hidden;
+   private final short[] weights;
+   // widened once here, so the output layer only widens the hidden values
+   private final int[] outputWeights;
+   // White's half, then Black's
+   private final short[] values;
+
+   /**
+    **   Constructor function. The accumulator starts off as if the board
+    **   were empty.
+    **   @param network the network it's for
+    **/
+   public Accumulator(Network network) {
+      this.network = network;
+      hidden = network.getHiddenSize();
+      weights = network.getFeatureWeights();
+      short[] output = network.getOutputWeights();
+      outputWeights = new int[output.length];
+      for (int i = 0; i < output.length; i++) outputWeights[i] = output[i];
+      values = new short[2 * hidden];
+      clear();
+   }
+
+   /**
+    **   Gets the network this accumulator is for.
+    **   @return the network
+    **/
+   public Network getNetwork() {
+      return network;
+   }
+
+   /**
+    **   Resets both halves to the hidden biases, as for an empty board.
+    **/
+   public void clear() {
+      short[] biases = network.getHiddenBiases();
+      System.arraycopy(biases, 0, values, 0, hidden);
+      System.arraycopy(biases, 0, values, hidden, hidden);
+   }
+
+   /**
+    **   Works the accumulator out from scratch for a position.
+    **   @param pos the position
+    **/
+   public void refresh(Position pos) {
+      clear();
+      for (long occupied = pos.getOccupied(); occupied != 0;
+           occupied &= occupied - 1) {
+         int sq = Long.numberOfTrailingZeros(occupied);
+         add(pos.pieceAt(sq), sq);
+      }
+   }
+
+   /**
+    **   Adds a piece put on a square.
+    **   @param piece the piece code (`team * 6 + type`)
+    **   @param sq the square
+    **/
+   public void add(int piece, int sq) {
+      for (int side = Position.WHITE; side <= Position.BLACK; side++) {
+         int column = Network.feature(side, piece, sq) * hidden;
+         int half = side * hidden;
+         for (int i = 0; i < hidden; i += SHORTS.length())
+            ShortVector.fromArray(SHORTS, values, half + i)
+               .add(ShortVector.fromArray(SHORTS, weights, column + i))
+               .intoArray(values, half + i);
+      }
+   }
+
+   /**
+    **   Takes off a piece that's left a square.
+    **   @param piece the piece code
+    **   @param sq the square
+    **/
+   public void remove(int piece, int sq) {
+      for (int side = Position.WHITE; side <= Position.BLACK; side++) {
+         int column = Network.feature(side, piece, sq) * hidden;
+         int half = side * hidden;
+         for (int i = 0; i < hidden; i += SHORTS.length())
+            ShortVector.fromArray(SHORTS, values, half + i)
+               .sub(ShortVector.fromArray(SHORTS, weights, column + i))
+               .intoArray(values, half + i);
+      }
+   }
+
+   /**
+    **   Moves a piece from one square to another, in one pass rather than a
+    **   `remove()` and an `add()`.
+    **   @param piece the piece code
+    **   @param from the square it's left
+    **   @param to the square it's gone to
+    **/
+   public void move(int piece, int from, int to) {
+      for (int side = Position.WHITE; side <= Position.BLACK; side++) {
+         int oldColumn = Network.feature(side, piece, from) * hidden;
+         int newColumn = Network.feature(side, piece, to) * hidden;
+         int half = side * hidden;
+         for (int i = 0; i < hidden; i += SHORTS.length())
+            ShortVector.fromArray(SHORTS, values, half + i)
+               .sub(ShortVector.fromArray(SHORTS, weights, oldColumn + i))
+               .add(ShortVector.fromArray(SHORTS, weights, newColumn + i))
+               .intoArray(values, half + i);
+      }
+   }
+
+   /**
+    **   Runs the output layer, scoring the position the accumulator is kept
+    **   for.
+    **   @param sideToMove the side to move
+    **   @return the score in centipawns, from the side to move's point of
+    **           view
+    **/
+   public int evaluate(int sideToMove) {
+      IntVector sum = IntVector.zero(INTS);
+      int us = sideToMove * hidden, them = (sideToMove ^ 1) * hidden;
+      for (int i = 0; i < hidden; i += INTS.length()) {
+         sum = clipped(us + i).mul(IntVector.fromArray(INTS, outputWeights, i))
+               .add(sum);
+         sum = clipped(them + i)
+               .mul(IntVector.fromArray(INTS, outputWeights, hidden + i))
+               .add(sum);
+      }
+      long output = sum.reduceLanesToLong(VectorOperators.ADD)
+                    + network.getOutputBias();
+      long score = output * Network.SCALE / (Network.QA * Network.QB);
+      return (int) Math.max(-MAX_SCORE, Math.min(MAX_SCORE, score));
+   }
+
+   /*
+    * Loads hidden values from `offset` on, widened to ints and clipped to
+    * between 0 and `Network.QA`.
+    */
+   private IntVector clipped(int offset) {
+      return ((IntVector) ShortVector.fromArray(HALF_SHORTS, values, offset)
+                                     .castShape(INTS, 0))
+             .max(0).min(Network.QA);
+   }
+}
@@ -0,0 +1,314 @@
+/******************************************************************************
+ *                             ChessSim 0.9                                   *
+ *                  Copyright © 2015 Ben Goldsworthy (rumperuu)               *
+ *                                                                            *
+ * A program to simulate a game of chess between two human players.           *
+ *                                                                            *
+ * This file is part of ChessSim.                                             *
+ *                                                                            *
+ * ChessSim is free software: you can redistribute it and/or modify           *
+ * it under the terms of the GNU General Public License as published by       *
+ * the Free Software Foundation, either version 3 of the License, or          *
+ * (at your option) any later version.                                        *
+ *                                                                            *
+ * ChessSim is distributed in the hope that it will be useful,                *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of             *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the              *
+ * GNU General Public License for more details.                               *
+ *                                                                            *
+ * You should have received a copy of the GNU General Public License          *
+ * along with ChessSim.  If not, see <http://www.gnu.org/licenses/>.          *
+ ******************************************************************************/
+
+/**
+ ** This class holds the attack tables for every piece, utilised in the
+ ** ChessSim program. Pawn, knight and king attacks are worked out once per
+ ** square when the class loads. Bishop and rook attacks use magic bitboards:
+ ** the pieces in the way are multiplied by a magic number and shifted down
+ ** into an index, so a whole set of blocked rays comes out of one table
+ ** lookup.
+ **
+ ** The magics were found by trying sparse random numbers until one mapped
+ ** every set of blockers on a square without a clash. That takes about a
+ ** second, so it was done once and the results are written out below.
+ **/
+
+/**
+ **   @author  Ben Goldsworthy (rumperuu) <me+chesssim@bengoldsworthy.net>
+ **   @version 0.92
+ **/
+public final class Attacks {
+   private static final int[] ROOK_STEPS = {8, 1, -8, -1};
+   private static final int[] ROOK_FILE_STEPS = {0, 1, 0, -1};
+   private static final int[] BISHOP_STEPS = {9, -7, -9, 7};
+   private static final int[] BISHOP_FILE_STEPS = {1, 1, -1, -1};
+   private static final int[] KNIGHT_STEPS = {17, 10, -6, -15, -17, -10, 6,
+                                              15};
+   private static final int[] KNIGHT_FILE_STEPS = {1, 2, 2, 1, -1, -2, -2,
+                                                   -1};
+   private static final int[] KING_STEPS = {8, 9, 1, -7, -8, -9, -1, 7};
+   private static final int[] KING_FILE_STEPS = {0, 1, 1, 1, 0, -1, -1, -1};
+
+   private static final long[][] PAWN = new long[2][64];
+   private static final long[] KNIGHT = new long[64];
+   private static final long[] KING = new long[64];
+   // the squares strictly between two squares on a shared rank, file or
+   // diagonal, and the whole line through them both (zero if they don't
+   // share one)
+   private static final long[][] BETWEEN = new long[64][64];
+   private static final long[][] LINE = new long[64][64];
+
+   // for each square: the squares whose pieces can block the slider (the
+   // rays, minus the board edge), the magic number, the shift down to an
+   // index and where that square's slice of the shared table starts
+   private static final long[] ROOK_MASK = new long[64];
+   private static final long[] ROOK_MAGIC = {
+      0x1080004008801020L, 0x0840092002C03000L, 0x1900200010400900L,
+      0x0880100008000480L, 0x4200100420080200L, 0x8100020100080400L,
+      0x0200040110886200L, 0x0200008040220411L, 0x0404800084400220L,
+      0x0000401000402000L, 0x0086001081220440L, 0x0408800800100280L,
+      0x000A001201040820L, 0x8848800200840080L, 0x4001000100040200L,
+      0x0442000102105084L, 0x9080010020804100L, 0x0040404000201009L,
+      0x0000808010002009L, 0x2200090021D00100L, 0x0008008008040080L,
+      0x0004004002010040L, 0x0011040008015042L, 0x00000A0001768104L,
+      0x0000800080204009L, 0x2010004140002001L, 0x9800200280100080L,
+      0x1000100080080080L, 0x0442000A00049020L, 0x2100040080020080L,
+      0x0800120400900148L, 0x0010040A00128541L, 0x2800804000800030L,
+      0x1010002000400041L, 0x4000200011004100L, 0x0610008410800800L,
+      0x0400802402800800L, 0xC100020080800400L, 0x0002000802000401L,
+      0x0182085882000401L, 0x0220204000808000L, 0x2860100040024022L,
+      0x0001002004110040L, 0x99101042000A0020L, 0x0004080004008080L,
+      0x0010040002008080L, 0x2012004881020004L, 0x8300842444820011L,
+      0x0088403882010200L, 0x0820400080210100L, 0x0110910040A00300L,
+      0x0801100280080480L, 0x0242009008200600L, 0x1002000489500200L,
+      0x0040800200010080L, 0x0091800041000080L, 0x0000209300488001L,
+      0x04C1002414824001L, 0x020020000B001041L, 0x7000100004200901L,
+      0x8002002004100802L, 0x30010002084C0007L, 0x0888221800813004L,
+      0x4000002840840112L
+   };
+   private static final int[] ROOK_SHIFT = new int[64];
+   private static final int[] ROOK_OFFSET = new int[64];
+   private static final long[] ROOK_TABLE;
+   private static final long[] BISHOP_MASK = new long[64];
+   private static final long[] BISHOP_MAGIC = {
+      0xA010041108003100L, 0x006082020A002900L, 0x6810010619200000L,
+      0x08281A0520000408L, 0x0001104001000400L, 0x0018901008048400L,
+      0x00040A0210245280L, 0x000200210808A402L, 0x9140048410821200L,
+      0x0800091010820041L, 0x20504804832202C0L, 0x0100091401081000L,
+      0x8021011140000012L, 0x0810020804450400L, 0x208B0542109008A2L,
+      0x0080084A08040204L, 0x0040E2A80811244CL, 0x2505022008008108L,
+      0x0430220100420040L, 0x010A040420220040L, 0x1105000290400000L,
+      0x0093001200822120L, 0x4000A62048043004L, 0x280120048A015004L,
+      0x006090002A020814L, 0x44042000240800D0L, 0x01102800040A4400L,
+      0x1004080080220040L, 0x0001001011004024L, 0x0010044000805040L,
+      0x0914041200820100L, 0x0004821012821480L, 0x0024040500C05021L,
+      0x0088611002080200L, 0x0116080A00040020L, 0x4000020080080080L,
+      0x2450450140840040L, 0x0000880201484100L, 0x0222020404020092L,
+      0x8081110600002E00L, 0x2842101105000801L, 0x1100809008001025L,
+      0x00020202221C0400L, 0x0422014022009020L, 0x0210046102100C00L,
+      0xC004008082029102L, 0x00AA461801101200L, 0x0404080080201108L,
+      0x020542108C205002L, 0x0410544804100100L, 0x0040910841100000L,
+      0x0400200042021100L, 0x00004204850400C0L, 0x0200100410A42102L,
+      0x1040020801210102L, 0x0805040410420000L, 0x2884804130100200L,
+      0x800C262201242000L, 0x1058000194108800L, 0x0014221054420204L,
+      0x0104000012A02200L, 0x0200881003300100L, 0x0140400202840100L,
+      0x0402020801010201L
+   };
+   private static final int[] BISHOP_SHIFT = new int[64];
+   private static final int[] BISHOP_OFFSET = new int[64];
+   private static final long[] BISHOP_TABLE;
+
+   static {
+      for (int sq = 0; sq < 64; sq++) {
+         long bit = 1L << sq;
+         PAWN[Position.WHITE][sq] = ((bit & ~Bitboards.FILE_A) << 7)
+                                    | ((bit & ~Bitboards.FILE_H) << 9);
+         PAWN[Position.BLACK][sq] = ((bit & ~Bitboards.FILE_A) >>> 9)
+                                    | ((bit & ~Bitboards.FILE_H) >>> 7);
+         KNIGHT[sq] = jumps(sq, KNIGHT_STEPS, KNIGHT_FILE_STEPS);
+         KING[sq] = jumps(sq, KING_STEPS, KING_FILE_STEPS);
+      }
+      ROOK_TABLE = initMagics(ROOK_MASK, ROOK_MAGIC, ROOK_SHIFT, ROOK_OFFSET,
+                              ROOK_STEPS, ROOK_FILE_STEPS);
+      BISHOP_TABLE = initMagics(BISHOP_MASK, BISHOP_MAGIC, BISHOP_SHIFT,
+                                BISHOP_OFFSET, BISHOP_STEPS,
+                                BISHOP_FILE_STEPS);
+      for (int a = 0; a < 64; a++) {
+         for (int b = 0; b < 64; b++) {
+            long ends = (1L << a) | (1L << b);
+            if ((a != b) && ((rook(a, 0L) & (1L << b)) != 0)) {
+               BETWEEN[a][b] = rook(a, 1L << b) & rook(b, 1L << a);
+               LINE[a][b] = (rook(a, 0L) & rook(b, 0L)) | ends;
+            } else if ((a != b) && ((bishop(a, 0L) & (1L << b)) != 0)) {
+               BETWEEN[a][b] = bishop(a, 1L << b) & bishop(b, 1L << a);
+               LINE[a][b] = (bishop(a, 0L) & bishop(b, 0L)) | ends;
+            }
+         }
+      }
+   }
+
+   private Attacks() {
+   }
+
+   /**
+    **   Gets the squares a pawn attacks.
+    **   @param team the team of the pawn
+    **   @param sq the square the pawn is on
+    **   @return the bitboard of attacked squares
+    **/
+   public static long pawn(int team, int sq) {
+      return PAWN[team][sq];
+   }
+
+   /**
+    **   Gets the squares a knight attacks.
+    **   @param sq the square the knight is on
+    **   @return the bitboard of attacked squares
+    **/
+   public static long knight(int sq) {
+      return KNIGHT[sq];
+   }
+
+   /**
+    **   Gets the squares a king attacks.
+    **   @param sq the square the king is on
+    **   @return the bitboard of attacked squares
+    **/
+   public static long king(int sq) {
+      return KING[sq];
+   }
+
+   /**
+    **   Gets the squares a bishop attacks, stopping each ray at the first
+    **   piece it hits.
+    **   @param sq the square the bishop is on
+    **   @param occupied the bitboard of occupied squares
+    **   @return the bitboard of attacked squares
+    **/
+   public static long bishop(int sq, long occupied) {
+      return BISHOP_TABLE[BISHOP_OFFSET[sq]
+                          + (int)(((occupied & BISHOP_MASK[sq])
+                                   * BISHOP_MAGIC[sq]) >>> BISHOP_SHIFT[sq])];
+   }
+
+   /**
+    **   Gets the squares a rook attacks, stopping each ray at the first piece
+    **   it hits.
+    **   @param sq the square the rook is on
+    **   @param occupied the bitboard of occupied squares
+    **   @return the bitboard of attacked squares
+    **/
+   public static long rook(int sq, long occupied) {
+      return ROOK_TABLE[ROOK_OFFSET[sq]
+                        + (int)(((occupied & ROOK_MASK[sq])
+                                 * ROOK_MAGIC[sq]) >>> ROOK_SHIFT[sq])];
+   }
+
+   /**
+    **   Gets the squares a queen attacks, stopping each ray at the first
+    **   piece it hits.
+    **   @param sq the square the queen is on
+    **   @param occupied the bitboard of occupied squares
+    **   @return the bitboard of attacked squares
+    **/
+   public static long queen(int sq, long occupied) {
+      return bishop(sq, occupied) | rook(sq, occupied);
+   }
+
+   /**
+    **   Gets the squares strictly between two squares that share a rank,
+    **   file or diagonal.
+    **   @param a one square
+    **   @param b the other square
+    **   @return the bitboard, or 0 if they don't share a line
+    **/
+   public static long between(int a, int b) {
+      return BETWEEN[a][b];
+   }
+
+   /**
+    **   Gets the whole rank, file or diagonal two squares share, edge to
+    **   edge.
+    **   @param a one square
+    **   @param b the other square
+    **   @return the bitboard, or 0 if they don't share a line
+    **/
+   public static long line(int a, int b) {
+      return LINE[a][b];
+   }
+
+   /*
+    * Works out the masks for one kind of slider, and fills in the table its
+    * magics index into.
+    */
+   private static long[] initMagics(long[] masks, long[] magics, int[] shifts,
+                                    int[] offsets, int[] steps,
+                                    int[] fileSteps) {
+      int size = 0;
+      for (int sq = 0; sq < 64; sq++) {
+         masks[sq] = slides(sq, 0L, steps, fileSteps) & ~edges(sq);
+         shifts[sq] = 64 - Long.bitCount(masks[sq]);
+         offsets[sq] = size;
+         size += 1 << Long.bitCount(masks[sq]);
+      }
+      long[] table = new long[size];
+
+      for (int sq = 0; sq < 64; sq++) {
+         // goes through every subset of the mask (the "carry-rippler" trick)
+         long subset = 0L;
+         do {
+            int index = (int)((subset * magics[sq]) >>> shifts[sq]);
+            table[offsets[sq] + index] = slides(sq, subset, steps, fileSteps);
+            subset = (subset - masks[sq]) & masks[sq];
+         } while (subset != 0);
+      }
+      return table;
+   }
+
+   /*
+    * Gets the edge squares that don't count as blockers for a slider on the
+    * given square (a piece on the last square of a ray can't block anything
+    * beyond it).
+    */
+   private static long edges(int sq) {
+      return ((Bitboards.RANK_1 | Bitboards.RANK_8)
+              & ~Bitboards.rankOf(sq))
+             | ((Bitboards.FILE_A | Bitboards.FILE_H)
+                & ~Bitboards.fileOf(sq));
+   }
+
+   /*
+    * Adds up the squares one step away in each direction.
+    */
+   private static long jumps(int sq, int[] steps, int[] fileSteps) {
+      long attacks = 0L;
+      int file = sq & 7;
+      for (int dir = 0; dir < steps.length; dir++) {
+         int to = sq + steps[dir];
+         int toFile = file + fileSteps[dir];
+         if ((to >= 0) && (to < 64) && (toFile >= 0) && (toFile < 8))
+            attacks |= 1L << to;
+      }
+      return attacks;
+   }
+
+   /*
+    * Adds up the squares along each ray, up to and including the first
+    * occupied one. Only used to build the tables.
+    */
+   private static long slides(int sq, long occupied, int[] steps,
+                              int[] fileSteps) {
+      long attacks = 0L;
+      for (int dir = 0; dir < steps.length; dir++) {
+         int to = sq, file = sq & 7;
+         while (true) {
+            to += steps[dir];
+            file += fileSteps[dir];
+            if ((to < 0) || (to >= 64) || (file < 0) || (file >= 8)) break;
+            attacks |= 1L << to;
+            if ((occupied & (1L << to)) != 0) break;
+         }
+      }
+      return attacks;
+   }
+}
@@ -0,0 +1,62 @@
+/******************************************************************************
+ *                             ChessSim 0.9                                   *
+ *                  Copyright © 2015 Ben Goldsworthy (rumperuu)               *
+ *                                                                            *
+ * A program to simulate a game of chess between two human players.           *
+ *                                                                            *
+ * This file is part of ChessSim.                                             *
+ *                                                                            *
+ * ChessSim is free software: you can redistribute it and/or modify           *
+ * it under the terms of the GNU General Public License as published by       *
+ * the Free Software Foundation, either version 3 of the License, or          *
+ * (at your option) any later version.                                        *
+ *                                                                            *
+ * ChessSim is distributed in the hope that it will be useful,                *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of             *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the              *
+ * GNU General Public License for more details.                               *
+ *                                                                            *
+ * You should have received a copy of the GNU General Public License          *
+ * along with ChessSim.  If not, see <http://www.gnu.org/licenses/>.          *
+ ******************************************************************************/
+
+/**
+ ** This class holds the bitboard masks that keep coming up, utilised in the
+ ** ChessSim program. Bit 0 is a1, bit 7 is h1 and bit 63 is h8.
+ **/
+
+/**
+ **   @author  Ben Goldsworthy (rumperuu) <me+chesssim@bengoldsworthy.net>
+ **   @version 0.92
+ **/
+public final class Bitboards {
+   public static final long FILE_A = 0x0101010101010101L;
+   public static final long FILE_H = 0x8080808080808080L;
+   public static final long RANK_1 = 0x00000000000000FFL;
+   public static final long RANK_2 = 0x000000000000FF00L;
+   public static final long RANK_3 = 0x0000000000FF0000L;
+   public static final long RANK_6 = 0x0000FF0000000000L;
+   public static final long RANK_7 = 0x00FF000000000000L;
+   public static final long RANK_8 = 0xFF00000000000000L;
+
+   private Bitboards() {
+   }
+
+   /**
+    **   Gets every square on the same file as a square.
+    **   @param sq the square
+    **   @return the bitboard of the file
+    **/
+   public static long fileOf(int sq) {
+      return FILE_A << (sq & 7);
+   }
+
+   /**
+    **   Gets every square on the same rank as a square.
+    **   @param sq the square
+    **   @return the bitboard of the rank
+    **/
+   public static long rankOf(int sq) {
+      return RANK_1 << (sq & 56);
+   }
+}
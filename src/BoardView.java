@@ -0,0 +1,197 @@
+/******************************************************************************
+ *                             ChessSim 0.9                                   *
+ *                  Copyright © 2015 Ben Goldsworthy (rumperuu)               *
+ *                                                                            *
+ * A program to simulate a game of chess between two human players.           *
+ *                                                                            *
+ * This file is part of ChessSim.                                             *
+ *                                                                            *
+ * ChessSim is free software: you can redistribute it and/or modify           *
+ * it under the terms of the GNU General Public License as published by       *
+ * the Free Software Foundation, either version 3 of the License, or          *
+ * (at your option) any later version.                                        *
+ *                                                                            *
+ * ChessSim is distributed in the hope that it will be useful,                *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of             *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the              *
+ * GNU General Public License for more details.                               *
+ *                                                                            *
+ * You should have received a copy of the GNU General Public License          *
+ * along with ChessSim.  If not, see <http://www.gnu.org/licenses/>.          *
+ ******************************************************************************/
+
+/**
+ ** This class draws the chess board, utilised in the ChessSim program. It's
+ ** one component for the whole board, painted straight from a piece and a
+ ** highlight for each square, rather than a button per square. Changing a
+ ** square only repaints that square, so moving the mouse over the board
+ ** redraws the handful of squares a piece can move to, not all 64.
+ **
+ ** It doesn't know anything about the rules; `ChessBoard` tells it what to
+ ** show, and asks it which square the mouse is on.
+ **/
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.util.Arrays;
+import javax.swing.JComponent;
+
+/**
+ **   @author  Ben Goldsworthy (rumperuu) <me+chesssim@bengoldsworthy.net>
+ **   @version 0.92
+ **/
+public class BoardView extends JComponent {
+   private static final long serialVersionUID = 1L;
+
+   // the highlights a square can have: a move or capture for the selected
+   // piece, or for the piece the mouse is over
+   public static final int NONE = 0, MOVABLE = 1, ATTACKABLE = 2,
+                           HOVER_MOVABLE = 3, HOVER_ATTACKABLE = 4;
+
+   // the colour of each highlight, with light and dark squares for `NONE`
+   private static final Color LIGHT = new Color(255, 255, 255);
+   private static final Color DARK = new Color(0, 0, 0);
+   private static final Color[] HIGHLIGHT_COLOURS = {
+      null, new Color(0, 100, 0), new Color(255, 0, 0),
+      new Color(127, 127, 127), new Color(127, 0, 0)
+   };
+   private static final int PREFERRED_SQUARE_SIZE = 80;
+
+   // indexed by square (a1 = 0)
+   private final int[] pieces = new int[64];
+   private final int[] highlights = new int[64];
+
+   public BoardView() {
+      Arrays.fill(pieces, Position.EMPTY);
+      setOpaque(true);
+      setPreferredSize(new Dimension(8 * PREFERRED_SQUARE_SIZE,
+                                     8 * PREFERRED_SQUARE_SIZE));
+   }
+
+   /**
+    **   Sets the piece on a square, repainting it if that's a change.
+    **   @param sq the square
+    **   @param piece the piece code (as used by `Position`), or EMPTY
+    **/
+   public void setPiece(int sq, int piece) {
+      if (pieces[sq] == piece) return;
+      pieces[sq] = piece;
+      repaintSquare(sq);
+   }
+
+   /**
+    **   Gets the piece on a square.
+    **   @param sq the square
+    **   @return the piece code (as used by `Position`), or EMPTY
+    **/
+   public int getPiece(int sq) {
+      return pieces[sq];
+   }
+
+   /**
+    **   Sets the highlight on a square, repainting it if that's a change.
+    **   @param sq the square
+    **   @param highlight `NONE`, `MOVABLE`, `ATTACKABLE`, `HOVER_MOVABLE` or
+    **          `HOVER_ATTACKABLE`
+    **/
+   public void setHighlight(int sq, int highlight) {
+      if (highlights[sq] == highlight) return;
+      highlights[sq] = highlight;
+      repaintSquare(sq);
+   }
+
+   /**
+    **   Gets the highlight on a square.
+    **   @param sq the square
+    **   @return the highlight
+    **/
+   public int getHighlight(int sq) {
+      return highlights[sq];
+   }
+
+   /**
+    **   Takes the highlight off every square.
+    **/
+   public void clearHighlights() {
+      for (int sq = 0; sq < 64; sq++) setHighlight(sq, NONE);
+   }
+
+   /**
+    **   Finds the square at a point on the component.
+    **   @param px the x-coord of the point
+    **   @param py the y-coord of the point
+    **   @return the square, or `Position.NO_SQUARE` if the point's off the
+    **           board
+    **/
+   public int squareAt(int px, int py) {
+      int size = squareSize();
+      if (size == 0) return Position.NO_SQUARE;
+      int x = Math.floorDiv(px - left(size), size);
+      int y = Math.floorDiv(py - top(size), size);
+      if (x < 0 || x > 7 || y < 0 || y > 7) return Position.NO_SQUARE;
+      return Position.square(x, y);
+   }
+
+   /*
+    * Paints the squares inside the area that needs repainting, and the
+    * border around the board if that's part of it.
+    */
+   @Override
+   protected void paintComponent(Graphics g) {
+      Rectangle clip = g.getClipBounds();
+      if (clip == null) clip = new Rectangle(0, 0, getWidth(), getHeight());
+      int size = squareSize();
+      int left = left(size), top = top(size);
+      if (!new Rectangle(left, top, 8 * size, 8 * size).contains(clip)) {
+         g.setColor(DARK);
+         g.fillRect(clip.x, clip.y, clip.width, clip.height);
+      }
+      if (size == 0) return;
+
+      for (int sq = 0; sq < 64; sq++) {
+         int x = left + Position.getX(sq) * size;
+         int y = top + Position.getY(sq) * size;
+         if (!clip.intersects(x, y, size, size)) continue;
+         int highlight = highlights[sq];
+         if (highlight != NONE) {
+            g.setColor(HIGHLIGHT_COLOURS[highlight]);
+         } else {
+            // a8 (top left) is a light square
+            g.setColor(((Position.getX(sq) + Position.getY(sq)) % 2 == 0)
+                       ? LIGHT : DARK);
+         }
+         g.fillRect(x, y, size, size);
+         if (pieces[sq] != Position.EMPTY)
+            SpriteAtlas.draw(g, pieces[sq], x, y, size);
+      }
+   }
+
+   /*
+    * Asks for just one square to be repainted.
+    */
+   private void repaintSquare(int sq) {
+      int size = squareSize();
+      repaint(left(size) + Position.getX(sq) * size,
+              top(size) + Position.getY(sq) * size, size, size);
+   }
+
+   /*
+    * Gets the size of a square: as big as fits, with the board centred.
+    */
+   private int squareSize() {
+      return Math.min(getWidth(), getHeight()) / 8;
+   }
+
+   /*
+    * Gets the left and top edges of the board.
+    */
+   private int left(int size) {
+      return (getWidth() - 8 * size) / 2;
+   }
+
+   private int top(int size) {
+      return (getHeight() - 8 * size) / 2;
+   }
+}
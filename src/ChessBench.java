@@ -0,0 +1,383 @@
+/******************************************************************************
+ *                             ChessSim 0.9                                   *
+ *                  Copyright © 2015 Ben Goldsworthy (rumperuu)               *
+ *                                                                            *
+ * A program to simulate a game of chess between two human players.           *
+ *                                                                            *
+ * This file is part of ChessSim.                                             *
+ *                                                                            *
+ * ChessSim is free software: you can redistribute it and/or modify           *
+ * it under the terms of the GNU General Public License as published by       *
+ * the Free Software Foundation, either version 3 of the License, or          *
+ * (at your option) any later version.                                        *
+ *                                                                            *
+ * ChessSim is distributed in the hope that it will be useful,                *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of             *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the              *
+ * GNU General Public License for more details.                               *
+ *                                                                            *
+ * You should have received a copy of the GNU General Public License          *
+ * along with ChessSim.  If not, see <http://www.gnu.org/licenses/>.          *
+ ******************************************************************************/
+
+/**
+ ** This class benchmarks move generation, move making, evaluation and
+ ** storing positions, utilised in the ChessSim program. Every benchmark
+ ** runs over the `Perft` suite positions, gets a few untimed warm-up rounds
+ ** so the JIT has settled, and is then timed over several rounds, reporting
+ ** the mean and spread.
+ **
+ ** Each benchmark folds its results into a sink that gets printed, so the
+ ** JIT can't throw the work away as unused.
+ **/
+
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.LongSupplier;
+
+/**
+ **   @author  Ben Goldsworthy (rumperuu) <me+chesssim@bengoldsworthy.net>
+ **   @version 0.92
+ **/
+public class ChessBench {
+   private static final int WARMUP_ROUNDS = 3, MEASURED_ROUNDS = 5;
+
+   private final Position[] positions;
+   private final long roundNanos;
+   private long sink = 0;
+
+   /**
+    **   Constructor function.
+    **   @param roundMillis how long each warm-up and timed round lasts
+    **/
+   public ChessBench(long roundMillis) {
+      positions = new Position[Perft.SUITE_FENS.length];
+      for (int i = 0; i < positions.length; i++) {
+         positions[i] = new Position();
+         positions[i].setFen(Perft.SUITE_FENS[i]);
+      }
+      roundNanos = roundMillis * 1000000L;
+   }
+
+   /**
+    **   Runs every benchmark.
+    **   @param out where to write the results
+    **/
+   public void runAll(PrintStream out) {
+      out.println("Each op covers all " + positions.length
+                  + " suite positions.");
+      measure("Piece.showMoves", legacyMoves(), out);
+      measure("MoveGenerator.generate", pseudoLegalMoves(), out);
+      measure("ChessLogic.generateLegal", legalMoves(), out);
+      measure("makeMove + unmakeMove (every legal move)", makeMoves(), out);
+      measure("attack maps from scratch (every move)",
+              attackMapsFromScratch(), out);
+      measure("attack maps kept (every move)", attackMapsKept(), out);
+      measure("Evaluator.evaluate", evaluations(), out);
+      if (Network.isSupported()) {
+         Network network = Network.bootstrap();
+         measure("Accumulator.evaluate (bootstrap net)",
+                 networkEvaluations(network), out);
+         measure("makeMove + unmakeMove (accumulator)",
+                 accumulatorMoves(network), out);
+      } else {
+         out.println("(network benchmarks need --add-modules "
+                     + Network.VECTOR_MODULE + ")");
+      }
+      measure("Position.toFen + setFen", fenRoundTrip(), out);
+      measure("PositionCodec.encode + decode", binaryRoundTrip(), out);
+      out.println("(sink " + sink + ")");
+   }
+
+   /*
+    * The original per-piece generator, called for every piece the way the
+    * window used to call it on hover.
+    */
+   private LongSupplier legacyMoves() {
+      List<Piece> pieces = new ArrayList<Piece>();
+      for (Position pos : positions) {
+         for (int sq = 0; sq < 64; sq++) {
+            if (pos.pieceAt(sq) == Position.EMPTY) continue;
+            int team = pos.teamAt(sq), type = pos.typeAt(sq);
+            int y = Position.getY(sq);
+            Piece piece = new Piece(Position.getX(sq), y, team, type, 0);
+            if ((type == Position.PAWN)
+                && (y != ((team == Position.WHITE) ? 6 : 1)))
+               piece.usedUpFirstMove();
+            pieces.add(piece);
+         }
+      }
+      final Piece[] all = pieces.toArray(new Piece[0]);
+      return () -> {
+         long total = 0;
+         for (Piece piece : all) total += piece.showMoves().size();
+         return total;
+      };
+   }
+
+   /*
+    * The pseudo-legal bitboard generator.
+    */
+   private LongSupplier pseudoLegalMoves() {
+      final int[] moves = new int[MoveGenerator.MAX_MOVES];
+      return () -> {
+         long total = 0;
+         for (Position pos : positions)
+            total += MoveGenerator.generate(pos, moves, 0);
+         return total;
+      };
+   }
+
+   /*
+    * The legal generator, with its check and pin masks.
+    */
+   private LongSupplier legalMoves() {
+      final ChessLogic logic = new ChessLogic();
+      final int[] moves = new int[MoveGenerator.MAX_MOVES];
+      return () -> {
+         long total = 0;
+         for (Position pos : positions)
+            total += logic.generateLegal(pos, moves, 0);
+         return total;
+      };
+   }
+
+   /*
+    * Making and unmaking every legal move of every position.
+    */
+   private LongSupplier makeMoves() {
+      final int[][] moves = legalMoveLists();
+      return () -> {
+         long total = 0;
+         for (int i = 0; i < positions.length; i++) {
+            Position pos = positions[i];
+            for (int move : moves[i]) {
+               pos.makeMove(move);
+               total += pos.getHash();
+               pos.unmakeMove(move);
+            }
+         }
+         return total;
+      };
+   }
+
+   /*
+    * Making and unmaking every legal move of every position, working out
+    * after each one which squares each side attacks, by looking up every
+    * piece's attacks, and which pieces give check.
+    */
+   private LongSupplier attackMapsFromScratch() {
+      final int[][] moves = legalMoveLists();
+      return () -> {
+         long total = 0;
+         for (int i = 0; i < positions.length; i++) {
+            Position pos = positions[i];
+            for (int move : moves[i]) {
+               pos.makeMove(move);
+               long occupied = pos.getOccupied();
+               int us = pos.getSideToMove();
+               total += attacksOf(pos, Position.WHITE, occupied)
+                        ^ attacksOf(pos, Position.BLACK, occupied)
+                        ^ ChessLogic.attackersTo(pos, pos.kingSquare(us),
+                                                 occupied, us ^ 1);
+               pos.unmakeMove(move);
+            }
+         }
+         return total;
+      };
+   }
+
+   /*
+    * Gets every square a team attacks, one lookup per piece.
+    */
+   private static long attacksOf(Position pos, int team, long occupied) {
+      long attacks = 0;
+      for (int type = Position.PAWN; type <= Position.KING; type++)
+         for (long pieces = pos.getPieces(team, type); pieces != 0;
+              pieces &= pieces - 1)
+            attacks |= attacksOf(team, type,
+                                 Long.numberOfTrailingZeros(pieces),
+                                 occupied);
+      return attacks;
+   }
+
+   /*
+    * Gets the squares a piece attacks.
+    */
+   private static long attacksOf(int team, int type, int sq, long occupied) {
+      switch (type) {
+      case Position.PAWN: return Attacks.pawn(team, sq);
+      case Position.KNIGHT: return Attacks.knight(sq);
+      case Position.BISHOP: return Attacks.bishop(sq, occupied);
+      case Position.ROOK: return Attacks.rook(sq, occupied);
+      case Position.QUEEN: return Attacks.queen(sq, occupied);
+      default: return Attacks.king(sq);
+      }
+   }
+
+   /*
+    * The same, with `ChessLogic` keeping the attack maps up to date as the
+    * moves are made and unmade.
+    */
+   private LongSupplier attackMapsKept() {
+      final ChessLogic logic = new ChessLogic();
+      final int[][] moves = legalMoveLists();
+      return () -> {
+         long total = 0;
+         for (int i = 0; i < positions.length; i++) {
+            Position pos = positions[i];
+            logic.track(pos);
+            for (int move : moves[i]) {
+               logic.makeMove(pos, move);
+               total += logic.getAttacks(Position.WHITE)
+                        ^ logic.getAttacks(Position.BLACK)
+                        ^ logic.getCheckers();
+               logic.unmakeMove(pos, move);
+            }
+         }
+         return total;
+      };
+   }
+
+   /*
+    * Lists the legal moves of every position.
+    */
+   private int[][] legalMoveLists() {
+      final ChessLogic logic = new ChessLogic();
+      final int[][] moves = new int[positions.length][];
+      for (int i = 0; i < positions.length; i++) {
+         int[] buffer = new int[MoveGenerator.MAX_MOVES];
+         int count = logic.generateLegal(positions[i], buffer, 0);
+         moves[i] = Arrays.copyOf(buffer, count);
+      }
+      return moves;
+   }
+
+   /*
+    * Scoring every position.
+    */
+   private LongSupplier evaluations() {
+      final Evaluator evaluator = new Evaluator();
+      return () -> {
+         long total = 0;
+         for (Position pos : positions) total += evaluator.evaluate(pos);
+         return total;
+      };
+   }
+
+   /*
+    * Scoring every position with a network, from accumulators already
+    * worked out, as a search would.
+    */
+   private LongSupplier networkEvaluations(Network network) {
+      final Position[] copies = withAccumulators(network);
+      return () -> {
+         long total = 0;
+         for (Position pos : copies)
+            total += pos.getAccumulator().evaluate(pos.getSideToMove());
+         return total;
+      };
+   }
+
+   /*
+    * Making and unmaking every legal move with an accumulator being kept up
+    * to date, to compare with the plain make and unmake.
+    */
+   private LongSupplier accumulatorMoves(Network network) {
+      final int[][] moves = legalMoveLists();
+      final Position[] copies = withAccumulators(network);
+      return () -> {
+         long total = 0;
+         for (int i = 0; i < copies.length; i++) {
+            Position pos = copies[i];
+            for (int move : moves[i]) {
+               pos.makeMove(move);
+               total += pos.getHash();
+               pos.unmakeMove(move);
+            }
+         }
+         return total;
+      };
+   }
+
+   /*
+    * Copies the suite positions, each keeping an accumulator for a network.
+    */
+   private Position[] withAccumulators(Network network) {
+      Position[] copies = new Position[positions.length];
+      for (int i = 0; i < positions.length; i++) {
+         copies[i] = new Position();
+         copies[i].copyFrom(positions[i]);
+         copies[i].setAccumulator(new Accumulator(network));
+      }
+      return copies;
+   }
+
+   /*
+    * Writing every position out as FEN and reading it back in.
+    */
+   private LongSupplier fenRoundTrip() {
+      final Position copy = new Position();
+      return () -> {
+         long total = 0;
+         for (Position pos : positions) {
+            copy.setFen(pos.toFen());
+            total += copy.getHash();
+         }
+         return total;
+      };
+   }
+
+   /*
+    * Packing every position into 32 bytes and unpacking it again.
+    */
+   private LongSupplier binaryRoundTrip() {
+      final Position copy = new Position();
+      final ByteBuffer buffer = ByteBuffer.allocateDirect(PositionCodec.SIZE);
+      return () -> {
+         long total = 0;
+         for (Position pos : positions) {
+            PositionCodec.encode(pos, buffer, 0);
+            PositionCodec.decode(buffer, 0, copy);
+            total += copy.getHash();
+         }
+         return total;
+      };
+   }
+
+   /*
+    * Warms a benchmark up, then times it and writes out the ops per second.
+    */
+   private void measure(String name, LongSupplier op, PrintStream out) {
+      for (int round = 0; round < WARMUP_ROUNDS; round++) runRound(op);
+      double[] rates = new double[MEASURED_ROUNDS];
+      double mean = 0;
+      for (int round = 0; round < MEASURED_ROUNDS; round++) {
+         rates[round] = runRound(op);
+         mean += rates[round] / MEASURED_ROUNDS;
+      }
+      double variance = 0;
+      for (double rate : rates)
+         variance += (rate - mean) * (rate - mean) / (MEASURED_ROUNDS - 1);
+      out.printf("%-40s %12.0f ops/s  +- %.1f%%%n", name, mean,
+                 100 * Math.sqrt(variance) / mean);
+   }
+
+   /*
+    * Runs a benchmark over and over for one round, and gets the ops per
+    * second.
+    */
+   private double runRound(LongSupplier op) {
+      long ops = 0;
+      long start = System.nanoTime(), elapsed;
+      do {
+         for (int i = 0; i < 64; i++) sink += op.getAsLong();
+         ops += 64;
+         elapsed = System.nanoTime() - start;
+      } while (elapsed < roundNanos);
+      return ops * 1e9 / elapsed;
+   }
+}
@@ -19,49 +19,72 @@
  * You should have received a copy of the GNU General Public License          *
  * along with ChessSim.  If not, see <http://www.gnu.org/licenses/>.          *
  ******************************************************************************/
- 
 /**
  ** This class represents a chess board, utilised in the ChessSim program.
  **/
 
 import javax.swing.*;
 import java.awt.Frame;
-import java.awt.GridLayout;
-import java.awt.Color;
 import java.awt.event.*;
-import java.util.List; 
-import java.util.ArrayList; 
+import java.util.function.Consumer;
 
 /**
  **   @author  Ben Goldsworthy (rumperuu) <me+chesssim@bengoldsworthy.net>
  **   @version 0.92
  **/
-public class ChessBoard implements ActionListener, MouseListener {
+public class ChessBoard implements MouseListener, MouseMotionListener {
    private final int DEFAULT = 0, PIECESELECTED = 1;
    private final int PAWN = 0, ROOK = 1, KNIGHT = 2, BISHOP = 3, QUEEN = 4,
                      KING = 5;
    private final int WHITE = 0, BLACK = 1;
-   private final int NONE = 0, MOVABLE = 1, ATTACKABLE = 2;
-   private final int NULL = 9999;
+   // How long the computer gets to think about each move, in milliseconds.
+   private final int COMPUTER_MOVE_TIME = 1000;
+   // The channels of the `WorkerPipeline`: working out which moves to show,
+   // and the computer thinking.
+   private final int MOVES = 0, ENGINE = 1;
    
-   private boolean colour = true;
-   // Sets the initial piece (as a BLACK PAWN because the first piece placed
-   // is `piece++`, or the ROOK).
-   private int piece = PAWN, team = BLACK;
-   // Creates the 2D array to hold the `ChessBoard` of `ChessSquare`s.
-   private ChessSquare[][] chessSquare = new ChessSquare[8][8];
-   // Creates a 3D array to hold the `ChessBoard` of chess `Piece`s.
-   private Piece[][][] pieces = new Piece[6][2][8];
-	private Piece selectedPiece;
-	// Admittedly, the `ChessLogic` object doesn't do an awful lot right now
-	// but it'll be useful if I come back to this to add actual game rules
+   // The one component that draws the whole board.
+   private BoardView view = new BoardView();
+   // The square the mouse was last over, so moving around inside a square
+   // doesn't count as entering it again.
+   private int hoverSquare = Position.NO_SQUARE;
+   // Holds the game itself, and so where all the pieces actually are. The
+   // `BoardView` is just a picture of this.
+   private Game game = new Game();
+   // Does the working out away from the event dispatch thread, so the
+   // board never freezes. Only the event dispatch thread touches `game`;
+   // the workers get copies of its position.
+   private WorkerPipeline pipeline = new WorkerPipeline(2);
+   // The move generator and buffer for working out which moves to show,
+   // which only the `MOVES` worker thread uses.
+   private ChessLogic workerLogic = new ChessLogic();
+   private int[] moves = new int[MoveGenerator.MAX_MOVES];
+   // Every piece's legal moves in the current position, once they've been
+   // worked out, so that hovering and clicking just look them up. They're
+   // thrown away whenever a move is made or taken back.
+   private PieceMoves pieceMoves;
+   // The move the selected piece would make to each square, if any.
+   private int[] squareMoves = new int[64];
+	// This `ChessLogic` object just keeps track of whether a piece is
+	// selected; the `Game` has its own one for the actual game rules
 	// (https://github.com/Rumperuu/ChessSim/issues/1).
 	private ChessLogic logic = new ChessLogic();
+	// The side the computer plays, or `Position.EMPTY` if two humans are
+	// playing, and the engine it plays with.
+	private int computerTeam;
+	private Search search = new Search();
 	
 	public ChessBoard() {
-	   // Initialises the piece indices.
-	   int pawnNum = 0, rookNum = 0, knightNum = 0, bishopNum = 0;
-	   
+	   this(Position.EMPTY);
+	}
+	
+	/**
+	 **   Creates a board on which the computer plays one of the sides.
+	 **   @param computerTeam the side the computer plays (`Position.WHITE` or
+	 **          `Position.BLACK`), or `Position.EMPTY` for nobody
+	 **/
+	public ChessBoard(int computerTeam) {
+	   this.computerTeam = computerTeam;
 	   // Sorts out the window, fullscreening and suchlike.
       JFrame window = new JFrame();
 		window.setExtendedState(Frame.MAXIMIZED_BOTH);
@@ -69,174 +92,122 @@ public class ChessBoard implements ActionListener, MouseListener {
 		window.setTitle("Chess, but not as you know it");
 		window.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 	
-	   // Creates a grid panel for the `ChessBoard` of `ChessSquare`s.
-		JPanel board = new JPanel();
-		GridLayout grid = new GridLayout(8,8);
-		board.setLayout(grid);
-		
-		// For each rank 'y'...
-		for (int y = 0; y <= 7; y++) {
-		   // ...switch the populating team to white if the black team's done.
-	      if (y == 2) {
-            team = WHITE;
-            pawnNum = 0;
-            rookNum = 0;
-            knightNum = 0;
-            bishopNum = 0;
-	      }
-	      // Reset the square colour (e.g. the last square of row 0 is black,
-	      // meaning the first square of row 1 would be set to white later on
-	      // if not for this line).
-		   colour = !colour;
-		   // Resets the piece to `PAWN`.
-		   piece = 0;
-		   // ...and for each square in file 'x' of rank 'y'...
-		   for (int x = 0; x <= 7; x++) { 
-		      // ...populate the board array with a new `ChessSquare`.
-		      chessSquare[x][y] = new ChessSquare(x,y,colour);
-		      // Change the colour for the next square.
-		      colour = !colour;
-		      // Add the `ChessSquare` to the board.
-		      board.add(chessSquare[x][y]);
-		      // Checks if the current rank is the top or bottom two
-		      // (one of the only current uses of the `ChessLogic` class).
-		      if (logic.startingRow(y)) {
-		         // Checks if the current rank is the back rank
-		         // (one of the other uses).
-	            if (logic.backRank(y)) {
-	               // If the square in file 'x' is the Queen or lower, increment
-	               // `piece`...
-	               if (x <= 4) piece++;
-	               // ...else, if the square is the King, subtract 2 (to avoid 
-                  // two Queens).
-	               else if (x == 5) piece = piece - 2;
-	               // Otherwise, decrement `piece`.
-	               else piece--;
-	               
-	               // Depending on the piece currently being added, populate
-	               // the appropriate array dimension.
-	               switch(piece) { 
-	               case ROOK:
-	                  pieces[ROOK][team][rookNum] = new Piece(x,y,team,
-	                                                          ROOK,rookNum);
-	                  chessSquare[x][y].setPiece(pieces[ROOK][team][rookNum++]);
-	                  break;
-	               case KNIGHT:
-	                  pieces[KNIGHT][team][knightNum]= new Piece(x,y,team,KNIGHT,
-	                                                             knightNum);
-	                  chessSquare[x][y].setPiece(pieces[KNIGHT][team][knightNum++]);
-	                  break;
-	               case BISHOP:
-	                  pieces[BISHOP][team][bishopNum]= new Piece(x,y,team,BISHOP,
-	                                                             bishopNum);
-	                  chessSquare[x][y].setPiece(pieces[BISHOP][team][bishopNum++]);
-	                  break;
-	               case QUEEN:
-	                  pieces[QUEEN][team][0] = new Piece(x,y,team,QUEEN,0);
-	                  chessSquare[x][y].setPiece(pieces[QUEEN][team][0]);
-	                  break;
-	               case KING:
-	                  pieces[KING][team][0] = new Piece(x,y,team,KING,0);
-	                  chessSquare[x][y].setPiece(pieces[KING][team][0]);
-	                  break;
-	               }
-	             } else {
-	               pieces[PAWN][team][pawnNum]= new Piece(x,y,team,PAWN,pawnNum);
-	               chessSquare[x][y].setPiece(pieces[PAWN][team][pawnNum++]);
-                }
-	         }
-	         // Adds the relevant listeners to the `ChessSquare`s.
-		      chessSquare[x][y].addActionListener(this);
-		      chessSquare[x][y].addMouseListener(this);
-		   }
-		}		
+	   // Listens to the mouse over the whole board.
+		view.addMouseListener(this);
+		view.addMouseMotionListener(this);
+		// Draws the pieces onto the board.
+		positionChanged();
 		// Finishes off the display.
-		window.setContentPane(board);
+		window.setContentPane(view);
 		window.setVisible(true);
+		// If the computer has White, it goes first.
+		computerReply();
 	}
 		
    /*
-	 * Handles the event of a `JButton` (or rather a `JButton`-extending 
-    * `ChessSquare`) being moused over. As long as no piece is currently 
-    * selected, the function displays faintly-highlighted available moves for 
-    * the piece moused over.
+	 * Handles the mouse moving over the board. As long as no piece is
+    * currently selected, when the mouse moves onto a new square the
+    * function displays faintly-highlighted available moves for the piece
+    * moused over.
 	 */
-	public void mouseEntered(MouseEvent e) {	
-	   if (logic.getState() == DEFAULT) {
-         ChessSquare enteredSquare = (ChessSquare)e.getSource();
-         Piece presentPiece = null;
-         if (enteredSquare.hasPiece()) {
-            presentPiece = enteredSquare.getPiece();
-	         displayMoves(presentPiece, false);
-         } else defaultSquares();
+	public void mouseMoved(MouseEvent e) {
+	   int square = view.squareAt(e.getX(), e.getY());
+	   if (square == hoverSquare) return;
+	   hoverSquare = square;
+	   if (logic.getState() == DEFAULT && !computerToMove()) {
+         if (square != Position.NO_SQUARE
+             && game.getPosition().pieceAt(square) != Position.EMPTY) {
+	         displayMoves(square, false);
+         } else {
+            pipeline.cancel(MOVES);
+            defaultSquares();
+         }
      }
 	}
 	
+	/*
+	 * Handles a right-click anywhere on the board by taking back the last
+    * move.
+	 */
+   public void mouseClicked(MouseEvent e) {
+      if (!SwingUtilities.isRightMouseButton(e)) return;
+      // whatever was being worked out is for a position that's going
+      pipeline.cancel(MOVES);
+      pipeline.cancel(ENGINE);
+      if (game.undo()) {
+         // against the computer, take back its reply as well as your move
+         if (computerToMove()) game.undo();
+         positionChanged();
+         defaultSquares();
+         logic.setState(DEFAULT);
+      }
+      // if that leaves it the computer's turn (or it was thinking about its
+      // first move), it starts thinking again
+      computerReply();
+   }
+	
+	/*
+	 * Handles the mouse leaving the board, by forgetting the square it was
+    * last over.
+	 */
+	public void mouseExited(MouseEvent e) {
+	   hoverSquare = Position.NO_SQUARE;
+	}
+	
 	/*
 	 * Handle the other `MouseEvent`s, by not doing anything. Mouse dragging 
     * could potentially be useful in a later version for some sort of click-and-
     * drag movement of pieces, but for now they're just here to get the compiler
     * to stop throwing up errors at me.
 	 */
-	public void mouseExited(MouseEvent e) {
+	public void mouseEntered(MouseEvent e) {
 	}
-	public void mousePressed(MouseEvent e) {
-   }
    public void mouseReleased(MouseEvent e) {
    }
-   public void mouseClicked(MouseEvent e) {
+   public void mouseDragged(MouseEvent e) {
    }
 	
 	/*
-	 * Handles the event of a `JButton` (or rather a `JButton`-extending 
-    * `ChessSquare`) being clicked. The function, depending on the game state
-    * and state of the `ChessSquare` clicked on, wipes the displayed moves from
-    * the `ChessBoard` or moves the selected piece, removing an attacked piece
+	 * Handles a square being clicked (on the press, so a mouse that moves a
+    * little mid-click still counts). The function, depending on the game
+    * state and state of the square clicked on, wipes the displayed moves
+    * from the board or moves the selected piece, removing an attacked piece
     * is necessary.
     */
-	public void actionPerformed(ActionEvent e) {
+	public void mousePressed(MouseEvent e) {
+	   if (!SwingUtilities.isLeftMouseButton(e)) return;
+	   int square = view.squareAt(e.getX(), e.getY());
+	   if (square == Position.NO_SQUARE) return;
 	   switch(logic.getState()) {
 	   case DEFAULT:
-	      ChessSquare selectedSquare = (ChessSquare) e.getSource();
-	      if (selectedSquare.hasPiece()) {
-	         selectedPiece = selectedSquare.getPiece();
+	      if (game.getPosition().pieceAt(square) != Position.EMPTY
+	          && !computerToMove()) {
 	         // If no piece is selected, select the clicked piece...
-	         displayMoves(selectedPiece, true);
+	         displayMoves(square, true);
 	         logic.setState(PIECESELECTED);
 	      }
 	      break;
       case PIECESELECTED:
          // ...else, if a piece is selected...
-         ChessSquare clickedSquare = (ChessSquare)e.getSource();
-         switch(clickedSquare.getState()) {
-         case NONE:
-            // ...if the square just clicked is an illegal move, wipe all moves
-            // from the `ChessBoard`...
+         switch(view.getHighlight(square)) {
+         case BoardView.MOVABLE:case BoardView.ATTACKABLE:
+            // get the move that goes to the new, clicked square, and make
+            // it (taking the currently-residing piece, if applicable, and
+            // moving a rook too if castling)
+            game.applyMove(squareMoves[square]);
+            // redraw the board, since castling and en passant change squares
+            // other than the two clicked on
+            positionChanged();
+            
+            // wipes the board clean
             defaultSquares();
+            // lets the computer answer, if it's playing
+            computerReply();
             break;
-         case MOVABLE:case ATTACKABLE:
-            // get the coords of the new, clicked square
-            int newX = clickedSquare.getXPosition();
-            int newY = clickedSquare.getYPosition();
-            // and the details of the old, selected piece
-            int oldX = selectedPiece.getXPosition();
-            int oldY = selectedPiece.getYPosition();
-            int oldType = selectedPiece.getType();
-            int oldTeam = selectedPiece.getTeam();
-            int oldIndex = selectedPiece.getIndex();
-            // move (and take the currently-residing piece, if
-            // applicable) to the square clicked
-            chessSquare[oldX][oldY].removePiece();         
-            clickedSquare.setPiece(selectedPiece);
-            // update the location of the moved piece
-            pieces[oldType][oldTeam][oldIndex].setXPosition(newX);
-            pieces[oldType][oldTeam][oldIndex].setYPosition(newY); 
-            // if the moved piece was a pawn on its first move, disable its
-            // two-square move ability
-            if (oldType == PAWN) 
-               pieces[PAWN][oldTeam][oldIndex].usedUpFirstMove();
-            
-            // wipes the `ChessBoard` clean
+         default:
+            // ...if the square just clicked is an illegal move, wipe all moves
+            // from the board...
+            pipeline.cancel(MOVES);
             defaultSquares();
          }
          // resets the state of the game
@@ -248,85 +219,16 @@ public class ChessBoard implements ActionListener, MouseListener {
     * Displays the legal moves a selected or hovered-over piece can make,
     * coloured according to whether the piece is selected or just hovered on.
     */
-   private void displayMoves(Piece piece, boolean hard) {
-      // get the relevant details of the piece now
-      List moves = new ArrayList();
-      int pieceIndex = piece.getIndex();
-      int pieceTeam = piece.getTeam();
-      int pieceType = piece.getType();
-      // get the relevant piece's complete moveset
-      moves = pieces[pieceType][pieceTeam][pieceIndex].showMoves();
-      
-      // wipe the ChessBoard
-      defaultSquares();
-      
-      // initialise the variable used to truncate movement paths due to
-      // obstacles
-      boolean skip = false;
-      boolean pawn = (pieceType == PAWN) ? true : false;
-      
-      // for the list of moves...
-      for (int i = 0; i < moves.size()-1; i++) {
-         // if the current move isn't the NULL character used as a terminator
-         // between chains of moves (e.g. all in a given direction)...
-         if ((int)moves.get(i) != NULL) {
-            // gets the x- and y-coords for later
-            int moveX = (int)moves.get(i);
-            int moveY = (int)moves.get(++i);
-            // sets skip to false, in case i got here from a truncate
-            skip = false;
-            // determines if the given ChessSquare is legal or illegal
-            skip = highlightSquare(moveX, moveY, pieceTeam, pawn, hard);
-            // if the square is illegal...
-            if (skip) {
-               // sets j to i to start from the current point in the movelist
-               int j = i;
-               // increment down the list from i until the next NULL
-               // separator/end of the line
-               while (((int)moves.get(j) != NULL) && (j < moves.size()-1)) {
-                  j++;
-               }
-               // set i to the value after that NULL
-               i = j++;
-            }
-         }
-      }     
-      
-      // if the given piece is a pawn...
-      if (pieceType == PAWN) {
-         // get the coordinate for the square up and to the right of the pawn
-         // (pX and pY have been used instead of something perhaps more
-         // informative in order to keep the source code within 80
-         // characters' width in the for loop below)
-         int pX = pieces[PAWN][pieceTeam][pieceIndex].getXPosition() + 1;
-         int pY = pieces[PAWN][pieceTeam][pieceIndex].getYPosition();
-         
-         // gets the appropriate rank for the direction the pawn is moving
-         if (pieceTeam == WHITE) pY -= 1;
-         else pY += 1;
-         
-         // performs the same task as highlightSquare(), but for the squares
-         // a pawn can make an attack to
-         for (int i=0;(pX < 8) && (pX > -1) && (i < 2);pX-=2,i++) {
-            boolean squareEmpty = false;
-            Piece presentPiece = null;
-            if (chessSquare[pX][pY].hasPiece())
-               presentPiece = chessSquare[pX][pY].getPiece();
-            else squareEmpty = true;
-               
-            if (!squareEmpty) {
-               if ((presentPiece.getTeam() != pieceTeam)
-                   && (presentPiece.getType() != KING)) {
-                  if (hard) {
-                     chessSquare[pX][pY].setBackground(new Color(255,0,0));
-                     chessSquare[pX][pY].setState(ATTACKABLE);
-                  } else {
-                     chessSquare[pX][pY].setBackground(new Color(127,127,127));
-                  }
-               }
-            }
-         }
-      }         
+   private void displayMoves(int from, boolean hard) {
+      // if the moves are already worked out, just show them...
+      if (pieceMoves != null
+          && pieceMoves.getHash() == game.getPosition().getHash()) {
+         pipeline.cancel(MOVES);
+         showMoves(pieceMoves, from, hard);
+      // ...else work them out on the worker thread, then show them
+      } else {
+         workOutMoves(result -> showMoves(result, from, hard));
+      }
       
       // if this displaySquares() call is as a result of a piece being
       // selected...
@@ -337,84 +239,119 @@ public class ChessBoard implements ActionListener, MouseListener {
    }
    
    /*
-    * Wipes the ChessBoard restoring the initial black & white checks.
+    * Works out every piece's moves in the current position on the `MOVES`
+    * worker thread, keeping them for as long as the position lasts, and
+    * then hands them on to `then` (if anything).
+    */
+   private void workOutMoves(Consumer<PieceMoves> then) {
+      final Position snapshot = new Position();
+      snapshot.copyFrom(game.getPosition());
+      pipeline.submit(MOVES,
+                      () -> new PieceMoves(snapshot, workerLogic, moves),
+                      null,
+                      result -> {
+                         pieceMoves = result;
+                         if (then != null) then.accept(result);
+                      });
+   }
+   
+   /*
+    * Colours in the squares a piece's moves go to, once they've been worked
+    * out.
+    */
+   private void showMoves(PieceMoves legal, int from, boolean hard) {
+      // wipe the board
+      defaultSquares();
+      
+      // for each of the piece's moves...
+      for (int i = 0; i < legal.count(from); i++) {
+         int move = legal.get(from, i);
+         int to = Move.to(move);
+         // ...colour in the square it goes to, remembering the move for if
+         // the square's clicked on (a promotion comes up four times, with
+         // the queen last, so that's the one that gets picked)
+         highlightSquare(to, Move.isCapture(move), hard);
+         squareMoves[to] = move;
+      }
+   }
+   
+   /*
+    * Determines whether it's the computer's turn.
+    */
+   private boolean computerToMove() {
+      return game.getSideToMove() == computerTeam;
+   }
+   
+   /*
+    * Has the computer start thinking about its move, if it's its turn and
+    * the game isn't over. It thinks on the `ENGINE` worker thread, and the
+    * move is made once it's done, unless the position has been taken back
+    * in the meantime. Each reply's search has its own stop token, so
+    * stopping one that's been taken back can't cut short the next.
+    */
+   private void computerReply() {
+      if (!computerToMove() || game.getStatus() != Game.ONGOING) return;
+      final Position snapshot = new Position();
+      snapshot.copyFrom(game.getPosition());
+      final long token = search.clearStop();
+      pipeline.submit(ENGINE, () -> {
+         SearchLimits limits = new SearchLimits();
+         limits.setMoveTime(COMPUTER_MOVE_TIME);
+         return search.search(snapshot, limits, token);
+      }, () -> search.stop(token), move -> {
+         if (move == Move.NONE) return;
+         game.applyMove(move);
+         positionChanged();
+         defaultSquares();
+      });
+   }
+   
+   /*
+    * Brings the board up to date after a move is made or taken back: throws
+    * away the old position's moves (and any still being worked out),
+    * redraws, and starts working out the new position's moves straight
+    * away, ready for the first hover.
+    */
+   private void positionChanged() {
+      pieceMoves = null;
+      renderPosition();
+      workOutMoves(null);
+   }
+   
+   /*
+    * Updates the board from the `Position`. Only the squares that have
+    * changed get repainted.
+    */
+   private void renderPosition() {
+      for (int sq = 0; sq < 64; sq++) {
+         view.setPiece(sq, game.getPosition().pieceAt(sq));
+      }
+   }
+   
+   /*
+    * Wipes the board, restoring the initial black & white checks.
     */
    private void defaultSquares() {
-      // this is the same code from the constructor earlier
-      colour = true;
-      for (int x = 0; x <= 7; x++) {
-		   colour = !colour;
-	      for (int y = 0; y <= 7; y++) { 
-	         if (colour) chessSquare[x][y].setBackground(new Color(0, 0, 0));
-	         else chessSquare[x][y].setBackground(new Color(255, 255, 255));
-            chessSquare[x][y].setState(NONE);
-		      
-		      colour = !colour;
-		   }  
-	   }
+      view.clearHighlights();
    }
    
    /*
-    * Highlights a given ChessSquare with colours dependent on a number of 
-    * factors.
+    * Highlights a given square with colours dependent on whether the move
+    * to it takes a piece, and whether the piece moving is selected or just
+    * moused over.
     */
-   private boolean highlightSquare(int x, int y, int team,
-                                   boolean pawn, boolean selected) {
-      boolean squareEmpty = false;
-      // get the piece on the selected square, if applicable
-      Piece presentPiece = null;
-      if (chessSquare[x][y].hasPiece())
-         presentPiece = chessSquare[x][y].getPiece();
-      else squareEmpty = true;
+   private void highlightSquare(int sq, boolean capture, boolean selected) {
       // if this highlighting is a result of a piece being selected, rather
-      // than just moused over...
+      // than just moused over, it's red for a legal attack and green for a
+      // legal move...
       if (selected) {
-         // if the square is clear...
-         if (squareEmpty) {
-            // sets the colour to green, and the state to that of a legal move
-            chessSquare[x][y].setBackground(new Color(0, 100, 0));
-            chessSquare[x][y].setState(MOVABLE);
-            
-            // return that the square doesn't represent an obstacle
-            return false;
-         // ...else...
-         } else {
-            // ...if the square is occupied by an enemy piece...
-            if (presentPiece.getTeam() != team) {
-               // ...and the selected piece isn't a pawn (because their move
-               // forward can't be used as an attack), and the occupying piece
-               // isn't the enemy's king (because they can't be taken, only
-               // put in check)...
-               if ((!pawn) && (presentPiece.getType() != KING)) {
-                  // sets the colour to red, and the state to that of a legal
-                  // attack
-                  chessSquare[x][y].setBackground(new Color(255, 0, 0));
-                  chessSquare[x][y].setState(ATTACKABLE);
-               }
-            }
-            
-            // return that the square does represent an obstacle
-            return true;
-         }
+         view.setHighlight(sq, capture ? BoardView.ATTACKABLE
+                                       : BoardView.MOVABLE);
       // ...else, if the piece has just been highlighted over, do the same as
-      // before, but with fainter shades of red and green 
+      // before, but with fainter shades of red and grey
       } else {
-         if (squareEmpty) {
-            chessSquare[x][y].setBackground(new Color(127, 127, 127));
-         
-            return false;
-         } else {
-            if (presentPiece.getTeam() != team) {
-               if ((pawn) 
-                   && (presentPiece.getType() != KING)) {
-                  // sets the colour to red, and the state to that of a legal
-                  // attack
-                  chessSquare[x][y].setBackground(new Color(127, 0, 0));
-               }
-            }
-         
-            return true;
-         }
+         view.setHighlight(sq, capture ? BoardView.HOVER_ATTACKABLE
+                                       : BoardView.HOVER_MOVABLE);
       }
    }
 }
@@ -0,0 +1,490 @@
+/******************************************************************************
+ *                             ChessSim 0.9                                   *
+ *                  Copyright © 2015 Ben Goldsworthy (rumperuu)               *
+ *                                                                            *
+ * A program to simulate a game of chess between two human players.           *
+ *                                                                            *
+ * This file is part of ChessSim.                                             *
+ *                                                                            *
+ * ChessSim is free software: you can redistribute it and/or modify           *
+ * it under the terms of the GNU General Public License as published by       *
+ * the Free Software Foundation, either version 3 of the License, or          *
+ * (at your option) any later version.                                        *
+ *                                                                            *
+ * ChessSim is distributed in the hope that it will be useful,                *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of             *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the              *
+ * GNU General Public License for more details.                               *
+ *                                                                            *
+ * You should have received a copy of the GNU General Public License          *
+ * along with ChessSim.  If not, see <http://www.gnu.org/licenses/>.          *
+ ******************************************************************************/
+
+/**
+ ** This class is the text-only front end to the ChessSim program. It never
+ ** touches AWT or Swing, so it runs on machines without a display, e.g.
+ **
+ **   java -Djava.awt.headless=true ChessConsole
+ **
+ ** (plus `--add-modules jdk.incubator.vector` for anything using a
+ ** `Network`).
+ **
+ ** The first argument picks what to do:
+ **
+ **   play                     two humans typing moves (the default)
+ **   perft                    checks the standard perft positions
+ **   perft <depth> [fen]      counts the move tree of one position
+ **   divide <depth> [fen]     the same, split by the first move
+ **   bench [millis]           benchmarks move generation and making
+ **   search <millis> [fen]    has the engine think about a position
+ **   smp [threads] [depth]    measures how the search scales over threads
+ **   uci                      talks to a chess GUI over stdin and stdout
+ **   tournament <games> <engine> <engine> [openings]
+ **                            plays two engine set-ups against each other
+ **   pgn <file>               reads every game in a PGN file, checking moves
+ **   index <pgn> <index>      indexes every position in a PGN file
+ **   find <index> [fen]       finds the games in an index reaching a position
+ **   makebook <pgn> <book> [plies] [min games]
+ **                            builds a Polyglot opening book from a PGN file
+ **   book <book> [fen]        lists a book's moves for a position
+ **   tablebase <dir> <material or pieces>
+ **                            makes endgame tables, e.g. "KRPvKR", or all of
+ **                            up to 3, 4 or 5 pieces
+ **   probe <dir> [fen]        looks a position up in the endgame tables
+ **   makenet <file>           writes out the bootstrap evaluation network
+ **
+ ** A tournament engine is written as its limits, like "nodes=20000",
+ ** "depth=6" or "movetime=50", joined with commas to any of "hash=16" (its
+ ** table size in megabytes) and "net=<file>" (a network to score with), or
+ ** to "uci=<command>" for an outside engine, plus "option.<name>=<value>"
+ ** for each UCI option to give it. A tournament's
+ ** openings can be a file of FEN lines, or a Polyglot book (ending ".bin")
+ ** to play random lines from.
+ **/
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ **   @author  Ben Goldsworthy (rumperuu) <me+chesssim@bengoldsworthy.net>
+ **   @version 0.92
+ **/
+public class ChessConsole {
+   private static final String PIECE_LETTERS = "PRNBQKprnbqk";
+   // the most game offsets `find` lists
+   private static final int FIND_LIMIT = 20;
+   // how far into games `makebook` goes, and how far tournament openings
+   // are played into a book, by default
+   private static final int BOOK_PLIES = 24, OPENING_PLIES = 8;
+
+   public static void main(String[] arguments) throws IOException {
+      String command = (arguments.length > 0) ? arguments[0] : "play";
+      switch (command) {
+      case "play":
+         play(new BufferedReader(new InputStreamReader(System.in)),
+              System.out);
+         break;
+      case "perft":
+         if (arguments.length == 1) {
+            if (!new Perft().runSuite(System.out)) System.exit(1);
+         } else {
+            Position pos = positionArgument(arguments, 2);
+            int depth = Integer.parseInt(arguments[1]);
+            long start = System.nanoTime();
+            long nodes = new Perft().perft(pos, depth);
+            System.out.println(Perft.summary(nodes,
+                                             System.nanoTime() - start));
+         }
+         break;
+      case "divide":
+         new Perft().divide(positionArgument(arguments, 2),
+                            Integer.parseInt(arguments[1]), System.out);
+         break;
+      case "bench":
+         long millis = (arguments.length > 1) ? Long.parseLong(arguments[1])
+                                              : 1000;
+         new ChessBench(millis).runAll(System.out);
+         break;
+      case "search":
+         SearchLimits limits = new SearchLimits();
+         limits.setMoveTime(Long.parseLong(arguments[1]));
+         search(positionArgument(arguments, 2), limits, System.out);
+         break;
+      case "uci":
+         new UciEngine(System.in, System.out).run();
+         break;
+      case "tournament":
+         Tournament tournament = new Tournament(
+            setupArgument(arguments[2]), setupArgument(arguments[3]),
+            (arguments.length > 4)
+            ? openingsArgument(arguments[4], Integer.parseInt(arguments[1]))
+            : List.of(UciEngine.START_FEN),
+            Runtime.getRuntime().availableProcessors());
+         tournament.run(Integer.parseInt(arguments[1]), System.out);
+         break;
+      case "pgn":
+         readPgn(Paths.get(arguments[1]), System.out);
+         break;
+      case "index":
+         long start = System.nanoTime();
+         long entries = PositionIndex.build(Paths.get(arguments[1]),
+                                            Paths.get(arguments[2]));
+         System.out.println("Entries " + entries + "  time "
+                            + (System.nanoTime() - start) / 1000000 + " ms");
+         break;
+      case "find":
+         findGames(new PositionIndex(Paths.get(arguments[1])),
+                   positionArgument(arguments, 2), System.out);
+         break;
+      case "makebook":
+         int plies = (arguments.length > 3) ? Integer.parseInt(arguments[3])
+                                            : BOOK_PLIES;
+         int minGames = (arguments.length > 4)
+                        ? Integer.parseInt(arguments[4]) : 1;
+         System.out.println("Entries " + PolyglotBook.build(
+            Paths.get(arguments[1]), Paths.get(arguments[2]), plies,
+            minGames));
+         break;
+      case "book":
+         listBook(new PolyglotBook(Paths.get(arguments[1])),
+                  positionArgument(arguments, 2), System.out);
+         break;
+      case "tablebase":
+         TablebaseGenerator generator = new TablebaseGenerator(
+            Paths.get(arguments[1]), System.out);
+         if (arguments[2].matches("\\d+"))
+            generator.generateAll(Integer.parseInt(arguments[2]));
+         else generator.generate(arguments[2]);
+         break;
+      case "probe":
+         probeTablebase(new Tablebase(Paths.get(arguments[1])),
+                        positionArgument(arguments, 2), System.out);
+         break;
+      case "makenet":
+         Network.bootstrap().write(Paths.get(arguments[1]));
+         break;
+      case "smp":
+         int maxThreads = (arguments.length > 1)
+                          ? Integer.parseInt(arguments[1]) : 32;
+         int depth = (arguments.length > 2) ? Integer.parseInt(arguments[2])
+                                            : 8;
+         ParallelSearch.runScaling(maxThreads, depth, 64, System.out);
+         break;
+      default:
+         System.out.println("Error 03: unknown command '" + command + "'.");
+         System.out.println("Commands: play, perft, divide, bench, search, "
+                            + "smp, uci, tournament, pgn, index, find, "
+                            + "makebook, book, tablebase, probe, makenet");
+         System.exit(1);
+      }
+   }
+
+   /*
+    * Reads every game in a PGN file on all the cores, and reports how many
+    * there were and how fast they were read.
+    */
+   private static void readPgn(Path file, PrintStream out)
+   throws IOException {
+      PgnReader reader = new PgnReader(file);
+      LongAdder games = new LongAdder(), plies = new LongAdder();
+      LongAdder invalid = new LongAdder();
+      long start = System.nanoTime();
+      reader.parallelForEach(game -> {
+         games.increment();
+         plies.add(game.getMoveCount());
+         if (!game.isValid()) invalid.increment();
+      });
+      long millis = Math.max(1, (System.nanoTime() - start) / 1000000);
+      out.println("Games " + games.sum() + "  plies " + plies.sum()
+                  + "  invalid " + invalid.sum() + "  time " + millis
+                  + " ms  " + (reader.size() * 1000 / millis / 1000000)
+                  + " MB/s  " + (games.sum() * 1000 / millis) + " games/s");
+   }
+
+   /*
+    * Looks a position up in an index, and lists where the games that
+    * reached it start in the PGN file.
+    */
+   private static void findGames(PositionIndex index, Position pos,
+                                 PrintStream out) {
+      long start = System.nanoTime();
+      long[] games = index.find(pos);
+      long micros = (System.nanoTime() - start) / 1000;
+      out.println("Games " + games.length + "  time " + micros + " us");
+      for (int i = 0; i < Math.min(games.length, FIND_LIMIT); i++)
+         out.println("  at byte " + games[i]);
+      if (games.length > FIND_LIMIT)
+         out.println("  ... and " + (games.length - FIND_LIMIT) + " more");
+   }
+
+   /*
+    * Lists a book's moves for a position, with their weights.
+    */
+   private static void listBook(PolyglotBook book, Position pos,
+                                PrintStream out) {
+      int[] moves = new int[MoveGenerator.MAX_MOVES];
+      int[] weights = new int[MoveGenerator.MAX_MOVES];
+      long start = System.nanoTime();
+      int count = book.probe(pos, moves, weights);
+      long micros = (System.nanoTime() - start) / 1000;
+      out.println("Moves " + count + "  time " + micros + " us");
+      for (int i = 0; i < count; i++)
+         out.println("  " + Move.toString(moves[i]) + "  " + weights[i]);
+   }
+
+   /*
+    * Looks a position up in the endgame tables, and lists what each move
+    * leads to.
+    */
+   private static void probeTablebase(Tablebase tablebase, Position pos,
+                                      PrintStream out) {
+      String[] results = {"loss", "draw", "win", "unknown"};
+      long start = System.nanoTime();
+      int result = tablebase.probeWdl(pos);
+      int distance = tablebase.probeDtz(pos);
+      long micros = (System.nanoTime() - start) / 1000;
+      out.println("Result " + results[result + 1] + "  dtz " + distance
+                  + "  time " + micros + " us");
+      if (result == Tablebase.UNKNOWN) return;
+      int best = tablebase.bestMove(pos);
+      out.println("Best move " + ((best == Move.NONE) ? "(none)"
+                                                      : Move.toString(best)));
+      int[] moves = new int[MoveGenerator.MAX_MOVES];
+      int count = new ChessLogic().generateLegal(pos, moves, 0);
+      for (int i = 0; i < count; i++) {
+         pos.makeMove(moves[i]);
+         // the result for the side that made the move
+         int after = tablebase.probeWdl(pos);
+         out.println("  " + Move.toString(moves[i]) + "  "
+                     + results[(after == Tablebase.UNKNOWN) ? 3 : 1 - after]
+                     + "  dtz " + tablebase.probeDtz(pos));
+         pos.unmakeMove(moves[i]);
+      }
+   }
+
+   /*
+    * Gets a tournament's openings: from a Polyglot book if the file's name
+    * ends ".bin", or else a file of FEN lines.
+    */
+   private static List<String> openingsArgument(String file, int games)
+   throws IOException {
+      if (!file.endsWith(".bin"))
+         return Tournament.loadOpenings(Paths.get(file));
+      return Tournament.bookOpenings(new PolyglotBook(Paths.get(file)),
+                                     Math.max(1, games / 2), OPENING_PLIES,
+                                     System.nanoTime());
+   }
+
+   /*
+    * Sets up the position given as FEN by the arguments from `first`
+    * onwards, or the start position if there aren't any.
+    */
+   private static Position positionArgument(String[] arguments, int first) {
+      Position pos = new Position();
+      if (arguments.length <= first) {
+         pos.setStartPosition();
+      } else {
+         StringBuilder fen = new StringBuilder();
+         for (int i = first; i < arguments.length; i++)
+            fen.append(arguments[i]).append(' ');
+         pos.setFen(fen.toString());
+      }
+      return pos;
+   }
+
+   /*
+    * Reads a tournament engine, e.g. "nodes=20000,depth=8,net=test.nnue"
+    * or "movetime=50,uci=/usr/bin/stockfish,option.Threads=1".
+    */
+   private static EngineSetup setupArgument(String text) throws IOException {
+      SearchLimits limits = new SearchLimits();
+      EngineSetup setup = new EngineSetup(limits);
+      for (String setting : text.split(",")) {
+         String[] parts = setting.split("=", 2);
+         if (parts.length != 2)
+            throw new IllegalArgumentException("Bad setting: " + setting);
+         String value = parts[1];
+         if (parts[0].startsWith("option.")) {
+            setup.setOption(parts[0].substring(7), value);
+            continue;
+         }
+         switch (parts[0]) {
+         case "nodes": limits.setNodes(Long.parseLong(value)); break;
+         case "depth": limits.setDepth(Integer.parseInt(value)); break;
+         case "movetime": limits.setMoveTime(Long.parseLong(value)); break;
+         case "hash": setup.setHashMegabytes(Integer.parseInt(value)); break;
+         case "net": setup.setNetwork(new Network(Paths.get(value))); break;
+         case "uci": setup.setCommand(List.of(value.trim().split("\\s+")));
+                     break;
+         default:
+            throw new IllegalArgumentException("Bad setting: " + setting);
+         }
+      }
+      return setup;
+   }
+
+   /*
+    * Plays a game of two humans typing moves in coordinate notation
+    * (e.g. "e2e4"), with a few commands of its own.
+    */
+   private static void play(BufferedReader in, PrintStream out)
+   throws IOException {
+      Game game = new Game();
+      int[] moves = new int[MoveGenerator.MAX_MOVES];
+      out.println("Enter moves like e2e4, or: go, moves, undo, board, new, "
+                  + "fen [<fen>], quit");
+      out.print(boardText(game.getPosition()));
+
+      String line;
+      while ((line = in.readLine()) != null) {
+         line = line.trim();
+         if (line.isEmpty()) continue;
+         switch (line) {
+         case "quit": case "exit":
+            return;
+         case "board":
+            out.print(boardText(game.getPosition()));
+            break;
+         case "new":
+            game = new Game();
+            out.print(boardText(game.getPosition()));
+            break;
+         case "undo":
+            if (!game.undo()) out.println("Nothing to undo.");
+            else out.print(boardText(game.getPosition()));
+            break;
+         case "go":
+            // the computer moves for whichever side is to play
+            SearchLimits limits = new SearchLimits();
+            limits.setMoveTime(1000);
+            int move = search(game.getPosition(), limits, out);
+            if (move == Move.NONE) {
+               out.println("There are no legal moves.");
+               break;
+            }
+            game.applyMove(move);
+            out.print(boardText(game.getPosition()));
+            out.println(statusText(game));
+            break;
+         case "moves":
+            int count = game.legalMoves(moves);
+            StringBuilder list = new StringBuilder();
+            for (int i = 0; i < count; i++)
+               list.append(Move.toString(moves[i])).append(' ');
+            out.println(list.toString().trim());
+            break;
+         case "fen":
+            out.println(game.getPosition().toFen());
+            break;
+         default:
+            // "fen" followed by a position starts again from there
+            if (line.startsWith("fen ")) {
+               try {
+                  game = new Game(line.substring(4));
+                  out.print(boardText(game.getPosition()));
+               } catch (IllegalArgumentException e) {
+                  out.println(e.getMessage());
+               }
+               break;
+            }
+            if (!game.applyMove(game.parseMove(line))) {
+               out.println("Illegal move: " + line);
+               break;
+            }
+            out.print(boardText(game.getPosition()));
+            out.println(statusText(game));
+         }
+      }
+   }
+
+   /*
+    * Searches a position, writing out a line for each iteration and then
+    * the move it settled on, and returns that move.
+    */
+   private static int search(Position pos, SearchLimits limits,
+                             PrintStream out) {
+      Search search = new Search();
+      search.setListener((depth, score, nodes, millis, pv, pvLength) -> {
+         StringBuilder line = new StringBuilder();
+         line.append("depth ").append(depth).append("  score ")
+             .append(scoreText(score)).append("  nodes ").append(nodes)
+             .append("  time ").append(millis).append(" ms  nps ")
+             .append(nodes * 1000 / Math.max(1, millis)).append("  pv");
+         for (int i = 0; i < pvLength; i++)
+            line.append(' ').append(Move.toString(pv[i]));
+         out.println(line);
+      });
+      int move = search.search(pos, limits);
+      out.println("bestmove " + Move.toString(move) + "  depth "
+                  + search.getDepthReached() + "  nodes "
+                  + search.getNodes() + "  time "
+                  + search.getElapsed() + " ms  nps "
+                  + search.getNodesPerSecond());
+      TranspositionTable table = search.getTable();
+      out.printf("hash hits %.1f%%  full %d permill  pawn hash hits %.1f%%%n",
+                 table.getHitRate() * 100, table.getOccupancy(),
+                 search.getEvaluator().getPawnTable().getHitRate() * 100);
+      return move;
+   }
+
+   /*
+    * Writes a score as centipawns, or as "mate n" (in moves, negative if
+    * it's the side to move getting mated).
+    */
+   private static String scoreText(int score) {
+      if (!Search.isMateScore(score)) return score + " cp";
+      int plies = Search.MATE - Math.abs(score);
+      int moves = (plies + 1) / 2;
+      return "mate " + ((score > 0) ? moves : -moves);
+   }
+
+   /**
+    **   Draws a position as text, White at the bottom.
+    **   @param pos the position
+    **   @return the drawing
+    **/
+   public static String boardText(Position pos) {
+      StringBuilder text = new StringBuilder();
+      for (int rank = 7; rank >= 0; rank--) {
+         text.append(rank + 1).append(' ');
+         for (int file = 0; file < 8; file++) {
+            int piece = pos.pieceAt(rank * 8 + file);
+            text.append(' ').append((piece == Position.EMPTY)
+                                    ? '.' : PIECE_LETTERS.charAt(piece));
+         }
+         text.append('\n');
+      }
+      text.append("   a b c d e f g h\n");
+      text.append((pos.getSideToMove() == Position.WHITE) ? "White" : "Black")
+          .append(" to move\n");
+      return text.toString();
+   }
+
+   /*
+    * Describes how the game stands after a move.
+    */
+   private static String statusText(Game game) {
+      String side = (game.getSideToMove() == Position.WHITE) ? "White"
+                                                             : "Black";
+      switch (game.getStatus()) {
+      case Game.CHECKMATE:
+         return "Checkmate. " + side + " loses.";
+      case Game.STALEMATE:
+         return "Stalemate.";
+      case Game.FIFTY_MOVE_RULE:
+         return "Draw by the fifty-move rule.";
+      case Game.THREEFOLD_REPETITION:
+         return "Draw by threefold repetition.";
+      case Game.INSUFFICIENT_MATERIAL:
+         return "Draw, since neither side can mate.";
+      default:
+         return game.inCheck() ? side + " is in check." : "";
+      }
+   }
+}
@@ -22,7 +22,30 @@
 
 /**
  ** This class represents chess logic, utilised in the ChessSim program.
+ **
+ ** Besides keeping track of what the `ChessBoard` is up to, it generates the
+ ** legal moves in a `Position`. Rather than making every move and then
+ ** checking whether it left the king in check, it works out up front which
+ ** pieces are giving check and which are pinned, and only generates moves
+ ** that respect both:
+ **
+ **   - in double check, only the king can move;
+ **   - in single check, everything else has to take the checker or block it
+ **     (the "check mask");
+ **   - a pinned piece can only move along the line between its king and the
+ **     piece pinning it (its "pin mask").
+ **
+ ** It can also keep attack maps for one position it's been told to
+ ** `track()`: the squares the piece on each square attacks, every square
+ ** each team attacks, and the pieces giving check and pinned and pinning.
+ ** Moves made and unmade through `makeMove()` and `unmakeMove()` only
+ ** work out again the attacks of the pieces that moved and of the sliders
+ ** whose rays crossed a square that changed; and the legal moves of the
+ ** tracked position come straight from the maps. A position changed any
+ ** other way is noticed (by its key) and worked out again from scratch.
  **/
+
+import java.util.Arrays;
  
 /**
  **   @author  Ben Goldsworthy (rumperuu) <me+chesssim@bengoldsworthy.net>
@@ -34,6 +57,28 @@ public class ChessLogic {
    
    // stores the current state of the game
    private int currentState;
+   // the line each pinned piece is stuck on, refilled for each position
+   private final long[] pinMask = new long[64];
+   // the pieces pinning them, as found by the last `findPins()`
+   private long pinnersFound;
+
+   // the attack maps of the tracked position, indexed by square and by
+   // team, and the pin lines for its side to move
+   private long[] attacksFrom, trackedPinMask;
+   private final long[] attacks = new long[2];
+   private long checkers, pinned, pinners;
+   // the tracked position, and its key and history size when the maps were
+   // last brought up to date, so a change behind their back is noticed
+   private Position tracked;
+   private long trackedHash;
+   private int trackedPly;
+   // what each move changed, to put back when it's unmade: the squares and
+   // their old attacks, where each ply's changes start, and the team maps,
+   // checkers, pinned and pinners from before it
+   private int[] undoSquares;
+   private long[] undoAttacks, undoMaps;
+   private int[] undoStart;
+   private int undoTop, undoPly;
    
    /**
     **   Constructor function.
@@ -52,9 +97,8 @@ public class ChessLogic {
    }
    
    /**
-    **   Determines if a given rank is either team's back rank. Currently
-    **   used to populate pieces, but could also be called to deal with pawn
-    **   promotion if I ever got around to adding that.
+    **   Determines if a given rank is either team's back rank, which is
+    **   where the pieces start and where pawns promote.
     **   @param y the rank number
     **   @return a boolean value
     **/
@@ -62,6 +106,507 @@ public class ChessLogic {
       return (((y == 0) || (y == 7)) ? true: false);
    }
    
+   /**
+    **   Starts keeping attack maps for a position, working them out from
+    **   scratch.
+    **   @param pos the position, which from now on should have moves made
+    **          and unmade on it through this `ChessLogic`
+    **/
+   public void track(Position pos) {
+      if (attacksFrom == null) {
+         attacksFrom = new long[64];
+         trackedPinMask = new long[64];
+         undoSquares = new int[Position.MAX_HISTORY * 8];
+         undoAttacks = new long[Position.MAX_HISTORY * 8];
+         undoMaps = new long[Position.MAX_HISTORY * 5];
+         undoStart = new int[Position.MAX_HISTORY + 1];
+      }
+      tracked = pos;
+      undoTop = undoPly = 0;
+      long occupied = pos.getOccupied();
+      for (int sq = 0; sq < 64; sq++)
+         attacksFrom[sq] = attacksOf(pos, sq, occupied);
+      updateMaps(pos);
+   }
+
+   /**
+    **   Makes a move on the tracked position, bringing the attack maps up to
+    **   date.
+    **   @param pos the position, which if it isn't the tracked one (or has
+    **          been changed some other way) becomes it
+    **   @param move the move
+    **/
+   public void makeMove(Position pos, int move) {
+      if (!isTracking(pos)) {
+         pos.makeMove(move);
+         track(pos);
+         return;
+      }
+      int from = Move.from(move), to = Move.to(move);
+      int flags = Move.flags(move);
+      long changed = (1L << from) | (1L << to);
+      if (flags == Move.EP_CAPTURE) changed |= 1L << (to ^ 8);
+      else if (flags == Move.KING_CASTLE)
+         changed |= (1L << (to + 1)) | (1L << (to - 1));
+      else if (flags == Move.QUEEN_CASTLE)
+         changed |= (1L << (to - 2)) | (1L << (to + 1));
+      pos.makeMove(move);
+
+      int maps = undoPly * 5;
+      undoMaps[maps] = attacks[Position.WHITE];
+      undoMaps[maps + 1] = attacks[Position.BLACK];
+      undoMaps[maps + 2] = checkers;
+      undoMaps[maps + 3] = pinned;
+      undoMaps[maps + 4] = pinners;
+      undoStart[undoPly++] = undoTop;
+
+      // the sliders whose rays ran into a changed square (up to and
+      // including their first blocker) are the only others affected
+      long occupied = pos.getOccupied();
+      long affected = changed;
+      long sliders = occupied & ~changed & sliders(pos);
+      while (sliders != 0) {
+         int sq = Long.numberOfTrailingZeros(sliders);
+         sliders &= sliders - 1;
+         if ((attacksFrom[sq] & changed) != 0) affected |= 1L << sq;
+      }
+      if (undoTop + 64 > undoSquares.length) {
+         undoSquares = Arrays.copyOf(undoSquares, undoSquares.length * 2);
+         undoAttacks = Arrays.copyOf(undoAttacks, undoAttacks.length * 2);
+      }
+      while (affected != 0) {
+         int sq = Long.numberOfTrailingZeros(affected);
+         affected &= affected - 1;
+         undoSquares[undoTop] = sq;
+         undoAttacks[undoTop++] = attacksFrom[sq];
+         attacksFrom[sq] = attacksOf(pos, sq, occupied);
+      }
+      updateMaps(pos);
+   }
+
+   /**
+    **   Takes back a move on the tracked position, putting the attack maps
+    **   back as they were.
+    **   @param pos the position
+    **   @param move the same move that was passed to `makeMove()`
+    **/
+   public void unmakeMove(Position pos, int move) {
+      if (!isTracking(pos) || undoPly == 0) {
+         pos.unmakeMove(move);
+         track(pos);
+         return;
+      }
+      pos.unmakeMove(move);
+      int start = undoStart[--undoPly];
+      while (undoTop > start) {
+         undoTop--;
+         attacksFrom[undoSquares[undoTop]] = undoAttacks[undoTop];
+      }
+      int maps = undoPly * 5;
+      attacks[Position.WHITE] = undoMaps[maps];
+      attacks[Position.BLACK] = undoMaps[maps + 1];
+      checkers = undoMaps[maps + 2];
+      pinned = undoMaps[maps + 3];
+      pinners = undoMaps[maps + 4];
+      // the pin lines aren't kept per ply, but there are only ever a few
+      findPins(pos, pos.getSideToMove(), pos.kingSquare(pos.getSideToMove()),
+               trackedPinMask);
+      trackedHash = pos.getHash();
+      trackedPly = pos.getHistorySize();
+   }
+
+   /**
+    **   Gets every square a team attacks in the tracked position.
+    **   @param team WHITE or BLACK
+    **   @return the bitboard of attacked squares
+    **/
+   public long getAttacks(int team) {
+      return attacks[team];
+   }
+
+   /**
+    **   Gets the squares the piece on a square attacks in the tracked
+    **   position.
+    **   @param sq the square
+    **   @return the bitboard of attacked squares, or 0 if it's empty
+    **/
+   public long getAttacksFrom(int sq) {
+      return attacksFrom[sq];
+   }
+
+   /**
+    **   Gets the pieces giving check in the tracked position.
+    **   @return the bitboard of checkers
+    **/
+   public long getCheckers() {
+      return checkers;
+   }
+
+   /**
+    **   Gets the side to move's pieces pinned to its king in the tracked
+    **   position.
+    **   @return the bitboard of pinned pieces
+    **/
+   public long getPinned() {
+      return pinned;
+   }
+
+   /**
+    **   Gets the enemy sliders pinning a piece to the side to move's king in
+    **   the tracked position.
+    **   @return the bitboard of pinners
+    **/
+   public long getPinners() {
+      return pinners;
+   }
+
+   /**
+    **   Determines whether the attack maps are up to date for a position.
+    **   @param pos the position
+    **   @return a boolean value
+    **/
+   public boolean isTracking(Position pos) {
+      return (pos == tracked) && (pos.getHash() == trackedHash)
+             && (pos.getHistorySize() == trackedPly);
+   }
+
+   /*
+    * Works out the team maps, checkers and pins of the tracked position
+    * from the per-square attacks.
+    */
+   private void updateMaps(Position pos) {
+      for (int team = Position.WHITE; team <= Position.BLACK; team++) {
+         long map = 0;
+         for (long pieces = pos.getOccupancy(team); pieces != 0;
+              pieces &= pieces - 1)
+            map |= attacksFrom[Long.numberOfTrailingZeros(pieces)];
+         attacks[team] = map;
+      }
+      int us = pos.getSideToMove(), them = us ^ 1;
+      int king = pos.kingSquare(us);
+      checkers = 0;
+      if ((attacks[them] & (1L << king)) != 0)
+         for (long pieces = pos.getOccupancy(them); pieces != 0;
+              pieces &= pieces - 1) {
+            int sq = Long.numberOfTrailingZeros(pieces);
+            if ((attacksFrom[sq] & (1L << king)) != 0) checkers |= 1L << sq;
+         }
+      pinned = findPins(pos, us, king, trackedPinMask);
+      pinners = pinnersFound;
+      trackedHash = pos.getHash();
+      trackedPly = pos.getHistorySize();
+   }
+
+   /*
+    * Gets the squares the piece on a square attacks, or 0 if it's empty.
+    */
+   private static long attacksOf(Position pos, int sq, long occupied) {
+      switch (pos.typeAt(sq)) {
+      case Position.PAWN: return Attacks.pawn(pos.teamAt(sq), sq);
+      case Position.KNIGHT: return Attacks.knight(sq);
+      case Position.BISHOP: return Attacks.bishop(sq, occupied);
+      case Position.ROOK: return Attacks.rook(sq, occupied);
+      case Position.QUEEN: return Attacks.queen(sq, occupied);
+      case Position.KING: return Attacks.king(sq);
+      default: return 0L;
+      }
+   }
+
+   /*
+    * Gets every bishop, rook and queen on the board.
+    */
+   private static long sliders(Position pos) {
+      long sliders = 0;
+      for (int team = Position.WHITE; team <= Position.BLACK; team++)
+         sliders |= pos.getPieces(team, Position.BISHOP)
+                    | pos.getPieces(team, Position.ROOK)
+                    | pos.getPieces(team, Position.QUEEN);
+      return sliders;
+   }
+
+   /**
+    **   Generates every legal move for the side to move.
+    **   @param pos the position
+    **   @param moves the array to write the moves into
+    **   @param start the index of `moves` to start writing at
+    **   @return the number of moves written
+    **/
+   public int generateLegal(Position pos, int[] moves, int start) {
+      return generate(pos, moves, start, true);
+   }
+
+   /**
+    **   Generates just the legal captures and promotions for the side to
+    **   move, which is all a quiescence search wants to look at.
+    **   @param pos the position
+    **   @param moves the array to write the moves into
+    **   @param start the index of `moves` to start writing at
+    **   @return the number of moves written
+    **/
+   public int generateLegalCaptures(Position pos, int[] moves, int start) {
+      return generate(pos, moves, start, false);
+   }
+
+   /*
+    * Generates the legal moves, leaving out the quiet ones (anything that
+    * neither takes a piece nor promotes) if asked to.
+    */
+   private int generate(Position pos, int[] moves, int start,
+                        boolean quiets) {
+      final int us = pos.getSideToMove(), them = us ^ 1;
+      final int king = pos.kingSquare(us);
+      final long own = pos.getOccupancy(us);
+      final long occupied = pos.getOccupied();
+      // kings can't be taken, only put in check
+      final long enemies = pos.getOccupancy(them)
+                           & ~pos.getPieces(them, Position.KING);
+      final long wanted = quiets ? -1L : enemies;
+      final boolean maps = isTracking(pos);
+      int n = start;
+
+      // the king can go anywhere it isn't attacked, bearing in mind it
+      // can't hide from a slider behind the square it's leaving
+      long kingTargets = Attacks.king(king) & ~own
+                         & ~pos.getPieces(them, Position.KING) & wanted;
+      long checkers;
+      if (maps) {
+         checkers = this.checkers;
+         kingTargets &= ~attacks[them];
+         // the maps stop a checking slider's ray at the king, but the
+         // square behind it is attacked too once the king's moved
+         for (long sliders = checkers & sliders(pos); sliders != 0;
+              sliders &= sliders - 1) {
+            int sq = Long.numberOfTrailingZeros(sliders);
+            kingTargets &= ~(Attacks.line(king, sq) & ~(1L << sq));
+         }
+         n = addMoves(king, kingTargets, enemies, moves, n);
+      } else {
+         checkers = attackersTo(pos, king, occupied, them);
+         long withoutKing = occupied & ~(1L << king);
+         while (kingTargets != 0) {
+            int to = Long.numberOfTrailingZeros(kingTargets);
+            kingTargets &= kingTargets - 1;
+            if (attackersTo(pos, to, withoutKing, them) == 0)
+               moves[n++] = Move.encode(king, to,
+                                        ((enemies & (1L << to)) != 0)
+                                        ? Move.CAPTURE : Move.QUIET);
+         }
+      }
+      if (Long.bitCount(checkers) > 1) return n - start;
+      long checkMask = -1L;
+      if (checkers != 0) {
+         int checker = Long.numberOfTrailingZeros(checkers);
+         checkMask = checkers | Attacks.between(king, checker);
+      } else if (quiets) {
+         n = addCastling(pos, us, king, moves, n);
+      }
+      long[] pinLines = maps ? trackedPinMask : pinMask;
+      long pinned = maps ? this.pinned : findPins(pos, us, king, pinMask);
+      long targets = ~own & ~pos.getPieces(them, Position.KING) & checkMask
+                     & wanted;
+
+      n = addPawnMoves(pos, us, king, enemies, checkMask, pinned, pinLines,
+                       quiets, moves, n);
+
+      long knights = pos.getPieces(us, Position.KNIGHT) & ~pinned;
+      while (knights != 0) {
+         int from = Long.numberOfTrailingZeros(knights);
+         knights &= knights - 1;
+         n = addMoves(from, Attacks.knight(from) & targets, enemies, moves, n);
+      }
+      long diagonals = pos.getPieces(us, Position.BISHOP)
+                       | pos.getPieces(us, Position.QUEEN);
+      while (diagonals != 0) {
+         int from = Long.numberOfTrailingZeros(diagonals);
+         diagonals &= diagonals - 1;
+         long allowed = targets & pinMaskOf(from, pinned, pinLines);
+         n = addMoves(from, Attacks.bishop(from, occupied) & allowed, enemies,
+                      moves, n);
+      }
+      long orthogonals = pos.getPieces(us, Position.ROOK)
+                         | pos.getPieces(us, Position.QUEEN);
+      while (orthogonals != 0) {
+         int from = Long.numberOfTrailingZeros(orthogonals);
+         orthogonals &= orthogonals - 1;
+         long allowed = targets & pinMaskOf(from, pinned, pinLines);
+         n = addMoves(from, Attacks.rook(from, occupied) & allowed, enemies,
+                      moves, n);
+      }
+      return n - start;
+   }
+
+   /**
+    **   Gets every piece of a team that attacks a square.
+    **   @param pos the position
+    **   @param sq the square
+    **   @param occupied the occupied squares to use for sliders, which
+    **          needn't be the position's own
+    **   @param byTeam the attacking team
+    **   @return the bitboard of attackers
+    **/
+   public static long attackersTo(Position pos, int sq, long occupied,
+                                  int byTeam) {
+      long queens = pos.getPieces(byTeam, Position.QUEEN);
+      return ((Attacks.pawn(byTeam ^ 1, sq)
+               & pos.getPieces(byTeam, Position.PAWN))
+              | (Attacks.knight(sq) & pos.getPieces(byTeam, Position.KNIGHT))
+              | (Attacks.king(sq) & pos.getPieces(byTeam, Position.KING))
+              | (Attacks.bishop(sq, occupied)
+                 & (pos.getPieces(byTeam, Position.BISHOP) | queens))
+              | (Attacks.rook(sq, occupied)
+                 & (pos.getPieces(byTeam, Position.ROOK) | queens)))
+             & occupied;
+   }
+
+   /*
+    * Finds every piece pinned to the king, and fills in `masks` with the
+    * line each one is stuck on (and `pinnersFound` with the pieces pinning
+    * them).
+    */
+   private long findPins(Position pos, int us, int king, long[] masks) {
+      int them = us ^ 1;
+      long own = pos.getOccupancy(us);
+      long theirs = pos.getOccupancy(them);
+      long queens = pos.getPieces(them, Position.QUEEN);
+      // enemy sliders that would be attacking the king if none of our pieces
+      // were in the way
+      long snipers = (Attacks.rook(king, theirs)
+                      & (pos.getPieces(them, Position.ROOK) | queens))
+                     | (Attacks.bishop(king, theirs)
+                        & (pos.getPieces(them, Position.BISHOP) | queens));
+      long pinned = 0L;
+      pinnersFound = 0L;
+      while (snipers != 0) {
+         int sniper = Long.numberOfTrailingZeros(snipers);
+         snipers &= snipers - 1;
+         long blockers = Attacks.between(king, sniper) & pos.getOccupied();
+         // exactly one piece in the way, and it's ours
+         if ((blockers != 0) && ((blockers & (blockers - 1)) == 0)
+             && ((blockers & own) != 0)) {
+            pinned |= blockers;
+            pinnersFound |= 1L << sniper;
+            masks[Long.numberOfTrailingZeros(blockers)] =
+               Attacks.line(king, sniper);
+         }
+      }
+      return pinned;
+   }
+
+   /*
+    * Gets the squares a piece is allowed to move to as far as pins go.
+    */
+   private static long pinMaskOf(int sq, long pinned, long[] masks) {
+      return ((pinned & (1L << sq)) != 0) ? masks[sq] : -1L;
+   }
+
+   /*
+    * Adds the legal pawn moves, including promotions and en passant. If
+    * `quiets` is false, the only pushes added are promotions.
+    */
+   private int addPawnMoves(Position pos, int us, int king, long enemies,
+                            long checkMask, long pinned, long[] pinLines,
+                            boolean quiets, int[] moves, int n) {
+      final long occupied = pos.getOccupied();
+      final int forward = (us == Position.WHITE) ? 8 : -8;
+      final long startRank = (us == Position.WHITE) ? Bitboards.RANK_2
+                                                    : Bitboards.RANK_7;
+      final long lastRank = (us == Position.WHITE) ? Bitboards.RANK_8
+                                                   : Bitboards.RANK_1;
+      final int ep = pos.getEpSquare();
+      long pawns = pos.getPieces(us, Position.PAWN);
+      while (pawns != 0) {
+         int from = Long.numberOfTrailingZeros(pawns);
+         pawns &= pawns - 1;
+         long allowed = checkMask & pinMaskOf(from, pinned, pinLines);
+
+         long targets = Attacks.pawn(us, from) & enemies;
+         int one = from + forward;
+         if (((occupied & (1L << one)) == 0)
+             && (quiets || ((lastRank & (1L << one)) != 0))) {
+            targets |= 1L << one;
+            int two = one + forward;
+            if (quiets && ((startRank & (1L << from)) != 0)
+                && ((occupied & (1L << two)) == 0)
+                && ((allowed & (1L << two)) != 0))
+               moves[n++] = Move.encode(from, two, Move.DOUBLE_PUSH);
+         }
+         targets &= allowed;
+         while (targets != 0) {
+            int to = Long.numberOfTrailingZeros(targets);
+            long bit = targets & -targets;
+            targets ^= bit;
+            int flags = ((enemies & bit) != 0) ? Move.CAPTURE : Move.QUIET;
+            if ((lastRank & bit) != 0) {
+               // the queen goes last, so anything that only wants one
+               // promotion can take the last it sees
+               for (int piece = Move.KNIGHT_PROMOTION;
+                    piece <= Move.QUEEN_PROMOTION; piece++)
+                  moves[n++] = Move.encode(from, to,
+                                           flags | Move.PROMOTION | piece);
+            } else {
+               moves[n++] = Move.encode(from, to, flags);
+            }
+         }
+
+         if ((ep != Position.NO_SQUARE)
+             && ((Attacks.pawn(us, from) & (1L << ep)) != 0)) {
+            // en passant takes two pieces off a line at once, which pins and
+            // check masks don't allow for, so it gets checked directly: take
+            // both pawns off, put ours on the en passant square and see if
+            // anything's attacking the king
+            int captured = ep - forward;
+            long after = (occupied & ~(1L << from) & ~(1L << captured))
+                         | (1L << ep);
+            if ((attackersTo(pos, king, after, us ^ 1)
+                 & ~(1L << captured)) == 0)
+               moves[n++] = Move.encode(from, ep, Move.EP_CAPTURE);
+         }
+      }
+      return n;
+   }
+
+   /*
+    * Adds a move from one square to each of a set of target squares.
+    */
+   private static int addMoves(int from, long targets, long enemies,
+                               int[] moves, int n) {
+      while (targets != 0) {
+         int to = Long.numberOfTrailingZeros(targets);
+         long bit = targets & -targets;
+         targets ^= bit;
+         moves[n++] = Move.encode(from, to, ((enemies & bit) != 0)
+                                            ? Move.CAPTURE : Move.QUIET);
+      }
+      return n;
+   }
+
+   /*
+    * Adds whichever castling moves are available. Only called when not in
+    * check; the king also can't pass through or land in check.
+    */
+   private static int addCastling(Position pos, int us, int king,
+                                  int[] moves, int n) {
+      int rights = pos.getCastlingRights();
+      long occupied = pos.getOccupied();
+      int them = us ^ 1;
+      int kingside = (us == Position.WHITE) ? Position.WHITE_KINGSIDE
+                                            : Position.BLACK_KINGSIDE;
+      int queenside = (us == Position.WHITE) ? Position.WHITE_QUEENSIDE
+                                             : Position.BLACK_QUEENSIDE;
+      if (((rights & kingside) != 0)
+          && ((occupied & ((1L << (king + 1)) | (1L << (king + 2)))) == 0)
+          && (attackersTo(pos, king + 1, occupied, them) == 0)
+          && (attackersTo(pos, king + 2, occupied, them) == 0))
+         moves[n++] = Move.encode(king, king + 2, Move.KING_CASTLE);
+      if (((rights & queenside) != 0)
+          && ((occupied & ((1L << (king - 1)) | (1L << (king - 2))
+                           | (1L << (king - 3)))) == 0)
+          && (attackersTo(pos, king - 1, occupied, them) == 0)
+          && (attackersTo(pos, king - 2, occupied, them) == 0))
+         moves[n++] = Move.encode(king, king - 2, Move.QUEEN_CASTLE);
+      return n;
+   }
+
    /**
 	 **   Gets the current state of this chess game.
 	 **   @return the state of this chess game
@@ -25,8 +25,24 @@
  **   @version 0.90
  **/
 public class ChessProgram {	
-	public static void main(String[] arguments) {
-	   // creates a new instance of the ChessBoard object
+	public static void main(String[] arguments) throws java.io.IOException {
+	   // "white" or "black" opens the board with the computer playing the
+	   // other side...
+	   if (arguments.length == 1 && arguments[0].equals("white")) {
+	      new ChessBoard(Position.BLACK);
+	      return;
+	   }
+	   if (arguments.length == 1 && arguments[0].equals("black")) {
+	      new ChessBoard(Position.WHITE);
+	      return;
+	   }
+	   // ...anything else with arguments goes to the console, which doesn't
+	   // need a display...
+	   if (arguments.length > 0) {
+	      ChessConsole.main(arguments);
+	      return;
+	   }
+	   // ...otherwise creates a new instance of the ChessBoard object
 	   ChessBoard board = new ChessBoard();
    }
 }
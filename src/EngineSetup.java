@@ -0,0 +1,231 @@
+/******************************************************************************
+ *                             ChessSim 0.9                                   *
+ *                  Copyright © 2015 Ben Goldsworthy (rumperuu)               *
+ *                                                                            *
+ * A program to simulate a game of chess between two human players.           *
+ *                                                                            *
+ * This file is part of ChessSim.                                             *
+ *                                                                            *
+ * ChessSim is free software: you can redistribute it and/or modify           *
+ * it under the terms of the GNU General Public License as published by       *
+ * the Free Software Foundation, either version 3 of the License, or          *
+ * (at your option) any later version.                                        *
+ *                                                                            *
+ * ChessSim is distributed in the hope that it will be useful,                *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of             *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the              *
+ * GNU General Public License for more details.                               *
+ *                                                                            *
+ * You should have received a copy of the GNU General Public License          *
+ * along with ChessSim.  If not, see <http://www.gnu.org/licenses/>.          *
+ ******************************************************************************/
+
+
+/**
+ ** This class describes one side of a `Tournament`, utilised in the
+ ** ChessSim program: how far it searches each move (its `SearchLimits`),
+ ** and what's doing the searching. That's either the engine's own `Search`,
+ ** scoring with the `Evaluator` or a `Network` and with a transposition
+ ** table of a given size, or an outside engine started from a command and
+ ** spoken to over UCI, with whatever options it should be given. So a
+ ** tournament can pit an engine change, a new network or another program
+ ** against the engine as it was.
+ **
+ ** A setup is only a description; `newPlayer()` makes an engine from it,
+ ** and a tournament makes one for each thread.
+ **/
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ **   @author  Ben Goldsworthy (rumperuu) <me+chesssim@bengoldsworthy.net>
+ **   @version 0.92
+ **/
+public class EngineSetup {
+   public static final int DEFAULT_HASH_MEGABYTES = 4;
+   // how long an outside engine gets to quit before it's killed, in
+   // milliseconds
+   private static final int QUIT_MILLIS = 1000;
+
+   private final SearchLimits limits;
+   private Network network;
+   private int hashMegabytes = DEFAULT_HASH_MEGABYTES;
+   private List<String> command;
+   private final Map<String, String> options = new LinkedHashMap<>();
+
+   /**
+    **   Constructor function. The setup starts off as the engine's own
+    **   search, with the `Evaluator`.
+    **   @param limits how far to search each move
+    **/
+   public EngineSetup(SearchLimits limits) {
+      this.limits = limits;
+   }
+
+   /**
+    **   Gets how far the engine searches each move.
+    **   @return the limits
+    **/
+   public SearchLimits getLimits() {
+      return limits;
+   }
+
+   /**
+    **   Sets the network the engine's own search scores positions with.
+    **   @param network the network, or null for the `Evaluator`
+    **/
+   public void setNetwork(Network network) {
+      this.network = network;
+   }
+
+   /**
+    **   Sets the size of the engine's own transposition table, on each
+    **   thread.
+    **   @param megabytes the size
+    **/
+   public void setHashMegabytes(int megabytes) {
+      if (megabytes < 1 || megabytes > TranspositionTable.MAX_MEGABYTES)
+         throw new IllegalArgumentException("Hash must be 1 to "
+                                            + TranspositionTable.MAX_MEGABYTES);
+      hashMegabytes = megabytes;
+   }
+
+   /**
+    **   Makes this an outside engine rather than the engine's own search.
+    **   @param command the program and its arguments, or null for the
+    **          engine's own search
+    **/
+   public void setCommand(List<String> command) {
+      this.command = command;
+   }
+
+   /**
+    **   Sets a UCI option to give an outside engine before its first game.
+    **   @param name the option's name
+    **   @param value its value
+    **/
+   public void setOption(String name, String value) {
+      options.put(name, value);
+   }
+
+   /**
+    **   Makes an engine from this setup, starting the program if it's an
+    **   outside one.
+    **   @return the engine, to be closed when finished with
+    **   @throws IOException if an outside engine won't start or talk UCI
+    **   @throws IllegalStateException if a network is set but Java wasn't
+    **           started with the vector module it needs
+    **/
+   public Player newPlayer() throws IOException {
+      if (command != null) return new UciPlayer(command, options, limits);
+      Search search = new Search(new TranspositionTable(hashMegabytes));
+      search.setNetwork(network);
+      return new SearchPlayer(search, limits);
+   }
+
+   /*
+    * The engine's own search.
+    */
+   private static class SearchPlayer implements Player {
+      final Search search;
+      final SearchLimits limits;
+
+      SearchPlayer(Search search, SearchLimits limits) {
+         this.search = search;
+         this.limits = limits;
+      }
+
+      public void newGame(String fen) {
+         search.getTable().clear();
+      }
+
+      public int pickMove(Game game) {
+         return search.search(game.getPosition(), limits);
+      }
+
+      public void close() {
+      }
+   }
+
+   /*
+    * An outside engine, spoken to over its standard input and output.
+    */
+   private static class UciPlayer implements Player {
+      final List<String> command;
+      final Process process;
+      final PrintStream in;
+      final BufferedReader out;
+      final String go;
+      String fen;
+
+      UciPlayer(List<String> command, Map<String, String> options,
+                SearchLimits limits) throws IOException {
+         this.command = command;
+         process = new ProcessBuilder(command)
+                   .redirectError(ProcessBuilder.Redirect.DISCARD).start();
+         in = new PrintStream(process.getOutputStream(), true);
+         out = new BufferedReader(
+            new InputStreamReader(process.getInputStream()));
+         StringBuilder text = new StringBuilder("go");
+         if (limits.getDepth() > 0) text.append(" depth ")
+                                        .append(limits.getDepth());
+         if (limits.getNodes() > 0) text.append(" nodes ")
+                                        .append(limits.getNodes());
+         if (limits.getMoveTime() > 0) text.append(" movetime ")
+                                           .append(limits.getMoveTime());
+         go = text.toString();
+         in.println("uci");
+         waitFor("uciok");
+         for (Map.Entry<String, String> option : options.entrySet())
+            in.println("setoption name " + option.getKey() + " value "
+                       + option.getValue());
+      }
+
+      public void newGame(String fen) throws IOException {
+         this.fen = fen;
+         in.println("ucinewgame");
+         in.println("isready");
+         waitFor("readyok");
+      }
+
+      public int pickMove(Game game) throws IOException {
+         StringBuilder position = new StringBuilder("position fen ");
+         position.append(fen);
+         if (game.getMoveCount() > 0) position.append(" moves");
+         for (int i = 0; i < game.getMoveCount(); i++)
+            position.append(' ').append(Move.toString(game.getMove(i)));
+         in.println(position);
+         in.println(go);
+         String[] words = waitFor("bestmove").trim().split("\\s+");
+         return (words.length > 1) ? game.parseMove(words[1]) : Move.NONE;
+      }
+
+      public void close() {
+         in.println("quit");
+         try {
+            if (!process.waitFor(QUIT_MILLIS, TimeUnit.MILLISECONDS))
+               process.destroyForcibly();
+         } catch (InterruptedException e) {
+            process.destroyForcibly();
+            Thread.currentThread().interrupt();
+         }
+      }
+
+      /*
+       * Reads lines until one starts with the given word, returning it.
+       */
+      String waitFor(String word) throws IOException {
+         String line;
+         while ((line = out.readLine()) != null)
+            if (line.trim().startsWith(word)) return line;
+         throw new IOException("Engine quit: " + String.join(" ", command));
+      }
+   }
+}
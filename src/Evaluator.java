@@ -0,0 +1,432 @@
+/******************************************************************************
+ *                             ChessSim 0.9                                   *
+ *                  Copyright © 2015 Ben Goldsworthy (rumperuu)               *
+ *                                                                            *
+ * A program to simulate a game of chess between two human players.           *
+ *                                                                            *
+ * This file is part of ChessSim.                                             *
+ *                                                                            *
+ * ChessSim is free software: you can redistribute it and/or modify           *
+ * it under the terms of the GNU General Public License as published by       *
+ * the Free Software Foundation, either version 3 of the License, or          *
+ * (at your option) any later version.                                        *
+ *                                                                            *
+ * ChessSim is distributed in the hope that it will be useful,                *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of             *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the              *
+ * GNU General Public License for more details.                               *
+ *                                                                            *
+ * You should have received a copy of the GNU General Public License          *
+ * along with ChessSim.  If not, see <http://www.gnu.org/licenses/>.          *
+ ******************************************************************************/
+
+/**
+ ** This class judges how good a position is without looking any moves
+ ** ahead, utilised in the ChessSim program. It adds up material and where
+ ** each piece stands (from piece-square tables), how many squares the
+ ** pieces can get to (mobility) and how hard the enemy is going for each
+ ** king (king safety). Each term has a middlegame and an endgame value,
+ ** and the two are blended by how much material is left ("tapered"
+ ** evaluation), so e.g. the king hides early on but comes out to fight
+ ** once the queens are off.
+ **
+ ** The material and piece-square terms don't depend on anything but where
+ ** the pieces are, so `Position` keeps them as running totals, updated as
+ ** pieces are added, removed and moved, rather than them being added up
+ ** across the board at every leaf. The pawn structure terms (passed,
+ ** isolated, doubled and backward pawns, and the shelter in front of each
+ ** place a king might be) only depend on the pawns, so they're kept in a
+ ** `PawnTable` and only worked out when a new pawn structure comes up.
+ ** That makes an evaluator unsafe to share between threads; each search
+ ** has its own.
+ **/
+
+/**
+ **   @author  Ben Goldsworthy (rumperuu) <me+chesssim@bengoldsworthy.net>
+ **   @version 0.92
+ **/
+public class Evaluator {
+   // in centipawns, indexed by `Position` piece type. The king's value
+   // doesn't matter, since both sides always have one.
+   public static final int[] PIECE_VALUES = {100, 500, 320, 330, 900, 0};
+   // the material and piece-square value of each piece on each square, in
+   // the middlegame and the endgame, indexed by piece code (`team * 6 +
+   // type`) and square; Black's are negative, so they can just be summed
+   public static final int[][] MIDDLEGAME = new int[12][64];
+   public static final int[][] ENDGAME = new int[12][64];
+   // how much each piece type counts towards the game phase, which is
+   // `MAX_PHASE` with all the pieces on and 0 with just kings and pawns
+   public static final int[] PHASE_WEIGHTS = {0, 2, 1, 1, 4, 0};
+   public static final int MAX_PHASE = 24;
+
+   private static final int[] MIDDLEGAME_VALUES = {82, 477, 337, 365, 1025, 0};
+   private static final int[] ENDGAME_VALUES = {94, 512, 281, 297, 936, 0};
+   // the piece-square tables, from White's side with the eighth rank first,
+   // the way a diagram's drawn
+   private static final int[] PAWN_MIDDLEGAME = {
+        0,   0,   0,   0,   0,   0,   0,   0,
+       50,  50,  50,  50,  50,  50,  50,  50,
+       10,  10,  20,  30,  30,  20,  10,  10,
+        5,   5,  10,  25,  25,  10,   5,   5,
+        0,   0,   0,  20,  20,   0,   0,   0,
+        5,  -5, -10,   0,   0, -10,  -5,   5,
+        5,  10,  10, -20, -20,  10,  10,   5,
+        0,   0,   0,   0,   0,   0,   0,   0
+   };
+   private static final int[] PAWN_ENDGAME = {
+        0,   0,   0,   0,   0,   0,   0,   0,
+       90,  90,  90,  90,  90,  90,  90,  90,
+       55,  55,  55,  55,  55,  55,  55,  55,
+       30,  30,  30,  30,  30,  30,  30,  30,
+       15,  15,  15,  15,  15,  15,  15,  15,
+        5,   5,   5,   5,   5,   5,   5,   5,
+        0,   0,   0,   0,   0,   0,   0,   0,
+        0,   0,   0,   0,   0,   0,   0,   0
+   };
+   private static final int[] ROOK_TABLE = {
+        0,   0,   0,   0,   0,   0,   0,   0,
+        5,  10,  10,  10,  10,  10,  10,   5,
+       -5,   0,   0,   0,   0,   0,   0,  -5,
+       -5,   0,   0,   0,   0,   0,   0,  -5,
+       -5,   0,   0,   0,   0,   0,   0,  -5,
+       -5,   0,   0,   0,   0,   0,   0,  -5,
+       -5,   0,   0,   0,   0,   0,   0,  -5,
+        0,   0,   0,   5,   5,   0,   0,   0
+   };
+   private static final int[] KNIGHT_TABLE = {
+      -50, -40, -30, -30, -30, -30, -40, -50,
+      -40, -20,   0,   0,   0,   0, -20, -40,
+      -30,   0,  10,  15,  15,  10,   0, -30,
+      -30,   5,  15,  20,  20,  15,   5, -30,
+      -30,   0,  15,  20,  20,  15,   0, -30,
+      -30,   5,  10,  15,  15,  10,   5, -30,
+      -40, -20,   0,   5,   5,   0, -20, -40,
+      -50, -40, -30, -30, -30, -30, -40, -50
+   };
+   private static final int[] BISHOP_TABLE = {
+      -20, -10, -10, -10, -10, -10, -10, -20,
+      -10,   0,   0,   0,   0,   0,   0, -10,
+      -10,   0,   5,  10,  10,   5,   0, -10,
+      -10,   5,   5,  10,  10,   5,   5, -10,
+      -10,   0,  10,  10,  10,  10,   0, -10,
+      -10,  10,  10,  10,  10,  10,  10, -10,
+      -10,   5,   0,   0,   0,   0,   5, -10,
+      -20, -10, -10, -10, -10, -10, -10, -20
+   };
+   private static final int[] QUEEN_TABLE = {
+      -20, -10, -10,  -5,  -5, -10, -10, -20,
+      -10,   0,   0,   0,   0,   0,   0, -10,
+      -10,   0,   5,   5,   5,   5,   0, -10,
+       -5,   0,   5,   5,   5,   5,   0,  -5,
+        0,   0,   5,   5,   5,   5,   0,  -5,
+      -10,   5,   5,   5,   5,   5,   0, -10,
+      -10,   0,   5,   0,   0,   0,   0, -10,
+      -20, -10, -10,  -5,  -5, -10, -10, -20
+   };
+   private static final int[] KING_MIDDLEGAME = {
+      -30, -40, -40, -50, -50, -40, -40, -30,
+      -30, -40, -40, -50, -50, -40, -40, -30,
+      -30, -40, -40, -50, -50, -40, -40, -30,
+      -30, -40, -40, -50, -50, -40, -40, -30,
+      -20, -30, -30, -40, -40, -30, -30, -20,
+      -10, -20, -20, -20, -20, -20, -20, -10,
+       20,  20,   0,   0,   0,   0,  20,  20,
+       20,  30,  10,   0,   0,  10,  30,  20
+   };
+   private static final int[] KING_ENDGAME = {
+      -50, -40, -30, -20, -20, -30, -40, -50,
+      -30, -20, -10,   0,   0, -10, -20, -30,
+      -30, -10,  20,  30,  30,  20, -10, -30,
+      -30, -10,  30,  40,  40,  30, -10, -30,
+      -30, -10,  30,  40,  40,  30, -10, -30,
+      -30, -10,  20,  30,  30,  20, -10, -30,
+      -30, -30,   0,   0,   0,   0, -30, -30,
+      -50, -30, -30, -30, -30, -30, -30, -50
+   };
+   // indexed by piece type
+   private static final int[][] MIDDLEGAME_TABLES = {
+      PAWN_MIDDLEGAME, ROOK_TABLE, KNIGHT_TABLE, BISHOP_TABLE, QUEEN_TABLE,
+      KING_MIDDLEGAME
+   };
+   private static final int[][] ENDGAME_TABLES = {
+      PAWN_ENDGAME, ROOK_TABLE, KNIGHT_TABLE, BISHOP_TABLE, QUEEN_TABLE,
+      KING_ENDGAME
+   };
+
+   // per square a piece can get to beyond the usual number for its type
+   // (which scores nothing), indexed by piece type
+   private static final int[] MOBILITY_MIDDLEGAME = {0, 2, 4, 5, 1, 0};
+   private static final int[] MOBILITY_ENDGAME = {0, 4, 4, 5, 2, 0};
+   private static final int[] USUAL_MOBILITY = {0, 7, 4, 6, 13, 0};
+   // how much each piece type attacking the squares around the enemy king
+   // adds to the danger it's in, per square attacked
+   private static final int[] KING_ATTACK_WEIGHTS = {0, 3, 2, 2, 5, 0};
+   private static final int MAX_KING_DANGER = 500;
+   // pawn structure, indexed by rank counting from the pawn's own side
+   private static final int[] PASSED_MIDDLEGAME = {0, 5, 10, 15, 25, 40, 60,
+                                                   0};
+   private static final int[] PASSED_ENDGAME = {0, 10, 20, 35, 60, 100, 150,
+                                                0};
+   // in the endgame, for a passed pawn with nothing standing in its way
+   private static final int[] FREE_PASSED = {0, 0, 5, 10, 20, 35, 60, 0};
+   private static final int ISOLATED_MIDDLEGAME = -10, ISOLATED_ENDGAME = -15;
+   private static final int DOUBLED_MIDDLEGAME = -10, DOUBLED_ENDGAME = -20;
+   private static final int BACKWARD_MIDDLEGAME = -8, BACKWARD_ENDGAME = -10;
+   // per file of a king's zone: a pawn on the second or third rank, or no
+   // pawn at all on the file
+   private static final int SHELTER_NEAR = 12, SHELTER_FAR = 6,
+                            SHELTER_OPEN = -15;
+   private static final long[] ZONE_FILES = {
+      Bitboards.FILE_A * 0x07, Bitboards.FILE_A * 0x18, Bitboards.FILE_A * 0xE0
+   };
+   // indexed by team and square: the squares ahead of it on its own file,
+   // ahead of it on the files either side, and level with or behind it on
+   // the files either side
+   private static final long[][] FRONT = new long[2][64];
+   private static final long[][] FRONT_SPAN = new long[2][64];
+   private static final long[][] SUPPORT = new long[2][64];
+   // indexed by file
+   private static final long[] ADJACENT_FILES = new long[8];
+
+   private final PawnTable pawnTable;
+   private final int[] shelterScores = new int[2 * PawnTable.ZONES];
+
+   static {
+      for (int type = Position.PAWN; type <= Position.KING; type++)
+         for (int sq = 0; sq < 64; sq++) {
+            // the tables are drawn eighth rank first, so White's a1 is the
+            // table's square 56, and Black's is its mirror image
+            int middlegame = MIDDLEGAME_VALUES[type]
+                             + MIDDLEGAME_TABLES[type][sq ^ 56];
+            int endgame = ENDGAME_VALUES[type] + ENDGAME_TABLES[type][sq ^ 56];
+            MIDDLEGAME[Position.WHITE * 6 + type][sq] = middlegame;
+            ENDGAME[Position.WHITE * 6 + type][sq] = endgame;
+            MIDDLEGAME[Position.BLACK * 6 + type][sq ^ 56] = -middlegame;
+            ENDGAME[Position.BLACK * 6 + type][sq ^ 56] = -endgame;
+         }
+      for (int file = 0; file < 8; file++)
+         ADJACENT_FILES[file] = ((file > 0) ? Bitboards.FILE_A << (file - 1)
+                                            : 0)
+                                | ((file < 7) ? Bitboards.FILE_A << (file + 1)
+                                              : 0);
+      for (int team = Position.WHITE; team <= Position.BLACK; team++)
+         for (int sq = 0; sq < 64; sq++)
+            for (int other = 0; other < 64; other++) {
+               boolean ahead = (team == Position.WHITE)
+                               ? (other >>> 3) > (sq >>> 3)
+                               : (other >>> 3) < (sq >>> 3);
+               long bit = 1L << other;
+               if ((other & 7) == (sq & 7) && ahead) FRONT[team][sq] |= bit;
+               if ((ADJACENT_FILES[sq & 7] & bit) == 0) continue;
+               if (ahead) FRONT_SPAN[team][sq] |= bit;
+               else SUPPORT[team][sq] |= bit;
+            }
+   }
+
+   /**
+    **   Creates an evaluator with a pawn table of its own, of the default
+    **   size.
+    **/
+   public Evaluator() {
+      this(new PawnTable());
+   }
+
+   /**
+    **   Creates an evaluator using the given pawn table.
+    **   @param pawnTable the table
+    **/
+   public Evaluator(PawnTable pawnTable) {
+      this.pawnTable = pawnTable;
+   }
+
+   /**
+    **   Gets the pawn table this evaluator uses.
+    **   @return the table
+    **/
+   public PawnTable getPawnTable() {
+      return pawnTable;
+   }
+
+   /**
+    **   Scores a position.
+    **   @param pos the position
+    **   @return the score in centipawns, from the side to move's point of
+    **           view (so positive is good for whoever's turn it is)
+    **/
+   public int evaluate(Position pos) {
+      int slot = pawnTable.probe(pos.getPawnHash());
+      if (slot < 0) slot = evaluatePawns(pos);
+      int middlegame = pos.getMiddlegameScore()
+                       + pawnTable.getMiddlegame(slot);
+      int endgame = pos.getEndgameScore() + pawnTable.getEndgame(slot);
+      long passed = pawnTable.getPassed(slot);
+      for (int team = Position.WHITE; team <= Position.BLACK; team++) {
+         int sign = (team == Position.WHITE) ? 1 : -1;
+         int zone = PawnTable.zoneOf(pos.kingSquare(team));
+         middlegame += sign * (mobility(pos, team, MOBILITY_MIDDLEGAME)
+                               - kingDanger(pos, team)
+                               + pawnTable.getShelter(slot, team, zone));
+         endgame += sign * (mobility(pos, team, MOBILITY_ENDGAME)
+                            + freePassed(pos, team, passed));
+      }
+      int score = taper(middlegame, endgame, pos.getPhase());
+      return (pos.getSideToMove() == Position.WHITE) ? score : -score;
+   }
+
+   /**
+    **   Blends a middlegame and an endgame score by the game phase.
+    **   @param middlegame the middlegame score
+    **   @param endgame the endgame score
+    **   @param phase the phase, as kept by `Position` (it can go over
+    **          `MAX_PHASE` after promotions)
+    **   @return the blended score
+    **/
+   public static int taper(int middlegame, int endgame, int phase) {
+      phase = Math.min(phase, MAX_PHASE);
+      return (middlegame * phase + endgame * (MAX_PHASE - phase)) / MAX_PHASE;
+   }
+
+   /*
+    * Works out the pawn structure terms and stores them in the pawn
+    * table, returning the slot they went in.
+    */
+   private int evaluatePawns(Position pos) {
+      int middlegame = 0, endgame = 0;
+      long passed = 0;
+      for (int team = Position.WHITE; team <= Position.BLACK; team++) {
+         int sign = (team == Position.WHITE) ? 1 : -1;
+         int forward = (team == Position.WHITE) ? 8 : -8;
+         long own = pos.getPieces(team, Position.PAWN);
+         long enemy = pos.getPieces(team ^ 1, Position.PAWN);
+         long guarded = pawnAttacks(enemy, team ^ 1);
+         for (long pawns = own; pawns != 0; pawns &= pawns - 1) {
+            int sq = Long.numberOfTrailingZeros(pawns);
+            int rank = (team == Position.WHITE) ? sq >>> 3 : 7 - (sq >>> 3);
+            int mg = 0, eg = 0;
+            if ((enemy & (FRONT[team][sq] | FRONT_SPAN[team][sq])) == 0) {
+               passed |= 1L << sq;
+               mg += PASSED_MIDDLEGAME[rank];
+               eg += PASSED_ENDGAME[rank];
+            }
+            if ((own & ADJACENT_FILES[sq & 7]) == 0) {
+               mg += ISOLATED_MIDDLEGAME;
+               eg += ISOLATED_ENDGAME;
+            } else if ((own & SUPPORT[team][sq]) == 0
+                       && (guarded & (1L << (sq + forward))) != 0) {
+               // nothing can come up alongside it, and it can't step up
+               // alongside them
+               mg += BACKWARD_MIDDLEGAME;
+               eg += BACKWARD_ENDGAME;
+            }
+            if ((own & FRONT[team][sq]) != 0) {
+               mg += DOUBLED_MIDDLEGAME;
+               eg += DOUBLED_ENDGAME;
+            }
+            middlegame += sign * mg;
+            endgame += sign * eg;
+         }
+
+         long near = own & ((team == Position.WHITE) ? Bitboards.RANK_2
+                                                     : Bitboards.RANK_7);
+         long far = own & ((team == Position.WHITE) ? Bitboards.RANK_3
+                                                    : Bitboards.RANK_6);
+         for (int zone = 0; zone < PawnTable.ZONES; zone++) {
+            int shelter = 0;
+            for (int file = 0; file < 8; file++) {
+               long fileBits = Bitboards.FILE_A << file;
+               if ((ZONE_FILES[zone] & fileBits) == 0) continue;
+               if ((near & fileBits) != 0) shelter += SHELTER_NEAR;
+               else if ((far & fileBits) != 0) shelter += SHELTER_FAR;
+               else if ((own & fileBits) == 0) shelter += SHELTER_OPEN;
+            }
+            shelterScores[team * PawnTable.ZONES + zone] = shelter;
+         }
+      }
+      return pawnTable.store(pos.getPawnHash(), middlegame, endgame, passed,
+                             shelterScores);
+   }
+
+   /*
+    * Scores a team's passed pawns with nothing standing in front of them.
+    */
+   private static int freePassed(Position pos, int team, long passed) {
+      int forward = (team == Position.WHITE) ? 8 : -8;
+      long occupied = pos.getOccupied();
+      int score = 0;
+      for (long pawns = passed & pos.getPieces(team, Position.PAWN);
+           pawns != 0; pawns &= pawns - 1) {
+         int sq = Long.numberOfTrailingZeros(pawns);
+         if ((occupied & (1L << (sq + forward))) != 0) continue;
+         score += FREE_PASSED[(team == Position.WHITE) ? sq >>> 3
+                                                       : 7 - (sq >>> 3)];
+      }
+      return score;
+   }
+
+   /*
+    * Scores how many squares a team's knights, bishops, rooks and queens
+    * can get to, not counting squares of their own pieces or ones enemy
+    * pawns guard.
+    */
+   private static int mobility(Position pos, int team, int[] weights) {
+      long occupied = pos.getOccupied();
+      long area = ~pos.getOccupancy(team)
+                  & ~pawnAttacks(pos.getPieces(team ^ 1, Position.PAWN),
+                                 team ^ 1);
+      int score = 0;
+      for (int type = Position.ROOK; type <= Position.QUEEN; type++)
+         for (long pieces = pos.getPieces(team, type); pieces != 0;
+              pieces &= pieces - 1) {
+            int sq = Long.numberOfTrailingZeros(pieces);
+            int squares = Long.bitCount(attacks(type, sq, occupied) & area);
+            score += weights[type] * (squares - USUAL_MOBILITY[type]);
+         }
+      return score;
+   }
+
+   /*
+    * Scores the danger a team's king is in from the enemy pieces attacking
+    * the squares around it, which grows faster than the number of
+    * attackers: one piece on its own can't do much.
+    */
+   private static int kingDanger(Position pos, int team) {
+      int king = pos.kingSquare(team);
+      long zone = Attacks.king(king) | (1L << king);
+      long occupied = pos.getOccupied();
+      int attackers = 0, weight = 0;
+      for (int type = Position.ROOK; type <= Position.QUEEN; type++)
+         for (long pieces = pos.getPieces(team ^ 1, type); pieces != 0;
+              pieces &= pieces - 1) {
+            int sq = Long.numberOfTrailingZeros(pieces);
+            long hits = attacks(type, sq, occupied) & zone;
+            if (hits == 0) continue;
+            attackers++;
+            weight += KING_ATTACK_WEIGHTS[type] * Long.bitCount(hits);
+         }
+      if (attackers < 2) return 0;
+      return Math.min(weight * weight / 2, MAX_KING_DANGER);
+   }
+
+   /*
+    * Gets the squares a knight, bishop, rook or queen attacks.
+    */
+   private static long attacks(int type, int sq, long occupied) {
+      switch (type) {
+      case Position.KNIGHT: return Attacks.knight(sq);
+      case Position.BISHOP: return Attacks.bishop(sq, occupied);
+      case Position.ROOK: return Attacks.rook(sq, occupied);
+      default: return Attacks.queen(sq, occupied);
+      }
+   }
+
+   /*
+    * Gets every square a team's pawns attack.
+    */
+   private static long pawnAttacks(long pawns, int team) {
+      return (team == Position.WHITE)
+             ? ((pawns & ~Bitboards.FILE_A) << 7)
+               | ((pawns & ~Bitboards.FILE_H) << 9)
+             : ((pawns & ~Bitboards.FILE_A) >>> 9)
+               | ((pawns & ~Bitboards.FILE_H) >>> 7);
+   }
+}
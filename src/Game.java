@@ -0,0 +1,224 @@
+/******************************************************************************
+ *                             ChessSim 0.9                                   *
+ *                  Copyright © 2015 Ben Goldsworthy (rumperuu)               *
+ *                                                                            *
+ * A program to simulate a game of chess between two human players.           *
+ *                                                                            *
+ * This file is part of ChessSim.                                             *
+ *                                                                            *
+ * ChessSim is free software: you can redistribute it and/or modify           *
+ * it under the terms of the GNU General Public License as published by       *
+ * the Free Software Foundation, either version 3 of the License, or          *
+ * (at your option) any later version.                                        *
+ *                                                                            *
+ * ChessSim is distributed in the hope that it will be useful,                *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of             *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the              *
+ * GNU General Public License for more details.                               *
+ *                                                                            *
+ * You should have received a copy of the GNU General Public License          *
+ * along with ChessSim.  If not, see <http://www.gnu.org/licenses/>.          *
+ ******************************************************************************/
+
+/**
+ ** This class represents a game of chess, utilised in the ChessSim program.
+ ** It knows nothing about Swing, so the `ChessBoard` window, the console
+ ** and anything else can all drive a game the same way.
+ **/
+
+import java.util.Arrays;
+
+/**
+ **   @author  Ben Goldsworthy (rumperuu) <me+chesssim@bengoldsworthy.net>
+ **   @version 0.92
+ **/
+public class Game {
+   public static final int ONGOING = 0, CHECKMATE = 1, STALEMATE = 2,
+                           FIFTY_MOVE_RULE = 3, THREEFOLD_REPETITION = 4,
+                           INSUFFICIENT_MATERIAL = 5;
+
+   private final Position position = new Position();
+   // the moves played so far, which the position needs back to unmake them
+   private int[] history = new int[64];
+   private int historySize = 0;
+   // generates the legal moves, and keeps the attack maps
+   private final ChessLogic logic = new ChessLogic();
+
+   /**
+    **   Constructor function. The game starts from the standard position.
+    **/
+   public Game() {
+      position.setStartPosition();
+      logic.track(position);
+   }
+
+   /**
+    **   Constructor function. The game starts from the given position.
+    **   @param fen the position, in Forsyth-Edwards Notation
+    **/
+   public Game(String fen) {
+      position.setFen(fen);
+      logic.track(position);
+   }
+
+   /**
+    **   Gets the current position. It shouldn't be changed directly; use
+    **   `applyMove()` instead.
+    **   @return the position
+    **/
+   public Position getPosition() {
+      return position;
+   }
+
+   /**
+    **   Gets the team whose turn it is.
+    **   @return WHITE or BLACK
+    **/
+   public int getSideToMove() {
+      return position.getSideToMove();
+   }
+
+   /**
+    **   Lists every legal move in the current position.
+    **   @param legal the array to write the moves into, which needs room for
+    **          `MoveGenerator.MAX_MOVES`
+    **   @return the number of moves written
+    **/
+   public int legalMoves(int[] legal) {
+      return logic.generateLegal(position, legal, 0);
+   }
+
+   /**
+    **   Determines whether a move is legal in the current position.
+    **   @param move the move
+    **   @return a boolean value
+    **/
+   public boolean isLegal(int move) {
+      int[] legal = new int[MoveGenerator.MAX_MOVES];
+      int count = legalMoves(legal);
+      for (int i = 0; i < count; i++)
+         if (legal[i] == move) return true;
+      return false;
+   }
+
+   /**
+    **   Plays a move, if it's legal.
+    **   @param move the move
+    **   @return whether the move was played
+    **/
+   public boolean applyMove(int move) {
+      if ((move == Move.NONE) || !isLegal(move)) return false;
+      if (historySize == history.length)
+         history = Arrays.copyOf(history, history.length * 2);
+      history[historySize++] = move;
+      logic.makeMove(position, move);
+      return true;
+   }
+
+   /**
+    **   Takes back the last move played.
+    **   @return whether there was a move to take back
+    **/
+   public boolean undo() {
+      if (historySize == 0) return false;
+      logic.unmakeMove(position, history[--historySize]);
+      return true;
+   }
+
+   /**
+    **   Gets one of the moves played so far.
+    **   @param index the number of the move, from 0
+    **   @return the move
+    **/
+   public int getMove(int index) {
+      return history[index];
+   }
+
+   /**
+    **   Gets the number of moves played so far.
+    **   @return the number of halfmoves
+    **/
+   public int getMoveCount() {
+      return historySize;
+   }
+
+   /**
+    **   Finds the legal move matching some coordinate notation, e.g. "e2e4"
+    **   or "e7e8q".
+    **   @param text the move text
+    **   @return the move, or `Move.NONE` if no legal move matches
+    **/
+   public int parseMove(String text) {
+      int[] legal = new int[MoveGenerator.MAX_MOVES];
+      int count = legalMoves(legal);
+      for (int i = 0; i < count; i++)
+         if (Move.toString(legal[i]).equalsIgnoreCase(text.trim()))
+            return legal[i];
+      return Move.NONE;
+   }
+
+   /**
+    **   Determines whether the side to move is in check.
+    **   @return a boolean value
+    **/
+   public boolean inCheck() {
+      return getCheckers() != 0;
+   }
+
+   /**
+    **   Gets the pieces giving check to the side to move.
+    **   @return the bitboard of checkers
+    **/
+   public long getCheckers() {
+      return maps().getCheckers();
+   }
+
+   /**
+    **   Gets every square a team attacks.
+    **   @param team WHITE or BLACK
+    **   @return the bitboard of attacked squares
+    **/
+   public long getAttacks(int team) {
+      return maps().getAttacks(team);
+   }
+
+   /*
+    * Gets the `ChessLogic` with its attack maps up to date, in case the
+    * position's been changed directly after all.
+    */
+   private ChessLogic maps() {
+      if (!logic.isTracking(position)) logic.track(position);
+      return logic;
+   }
+
+   /**
+    **   Gets whether the game is still going, and if not, why not.
+    **   @return ONGOING, CHECKMATE, STALEMATE, FIFTY_MOVE_RULE,
+    **           THREEFOLD_REPETITION or INSUFFICIENT_MATERIAL
+    **/
+   public int getStatus() {
+      int[] legal = new int[MoveGenerator.MAX_MOVES];
+      if (legalMoves(legal) == 0) return inCheck() ? CHECKMATE : STALEMATE;
+      if (position.getHalfmoveClock() >= 100) return FIFTY_MOVE_RULE;
+      if (position.repetitions() >= 2) return THREEFOLD_REPETITION;
+      if (insufficientMaterial()) return INSUFFICIENT_MATERIAL;
+      return ONGOING;
+   }
+
+   /*
+    * Determines whether neither side has enough left to mate with: just
+    * the kings, and at most one knight or bishop between them.
+    */
+   private boolean insufficientMaterial() {
+      long minors = 0;
+      for (int team = Position.WHITE; team <= Position.BLACK; team++) {
+         if ((position.getPieces(team, Position.PAWN)
+              | position.getPieces(team, Position.ROOK)
+              | position.getPieces(team, Position.QUEEN)) != 0)
+            return false;
+         minors |= position.getPieces(team, Position.KNIGHT)
+                    | position.getPieces(team, Position.BISHOP);
+      }
+      return Long.bitCount(minors) <= 1;
+   }
+}
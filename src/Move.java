@@ -0,0 +1,139 @@
+/******************************************************************************
+ *                             ChessSim 0.9                                   *
+ *                  Copyright © 2015 Ben Goldsworthy (rumperuu)               *
+ *                                                                            *
+ * A program to simulate a game of chess between two human players.           *
+ *                                                                            *
+ * This file is part of ChessSim.                                             *
+ *                                                                            *
+ * ChessSim is free software: you can redistribute it and/or modify           *
+ * it under the terms of the GNU General Public License as published by       *
+ * the Free Software Foundation, either version 3 of the License, or          *
+ * (at your option) any later version.                                        *
+ *                                                                            *
+ * ChessSim is distributed in the hope that it will be useful,                *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of             *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the              *
+ * GNU General Public License for more details.                               *
+ *                                                                            *
+ * You should have received a copy of the GNU General Public License          *
+ * along with ChessSim.  If not, see <http://www.gnu.org/licenses/>.          *
+ ******************************************************************************/
+
+/**
+ ** This class packs and unpacks moves, utilised in the ChessSim program. A
+ ** move is just an `int`: bits 0-5 are the from square, bits 6-11 the to
+ ** square and bits 12-15 the flags, so a list of moves is an `int[]` and
+ ** nothing ever needs boxing.
+ **/
+
+/**
+ **   @author  Ben Goldsworthy (rumperuu) <me+chesssim@bengoldsworthy.net>
+ **   @version 0.92
+ **/
+public final class Move {
+   // the flags. Bit 2 marks a capture and bit 3 a promotion, with the low
+   // two bits of a promotion picking the piece.
+   public static final int QUIET = 0, DOUBLE_PUSH = 1, KING_CASTLE = 2,
+                           QUEEN_CASTLE = 3, CAPTURE = 4, EP_CAPTURE = 5,
+                           PROMOTION = 8, PROMOTION_CAPTURE = 12;
+   public static final int KNIGHT_PROMOTION = 0, BISHOP_PROMOTION = 1,
+                           ROOK_PROMOTION = 2, QUEEN_PROMOTION = 3;
+   // a move that can never be legal (a1 to a1), for "no move"
+   public static final int NONE = 0;
+
+   // the `Position` piece types, in promotion-code order
+   private static final int[] PROMOTION_TYPES = {Position.KNIGHT,
+      Position.BISHOP, Position.ROOK, Position.QUEEN};
+   private static final String PROMOTION_LETTERS = "nbrq";
+
+   private Move() {
+   }
+
+   /**
+    **   Packs a move into an int.
+    **   @param from the from square
+    **   @param to the to square
+    **   @param flags the flags
+    **   @return the move
+    **/
+   public static int encode(int from, int to, int flags) {
+      return from | (to << 6) | (flags << 12);
+   }
+
+   /**
+    **   Gets the square a move starts from.
+    **   @param move the move
+    **   @return the square
+    **/
+   public static int from(int move) {
+      return move & 0x3F;
+   }
+
+   /**
+    **   Gets the square a move goes to.
+    **   @param move the move
+    **   @return the square
+    **/
+   public static int to(int move) {
+      return (move >>> 6) & 0x3F;
+   }
+
+   /**
+    **   Gets the flags of a move.
+    **   @param move the move
+    **   @return the flags
+    **/
+   public static int flags(int move) {
+      return (move >>> 12) & 0xF;
+   }
+
+   /**
+    **   Determines whether a move takes a piece (including en passant).
+    **   @param move the move
+    **   @return a boolean value
+    **/
+   public static boolean isCapture(int move) {
+      return (move & (CAPTURE << 12)) != 0;
+   }
+
+   /**
+    **   Determines whether a move promotes a pawn.
+    **   @param move the move
+    **   @return a boolean value
+    **/
+   public static boolean isPromotion(int move) {
+      return (move & (PROMOTION << 12)) != 0;
+   }
+
+   /**
+    **   Gets the piece type a promotion turns the pawn into.
+    **   @param move the move, which must be a promotion
+    **   @return the `Position` piece type
+    **/
+   public static int promotionType(int move) {
+      return PROMOTION_TYPES[(move >>> 12) & 3];
+   }
+
+   /**
+    **   Writes a move in coordinate notation, e.g. "e2e4" or "e7e8q".
+    **   @param move the move
+    **   @return the text
+    **/
+   public static String toString(int move) {
+      StringBuilder text = new StringBuilder(5);
+      text.append(squareName(from(move))).append(squareName(to(move)));
+      if (isPromotion(move))
+         text.append(PROMOTION_LETTERS.charAt((move >>> 12) & 3));
+      return text.toString();
+   }
+
+   /**
+    **   Gets the name of a square, e.g. "e4".
+    **   @param sq the square
+    **   @return the name
+    **/
+   public static String squareName(int sq) {
+      return "" + (char)('a' + (sq & 7)) + (char)('1' + (sq >>> 3));
+   }
+}
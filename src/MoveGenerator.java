@@ -0,0 +1,243 @@
+/******************************************************************************
+ *                             ChessSim 0.9                                   *
+ *                  Copyright © 2015 Ben Goldsworthy (rumperuu)               *
+ *                                                                            *
+ * A program to simulate a game of chess between two human players.           *
+ *                                                                            *
+ * This file is part of ChessSim.                                             *
+ *                                                                            *
+ * ChessSim is free software: you can redistribute it and/or modify           *
+ * it under the terms of the GNU General Public License as published by       *
+ * the Free Software Foundation, either version 3 of the License, or          *
+ * (at your option) any later version.                                        *
+ *                                                                            *
+ * ChessSim is distributed in the hope that it will be useful,                *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of             *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the              *
+ * GNU General Public License for more details.                               *
+ *                                                                            *
+ * You should have received a copy of the GNU General Public License          *
+ * along with ChessSim.  If not, see <http://www.gnu.org/licenses/>.          *
+ ******************************************************************************/
+
+/**
+ ** This class generates moves for a `Position`, utilised in the ChessSim
+ ** program. Moves are written as `Move`-encoded ints into an array the
+ ** caller owns, so generating them doesn't allocate anything.
+ **
+ ** The moves are pseudo-legal: they follow the way each piece moves, but
+ ** nothing stops a side from leaving its own king in check.
+ **/
+
+/**
+ **   @author  Ben Goldsworthy (rumperuu) <me+chesssim@bengoldsworthy.net>
+ **   @version 0.92
+ **/
+public final class MoveGenerator {
+   // the most moves any legal chess position has is 218, so this is plenty
+   public static final int MAX_MOVES = 256;
+
+   private MoveGenerator() {
+   }
+
+   /**
+    **   Generates every pseudo-legal move for the side to move.
+    **   @param pos the position
+    **   @param moves the array to write the moves into
+    **   @param start the index of `moves` to start writing at
+    **   @return the number of moves written
+    **/
+   public static int generate(Position pos, int[] moves, int start) {
+      int team = pos.getSideToMove();
+      int enemy = team ^ 1;
+      long own = pos.getOccupancy(team);
+      long occupied = pos.getOccupied();
+      // kings can't be taken, only put in check
+      long targets = ~own & ~pos.getPieces(enemy, Position.KING);
+      long captures = pos.getOccupancy(enemy) & targets;
+      int n = start;
+
+      n = addPawnMoves(pos, team, captures, moves, n);
+
+      long knights = pos.getPieces(team, Position.KNIGHT);
+      while (knights != 0) {
+         int from = Long.numberOfTrailingZeros(knights);
+         knights &= knights - 1;
+         n = addMoves(from, Attacks.knight(from) & targets, captures, moves,
+                      n);
+      }
+      long diagonals = pos.getPieces(team, Position.BISHOP)
+                       | pos.getPieces(team, Position.QUEEN);
+      while (diagonals != 0) {
+         int from = Long.numberOfTrailingZeros(diagonals);
+         diagonals &= diagonals - 1;
+         n = addMoves(from, Attacks.bishop(from, occupied) & targets,
+                      captures, moves, n);
+      }
+      long orthogonals = pos.getPieces(team, Position.ROOK)
+                         | pos.getPieces(team, Position.QUEEN);
+      while (orthogonals != 0) {
+         int from = Long.numberOfTrailingZeros(orthogonals);
+         orthogonals &= orthogonals - 1;
+         n = addMoves(from, Attacks.rook(from, occupied) & targets,
+                      captures, moves, n);
+      }
+      long king = pos.getPieces(team, Position.KING);
+      if (king != 0) {
+         int from = Long.numberOfTrailingZeros(king);
+         n = addMoves(from, Attacks.king(from) & targets, captures, moves, n);
+         n = addCastling(pos, team, from, moves, n);
+      }
+      return n - start;
+   }
+
+   /**
+    **   Determines whether a square is attacked by a given team.
+    **   @param pos the position
+    **   @param sq the square
+    **   @param byTeam the attacking team
+    **   @return a boolean value
+    **/
+   public static boolean isAttacked(Position pos, int sq, int byTeam) {
+      long occupied = pos.getOccupied();
+      if ((Attacks.pawn(byTeam ^ 1, sq)
+           & pos.getPieces(byTeam, Position.PAWN)) != 0) return true;
+      if ((Attacks.knight(sq)
+           & pos.getPieces(byTeam, Position.KNIGHT)) != 0) return true;
+      if ((Attacks.king(sq) & pos.getPieces(byTeam, Position.KING)) != 0)
+         return true;
+      long queens = pos.getPieces(byTeam, Position.QUEEN);
+      if ((Attacks.bishop(sq, occupied)
+           & (pos.getPieces(byTeam, Position.BISHOP) | queens)) != 0)
+         return true;
+      return (Attacks.rook(sq, occupied)
+              & (pos.getPieces(byTeam, Position.ROOK) | queens)) != 0;
+   }
+
+   /*
+    * Adds the pushes, captures, en passant captures and promotions of every
+    * pawn of a team.
+    */
+   private static int addPawnMoves(Position pos, int team, long captures,
+                                   int[] moves, int n) {
+      long pawns = pos.getPieces(team, Position.PAWN);
+      long empty = ~pos.getOccupied();
+      long single, twice, left, right, promotionRank;
+      int forward;
+      if (team == Position.WHITE) {
+         forward = 8;
+         single = (pawns << 8) & empty;
+         twice = ((single & Bitboards.RANK_3) << 8) & empty;
+         left = ((pawns & ~Bitboards.FILE_A) << 7) & captures;
+         right = ((pawns & ~Bitboards.FILE_H) << 9) & captures;
+         promotionRank = Bitboards.RANK_8;
+      } else {
+         forward = -8;
+         single = (pawns >>> 8) & empty;
+         twice = ((single & Bitboards.RANK_6) >>> 8) & empty;
+         left = ((pawns & ~Bitboards.FILE_A) >>> 9) & captures;
+         right = ((pawns & ~Bitboards.FILE_H) >>> 7) & captures;
+         promotionRank = Bitboards.RANK_1;
+      }
+      int leftStep = forward - 1, rightStep = forward + 1;
+
+      n = addPawnTargets(single & ~promotionRank, forward, Move.QUIET, moves,
+                         n);
+      n = addPawnTargets(twice, 2 * forward, Move.DOUBLE_PUSH, moves, n);
+      n = addPawnTargets(left & ~promotionRank, leftStep, Move.CAPTURE, moves,
+                         n);
+      n = addPawnTargets(right & ~promotionRank, rightStep, Move.CAPTURE,
+                         moves, n);
+      n = addPromotions(single & promotionRank, forward, Move.PROMOTION,
+                        moves, n);
+      n = addPromotions(left & promotionRank, leftStep,
+                        Move.PROMOTION_CAPTURE, moves, n);
+      n = addPromotions(right & promotionRank, rightStep,
+                        Move.PROMOTION_CAPTURE, moves, n);
+
+      int ep = pos.getEpSquare();
+      if (ep != Position.NO_SQUARE) {
+         long attackers = Attacks.pawn(team ^ 1, ep) & pawns;
+         while (attackers != 0) {
+            int from = Long.numberOfTrailingZeros(attackers);
+            attackers &= attackers - 1;
+            moves[n++] = Move.encode(from, ep, Move.EP_CAPTURE);
+         }
+      }
+      return n;
+   }
+
+   /*
+    * Adds a pawn move for each target square, where every pawn moved the
+    * same step to get there.
+    */
+   private static int addPawnTargets(long targets, int step, int flags,
+                                     int[] moves, int n) {
+      while (targets != 0) {
+         int to = Long.numberOfTrailingZeros(targets);
+         targets &= targets - 1;
+         moves[n++] = Move.encode(to - step, to, flags);
+      }
+      return n;
+   }
+
+   /*
+    * Adds all four promotions for each target square. The queen goes last,
+    * so anything that only wants one promotion can take the last it sees.
+    */
+   private static int addPromotions(long targets, int step, int flags,
+                                    int[] moves, int n) {
+      while (targets != 0) {
+         int to = Long.numberOfTrailingZeros(targets);
+         targets &= targets - 1;
+         for (int piece = Move.KNIGHT_PROMOTION;
+              piece <= Move.QUEEN_PROMOTION; piece++)
+            moves[n++] = Move.encode(to - step, to, flags | piece);
+      }
+      return n;
+   }
+
+   /*
+    * Adds a move from one square to each of a set of target squares.
+    */
+   private static int addMoves(int from, long targets, long captures,
+                               int[] moves, int n) {
+      while (targets != 0) {
+         int to = Long.numberOfTrailingZeros(targets);
+         long bit = targets & -targets;
+         targets ^= bit;
+         moves[n++] = Move.encode(from, to, ((captures & bit) != 0)
+                                            ? Move.CAPTURE : Move.QUIET);
+      }
+      return n;
+   }
+
+   /*
+    * Adds whichever castling moves are available: the right must still be
+    * there, the squares between king and rook must be empty, and the king
+    * can't start in, pass through or land in check.
+    */
+   private static int addCastling(Position pos, int team, int king,
+                                  int[] moves, int n) {
+      int rights = pos.getCastlingRights();
+      long occupied = pos.getOccupied();
+      int enemy = team ^ 1;
+      int kingside = (team == Position.WHITE) ? Position.WHITE_KINGSIDE
+                                              : Position.BLACK_KINGSIDE;
+      int queenside = (team == Position.WHITE) ? Position.WHITE_QUEENSIDE
+                                               : Position.BLACK_QUEENSIDE;
+      if ((rights & (kingside | queenside)) == 0) return n;
+      if (isAttacked(pos, king, enemy)) return n;
+
+      if (((rights & kingside) != 0)
+          && ((occupied & ((1L << (king + 1)) | (1L << (king + 2)))) == 0)
+          && !isAttacked(pos, king + 1, enemy))
+         moves[n++] = Move.encode(king, king + 2, Move.KING_CASTLE);
+      if (((rights & queenside) != 0)
+          && ((occupied & ((1L << (king - 1)) | (1L << (king - 2))
+                           | (1L << (king - 3)))) == 0)
+          && !isAttacked(pos, king - 1, enemy))
+         moves[n++] = Move.encode(king, king - 2, Move.QUEEN_CASTLE);
+      return n;
+   }
+}
@@ -0,0 +1,247 @@
+/******************************************************************************
+ *                             ChessSim 0.9                                   *
+ *                  Copyright © 2015 Ben Goldsworthy (rumperuu)               *
+ *                                                                            *
+ * A program to simulate a game of chess between two human players.           *
+ *                                                                            *
+ * This file is part of ChessSim.                                             *
+ *                                                                            *
+ * ChessSim is free software: you can redistribute it and/or modify           *
+ * it under the terms of the GNU General Public License as published by       *
+ * the Free Software Foundation, either version 3 of the License, or          *
+ * (at your option) any later version.                                        *
+ *                                                                            *
+ * ChessSim is distributed in the hope that it will be useful,                *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of             *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the              *
+ * GNU General Public License for more details.                               *
+ *                                                                            *
+ * You should have received a copy of the GNU General Public License          *
+ * along with ChessSim.  If not, see <http://www.gnu.org/licenses/>.          *
+ ******************************************************************************/
+
+
+/**
+ ** This class holds the weights of a small neural network for scoring
+ ** positions, utilised in the ChessSim program. It's laid out to be
+ ** "efficiently updatable" (NNUE): the input is one feature for each piece
+ ** on each square, seen from each side, so the first layer's output is
+ ** just the sum of the weight columns of the pieces on the board. That sum
+ ** (kept by an `Accumulator`) only changes by a column or two when a move
+ ** is made, so it's never worked out from scratch during a search; only the
+ ** small output layer is run at each leaf.
+ **
+ ** Each side's half of the first layer sees the board from its own side:
+ ** "own" and "their" pieces rather than White and Black, and the board
+ ** flipped for Black. The output layer takes the side to move's half, then
+ ** the other side's, each clipped to between 0 and `QA`. Everything is
+ ** 16-bit fixed point, as the files are written by trainers, so the same
+ ** numbers come out whatever machine it runs on.
+ **
+ ** A network file is little-endian: the header (`MAGIC`, the hidden layer
+ ** size and the output bias, as ints after the long), then the feature
+ ** weights (`FEATURES` columns of `hidden` shorts), the hidden biases, and
+ ** the output weights for the side to move's half then the other's. The
+ ** file is memory-mapped and read in one pass into arrays, which is what
+ ** the vector loads in `Accumulator` work fastest from. `bootstrap()` makes
+ ** a network that just adds up material and piece-square values, to play
+ ** with, or to start training from, until there's a trained one.
+ **/
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ **   @author  Ben Goldsworthy (rumperuu) <me+chesssim@bengoldsworthy.net>
+ **   @version 0.92
+ **/
+public class Network {
+   // "CSNNUE01"
+   public static final long MAGIC = 0x313045554E4E5343L;
+   public static final int HEADER_BYTES = 16;
+   // 12 pieces (own pawn to own king, then theirs) on 64 squares
+   public static final int FEATURES = 12 * 64;
+   // the hidden layer size has to be a multiple of this, so that any
+   // vector width up to 1024 bits goes into it exactly
+   public static final int HIDDEN_MULTIPLE = 64;
+   public static final int DEFAULT_HIDDEN = 256;
+   // the fixed-point scales: a hidden value of `QA` is 1.0, an output
+   // weight of `QB` is 1.0, and an output of 1.0 is `SCALE` centipawns
+   public static final int QA = 255, QB = 64, SCALE = 400;
+   // the module the vector code in `Accumulator` needs at run time
+   public static final String VECTOR_MODULE = "jdk.incubator.vector";
+
+   // in the bootstrap network, the centipawns one step of a hidden value
+   // is worth, and the bias that keeps the kings' values off 0
+   private static final int BOOTSTRAP_UNIT = 8, BOOTSTRAP_KING_BIAS = 128;
+
+   private final int hidden;
+   // indexed by `feature * hidden + neuron`
+   private final short[] featureWeights;
+   private final short[] hiddenBiases;
+   // the side to move's half, then the other side's
+   private final short[] outputWeights;
+   private final int outputBias;
+
+   /**
+    **   Loads a network from a file.
+    **   @param file the network file
+    **   @throws IOException if the file can't be read, or isn't a network
+    **/
+   public Network(Path file) throws IOException {
+      try (FileChannel channel = FileChannel.open(file,
+                                                  StandardOpenOption.READ)) {
+         long bytes = channel.size();
+         if (bytes < HEADER_BYTES)
+            throw new IOException("Not a network: " + file);
+         MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                                            bytes);
+         map.order(ByteOrder.LITTLE_ENDIAN);
+         hidden = map.getInt(8);
+         if (map.getLong(0) != MAGIC || hidden <= 0
+             || hidden % HIDDEN_MULTIPLE != 0
+             || bytes != HEADER_BYTES + 2L * ((FEATURES + 3L) * hidden))
+            throw new IOException("Not a network: " + file);
+         outputBias = map.getInt(12);
+         featureWeights = new short[FEATURES * hidden];
+         hiddenBiases = new short[hidden];
+         outputWeights = new short[2 * hidden];
+         map.position(HEADER_BYTES);
+         map.asShortBuffer().get(featureWeights).get(hiddenBiases)
+            .get(outputWeights);
+      }
+   }
+
+   /*
+    * Wraps arrays that have already been filled in.
+    */
+   private Network(short[] featureWeights, short[] hiddenBiases,
+                   short[] outputWeights, int outputBias) {
+      this.hidden = hiddenBiases.length;
+      this.featureWeights = featureWeights;
+      this.hiddenBiases = hiddenBiases;
+      this.outputWeights = outputWeights;
+      this.outputBias = outputBias;
+   }
+
+   /**
+    **   Makes a network that scores positions by material and piece-square
+    **   values alone (the `Evaluator`'s, halfway between middlegame and
+    **   endgame). One hidden neuron per piece, in each half, adds up that
+    **   piece's values; the rest of the hidden layer is left at 0 for
+    **   training to make use of.
+    **   @return the network
+    **/
+   public static Network bootstrap() {
+      short[] weights = new short[FEATURES * DEFAULT_HIDDEN];
+      short[] biases = new short[DEFAULT_HIDDEN];
+      short[] output = new short[2 * DEFAULT_HIDDEN];
+      // the two halves both give the whole score, so each counts for half
+      int weight = Math.round((float) BOOTSTRAP_UNIT * QA * QB / SCALE / 2);
+      for (int piece = 0; piece < 12; piece++) {
+         // a White piece seen from White's side is an own piece, and
+         // Black's values are stored negated
+         int sign = (piece < 6) ? 1 : -1;
+         for (int sq = 0; sq < 64; sq++)
+            weights[(piece * 64 + sq) * DEFAULT_HIDDEN + piece] = (short)
+               Math.round(sign * (Evaluator.MIDDLEGAME[piece][sq]
+                                  + Evaluator.ENDGAME[piece][sq])
+                          / (2f * BOOTSTRAP_UNIT));
+         if (piece % 6 == Position.KING) biases[piece] = BOOTSTRAP_KING_BIAS;
+         // the other side's half sees the same pieces the other way round
+         output[piece] = (short) (sign * weight);
+         output[DEFAULT_HIDDEN + piece] = (short) (-sign * weight);
+      }
+      return new Network(weights, biases, output, 0);
+   }
+
+   /**
+    **   Writes this network to a file, in the form the constructor reads.
+    **   @param file the file
+    **   @throws IOException if the file can't be written
+    **/
+   public void write(Path file) throws IOException {
+      ByteBuffer buffer = ByteBuffer.allocate(
+         HEADER_BYTES + 2 * (featureWeights.length + hidden
+                             + outputWeights.length));
+      buffer.order(ByteOrder.LITTLE_ENDIAN);
+      buffer.putLong(MAGIC).putInt(hidden).putInt(outputBias);
+      buffer.asShortBuffer().put(featureWeights).put(hiddenBiases)
+            .put(outputWeights);
+      // the short view doesn't move the buffer on past the header
+      buffer.position(0);
+      try (FileChannel out = FileChannel.open(
+              file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+              StandardOpenOption.TRUNCATE_EXISTING)) {
+         while (buffer.hasRemaining()) out.write(buffer);
+      }
+   }
+
+   /**
+    **   Determines whether the vector module `Accumulator` needs was added
+    **   when Java was started (with `--add-modules jdk.incubator.vector`).
+    **   @return whether networks can be used
+    **/
+   public static boolean isSupported() {
+      return ModuleLayer.boot().findModule(VECTOR_MODULE).isPresent();
+   }
+
+   /**
+    **   Gets the input feature for a piece on a square, seen from one side.
+    **   @param perspective the side it's seen from
+    **   @param piece the piece code (`team * 6 + type`)
+    **   @param sq the square
+    **   @return the feature, from 0 to `FEATURES - 1`
+    **/
+   public static int feature(int perspective, int piece, int sq) {
+      if (perspective == Position.WHITE) return piece * 64 + sq;
+      return ((piece < 6) ? piece + 6 : piece - 6) * 64 + (sq ^ 56);
+   }
+
+   /**
+    **   Gets the size of the hidden layer, i.e. of each side's half of the
+    **   accumulator.
+    **   @return the number of neurons
+    **/
+   public int getHiddenSize() {
+      return hidden;
+   }
+
+   /**
+    **   Gets the first layer's weights, shared by every accumulator and not
+    **   to be changed.
+    **   @return the weights, indexed by `feature * hidden + neuron`
+    **/
+   public short[] getFeatureWeights() {
+      return featureWeights;
+   }
+
+   /**
+    **   Gets the first layer's biases, shared and not to be changed.
+    **   @return the biases, indexed by neuron
+    **/
+   public short[] getHiddenBiases() {
+      return hiddenBiases;
+   }
+
+   /**
+    **   Gets the output layer's weights, shared and not to be changed.
+    **   @return the weights for the side to move's half, then the other's
+    **/
+   public short[] getOutputWeights() {
+      return outputWeights;
+   }
+
+   /**
+    **   Gets the output layer's bias.
+    **   @return the bias
+    **/
+   public int getOutputBias() {
+      return outputBias;
+   }
+}
@@ -0,0 +1,357 @@
+/******************************************************************************
+ *                             ChessSim 0.9                                   *
+ *                  Copyright © 2015 Ben Goldsworthy (rumperuu)               *
+ *                                                                            *
+ * A program to simulate a game of chess between two human players.           *
+ *                                                                            *
+ * This file is part of ChessSim.                                             *
+ *                                                                            *
+ * ChessSim is free software: you can redistribute it and/or modify           *
+ * it under the terms of the GNU General Public License as published by       *
+ * the Free Software Foundation, either version 3 of the License, or          *
+ * (at your option) any later version.                                        *
+ *                                                                            *
+ * ChessSim is distributed in the hope that it will be useful,                *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of             *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the              *
+ * GNU General Public License for more details.                               *
+ *                                                                            *
+ * You should have received a copy of the GNU General Public License          *
+ * along with ChessSim.  If not, see <http://www.gnu.org/licenses/>.          *
+ ******************************************************************************/
+
+/**
+ ** This class runs a `Search` on several threads at once, utilised in the
+ ** ChessSim program. It's the "Lazy SMP" scheme: every thread searches the
+ ** same position, and the only thing they share is the transposition table.
+ ** What one thread finds gets picked up by the others from the table, and
+ ** the helper threads skip some iterations, so between them they get
+ ** deeper than one thread would, without any of them waiting on another.
+ **
+ ** The calling thread does the main search, and its limits decide when to
+ ** stop; the helpers search until it's finished.
+ **/
+
+import java.io.PrintStream;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ **   @author  Ben Goldsworthy (rumperuu) <me+chesssim@bengoldsworthy.net>
+ **   @version 0.92
+ **/
+public class ParallelSearch {
+   public static final int MAX_THREADS = 256;
+
+   private final TranspositionTable table;
+   private Search[] searches;
+   private Future<?>[] helpers;
+   private ExecutorService executor;
+   private SearchListener listener;
+   private Tablebase tablebase;
+   private Network network;
+   private Search best;
+   private long nodes;
+
+   /**
+    **   Creates a parallel search with a transposition table of its own, of
+    **   the default size.
+    **   @param threads the number of threads to search with
+    **/
+   public ParallelSearch(int threads) {
+      this(threads, new TranspositionTable());
+   }
+
+   /**
+    **   Creates a parallel search using the given transposition table.
+    **   @param threads the number of threads to search with
+    **   @param table the table
+    **/
+   public ParallelSearch(int threads, TranspositionTable table) {
+      this.table = table;
+      setThreads(threads);
+   }
+
+   /**
+    **   Changes the number of threads. Mustn't be called while searching.
+    **   @param threads the number of threads, including the calling one
+    **/
+   public void setThreads(int threads) {
+      if (threads < 1 || threads > MAX_THREADS)
+         throw new IllegalArgumentException("Threads must be 1 to "
+                                            + MAX_THREADS);
+      shutdown();
+      searches = new Search[threads];
+      for (int i = 0; i < threads; i++) {
+         searches[i] = new Search(table);
+         searches[i].setHelperIndex(i);
+         searches[i].setTablebase(tablebase);
+         searches[i].setNetwork(network);
+      }
+      // forwards the main search's reports, but with every thread's nodes
+      searches[0].setListener((depth, score, n, millis, pv, pvLength) -> {
+         if (listener != null)
+            listener.iterationDone(depth, score, totalNodes(), millis, pv,
+                                   pvLength);
+      });
+      helpers = new Future<?>[threads - 1];
+      if (threads > 1) {
+         executor = Executors.newFixedThreadPool(threads - 1, task -> {
+            Thread thread = new Thread(task, "search helper");
+            thread.setDaemon(true);
+            return thread;
+         });
+      }
+      best = searches[0];
+   }
+
+   /**
+    **   Gets the number of threads.
+    **   @return the number of threads, including the calling one
+    **/
+   public int getThreads() {
+      return searches.length;
+   }
+
+   /**
+    **   Gets the transposition table the threads share.
+    **   @return the table
+    **/
+   public TranspositionTable getTable() {
+      return table;
+   }
+
+   /**
+    **   Sets the tablebase every thread probes.
+    **   @param tablebase the tablebase, or null for none
+    **/
+   public void setTablebase(Tablebase tablebase) {
+      this.tablebase = tablebase;
+      for (Search search : searches) search.setTablebase(tablebase);
+   }
+
+   /**
+    **   Sets the network every thread scores positions with, each with an
+    **   accumulator of its own.
+    **   @param network the network, or null for the evaluator
+    **   @throws IllegalStateException if Java wasn't started with the
+    **           vector module the network needs
+    **/
+   public void setNetwork(Network network) {
+      for (Search search : searches) search.setNetwork(network);
+      this.network = network;
+   }
+
+   /**
+    **   Sets who to tell when each iteration of the main search finishes.
+    **   @param listener the listener, or null for nobody
+    **/
+   public void setListener(SearchListener listener) {
+      this.listener = listener;
+   }
+
+   /**
+    **   Searches for the best move on every thread, returning when the main
+    **   search hits a limit.
+    **   @param root the position to search, which isn't changed
+    **   @param limits how far the main search goes
+    **   @return the best move found, or `Move.NONE` if there are no legal
+    **           moves
+    **/
+   public int search(Position root, SearchLimits limits) {
+      // the helpers only stop when they're told to
+      SearchLimits unlimited = new SearchLimits();
+      unlimited.setDepth(limits.getDepth());
+      for (int i = 1; i < searches.length; i++) {
+         Search helper = searches[i];
+         // the last search stopped it
+         helper.clearStop();
+         helpers[i - 1] = executor.submit(() -> helper.search(root,
+                                                               unlimited));
+      }
+      searches[0].search(root, limits);
+      stopHelpers();
+
+      // a helper that got deeper than the main search has the better move
+      best = searches[0];
+      for (int i = 1; i < searches.length; i++)
+         if (searches[i].getDepthReached() > best.getDepthReached())
+            best = searches[i];
+      nodes = totalNodes();
+      return best.getBestMove();
+   }
+
+   /**
+    **   Asks every thread to stop as soon as it can. Safe to call from any
+    **   thread.
+    **/
+   public void stop() {
+      for (Search search : searches) search.stop();
+   }
+
+   /**
+    **   Forgets any earlier `stop()`, so the next search runs; see
+    **   `Search.clearStop()`.
+    **/
+   public void clearStop() {
+      for (Search search : searches) search.clearStop();
+   }
+
+   /**
+    **   Gets the best move from the last search.
+    **   @return the move
+    **/
+   public int getBestMove() {
+      return best.getBestMove();
+   }
+
+   /**
+    **   Gets the score of the best move from the last search.
+    **   @return the score in centipawns, from the side to move's point of
+    **           view
+    **/
+   public int getBestScore() {
+      return best.getBestScore();
+   }
+
+   /**
+    **   Gets the principal variation from the last search.
+    **   @return a copy of the moves
+    **/
+   public int[] getPrincipalVariation() {
+      return best.getPrincipalVariation();
+   }
+
+   /**
+    **   Gets the deepest iteration any thread finished in the last search.
+    **   @return the depth in plies
+    **/
+   public int getDepthReached() {
+      return best.getDepthReached();
+   }
+
+   /**
+    **   Gets the number of positions every thread put together looked at
+    **   in the last search.
+    **   @return the node count
+    **/
+   public long getNodes() {
+      return nodes;
+   }
+
+   /**
+    **   Gets the number of tablebase probes every thread put together got
+    **   an answer from in the last search.
+    **   @return the number of hits
+    **/
+   public long getTablebaseHits() {
+      long hits = 0;
+      for (Search search : searches) hits += search.getTablebaseHits();
+      return hits;
+   }
+
+   /**
+    **   Gets how long the last search took.
+    **   @return the time in milliseconds
+    **/
+   public long getElapsed() {
+      return searches[0].getElapsed();
+   }
+
+   /**
+    **   Gets the speed of the last search, over every thread.
+    **   @return the nodes per second
+    **/
+   public long getNodesPerSecond() {
+      return nodes * 1000 / Math.max(1, getElapsed());
+   }
+
+   /**
+    **   Ends the helper threads. The search can still be used afterwards,
+    **   on the calling thread only, until `setThreads()` is called.
+    **/
+   public void shutdown() {
+      if (executor != null) executor.shutdownNow();
+      executor = null;
+   }
+
+   /**
+    **   Measures how the search speeds up with more threads: for each
+    **   thread count from 1 up to `maxThreads`, doubling, it times a fixed
+    **   depth search of a few standard positions, and writes out the time
+    **   to depth and the nodes per second, each compared to one thread.
+    **   @param maxThreads the most threads to try
+    **   @param depth the depth to search to
+    **   @param megabytes the size of the transposition table
+    **   @param out where to write the results
+    **/
+   public static void runScaling(int maxThreads, int depth, int megabytes,
+                                 PrintStream out) {
+      final int[] positions = {0, 1, 5};
+      TranspositionTable table = new TranspositionTable(megabytes);
+      SearchLimits limits = new SearchLimits();
+      limits.setDepth(depth);
+      Position pos = new Position();
+      out.println("Cores: " + Runtime.getRuntime().availableProcessors()
+                  + "  depth " + depth + "  hash " + megabytes + " MB");
+      out.println("threads   time (ms)    speedup           nps   nps scaling");
+
+      // one untimed pass first, so the JIT has compiled everything before
+      // the one-thread figures everything else is compared to
+      long baseTime = 0, baseNps = 0;
+      for (int threads = 0; threads <= maxThreads;
+           threads = Math.max(1, threads * 2)) {
+         ParallelSearch search = new ParallelSearch(Math.max(1, threads),
+                                                    table);
+         long time = 0, nodes = 0;
+         for (int i : positions) {
+            table.clear();
+            pos.setFen(Perft.SUITE_FENS[i]);
+            search.search(pos, limits);
+            time += search.getElapsed();
+            nodes += search.getNodes();
+         }
+         search.shutdown();
+         if (threads == 0) continue;
+         time = Math.max(1, time);
+         long nps = nodes * 1000 / time;
+         if (threads == 1) {
+            baseTime = time;
+            baseNps = nps;
+         }
+         out.printf("%7d %11d %10.2f %13d %13.2f%n", threads, time,
+                    (double) baseTime / time, nps, (double) nps / baseNps);
+      }
+   }
+
+   /*
+    * Stops the helper threads and waits for them to finish. A helper that
+    * hasn't got going yet still sees the stop when it does.
+    */
+   private void stopHelpers() {
+      for (int i = 1; i < searches.length; i++) searches[i].stop();
+      for (int i = 1; i < searches.length; i++) {
+         try {
+            helpers[i - 1].get();
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+         } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+         }
+      }
+   }
+
+   /*
+    * Adds up the nodes every thread has searched. While they're running
+    * this is only approximate, since it reads the other threads' counts
+    * without synchronising.
+    */
+   private long totalNodes() {
+      long total = 0;
+      for (Search search : searches) total += search.getNodes();
+      return total;
+   }
+}
@@ -0,0 +1,190 @@
+/******************************************************************************
+ *                             ChessSim 0.9                                   *
+ *                  Copyright © 2015 Ben Goldsworthy (rumperuu)               *
+ *                                                                            *
+ * A program to simulate a game of chess between two human players.           *
+ *                                                                            *
+ * This file is part of ChessSim.                                             *
+ *                                                                            *
+ * ChessSim is free software: you can redistribute it and/or modify           *
+ * it under the terms of the GNU General Public License as published by       *
+ * the Free Software Foundation, either version 3 of the License, or          *
+ * (at your option) any later version.                                        *
+ *                                                                            *
+ * ChessSim is distributed in the hope that it will be useful,                *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of             *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the              *
+ * GNU General Public License for more details.                               *
+ *                                                                            *
+ * You should have received a copy of the GNU General Public License          *
+ * along with ChessSim.  If not, see <http://www.gnu.org/licenses/>.          *
+ ******************************************************************************/
+
+/**
+ ** This class remembers the pawn structure terms the `Evaluator` has
+ ** worked out, utilised in the ChessSim program. Pawns hardly ever move
+ ** compared with everything else, so the same pawn structure comes up at
+ ** nearly every node of a search, and working out passed, isolated,
+ ** doubled and backward pawns and king shelters again each time would be a
+ ** waste. Entries are found by a Zobrist key of just the pawns.
+ **
+ ** Like the `TranspositionTable` it's a handful of fixed-size primitive
+ ** arrays rather than an object per entry, with each new entry simply
+ ** going over the old one in its slot. Unlike it, it isn't shared: each
+ ** evaluator has its own, so there's nothing to lock or tear.
+ **/
+
+/**
+ **   @author  Ben Goldsworthy (rumperuu) <me+chesssim@bengoldsworthy.net>
+ **   @version 0.92
+ **/
+public class PawnTable {
+   public static final int DEFAULT_ENTRIES = 1 << 14;
+   // the king positions a shelter is scored for: the queenside (files a to
+   // c), the centre (d and e) and the kingside (f to h)
+   public static final int ZONES = 3;
+
+   // an empty slot holds a key that would go in a different slot, so it
+   // can't match anything probed there
+   private final long[] keys;
+   private final int[] middlegame, endgame;
+   private final long[] passed;
+   // indexed by `slot * 2 * ZONES + team * ZONES + zone`
+   private final short[] shelters;
+   private final int mask;
+   private long probes, hits;
+
+   /**
+    **   Creates a table of the default size.
+    **/
+   public PawnTable() {
+      this(DEFAULT_ENTRIES);
+   }
+
+   /**
+    **   Creates a table.
+    **   @param entries the number of entries, rounded down to a power of two
+    **          (and at least 2)
+    **/
+   public PawnTable(int entries) {
+      if (entries < 1)
+         throw new IllegalArgumentException("Bad pawn table size: " + entries);
+      int size = Math.max(2, Integer.highestOneBit(entries));
+      keys = new long[size];
+      for (int slot = 0; slot < size; slot++) keys[slot] = ~slot;
+      middlegame = new int[size];
+      endgame = new int[size];
+      passed = new long[size];
+      shelters = new short[size * 2 * ZONES];
+      mask = size - 1;
+   }
+
+   /**
+    **   Looks a pawn structure up.
+    **   @param key the position's pawn key
+    **   @return the slot it's in, or -1 if it isn't in the table
+    **/
+   public int probe(long key) {
+      probes++;
+      int slot = (int) key & mask;
+      if (keys[slot] != key) return -1;
+      hits++;
+      return slot;
+   }
+
+   /**
+    **   Stores a pawn structure's terms.
+    **   @param key the position's pawn key
+    **   @param middlegameScore the middlegame score, White's less Black's
+    **   @param endgameScore the endgame score, White's less Black's
+    **   @param passedPawns both teams' passed pawns
+    **   @param shelterScores each team's shelter score in each zone,
+    **          indexed by `team * ZONES + zone`
+    **   @return the slot it went in
+    **/
+   public int store(long key, int middlegameScore, int endgameScore,
+                    long passedPawns, int[] shelterScores) {
+      int slot = (int) key & mask;
+      keys[slot] = key;
+      middlegame[slot] = middlegameScore;
+      endgame[slot] = endgameScore;
+      passed[slot] = passedPawns;
+      for (int i = 0; i < 2 * ZONES; i++)
+         shelters[slot * 2 * ZONES + i] = (short) shelterScores[i];
+      return slot;
+   }
+
+   /**
+    **   Gets the middlegame score in a slot.
+    **   @param slot the slot, from `probe()` or `store()`
+    **   @return White's score less Black's
+    **/
+   public int getMiddlegame(int slot) {
+      return middlegame[slot];
+   }
+
+   /**
+    **   Gets the endgame score in a slot.
+    **   @param slot the slot, from `probe()` or `store()`
+    **   @return White's score less Black's
+    **/
+   public int getEndgame(int slot) {
+      return endgame[slot];
+   }
+
+   /**
+    **   Gets the passed pawns in a slot.
+    **   @param slot the slot, from `probe()` or `store()`
+    **   @return the bitboard of both teams' passed pawns
+    **/
+   public long getPassed(int slot) {
+      return passed[slot];
+   }
+
+   /**
+    **   Gets how well a team's pawns shelter its king in one zone.
+    **   @param slot the slot, from `probe()` or `store()`
+    **   @param team WHITE or BLACK
+    **   @param zone the zone, from 0 (the queenside) to `ZONES - 1`
+    **   @return the shelter score
+    **/
+   public int getShelter(int slot, int team, int zone) {
+      return shelters[slot * 2 * ZONES + team * ZONES + zone];
+   }
+
+   /**
+    **   Gets the zone a king on a square is sheltered in.
+    **   @param sq the king's square
+    **   @return the zone
+    **/
+   public static int zoneOf(int sq) {
+      int file = sq & 7;
+      return (file < 3) ? 0 : (file < 5) ? 1 : 2;
+   }
+
+   /**
+    **   Gets the proportion of probes that found their pawn structure since
+    **   the table was created or had its stats reset.
+    **   @return the hit rate, from 0 to 1
+    **/
+   public double getHitRate() {
+      return (probes == 0) ? 0 : (double) hits / probes;
+   }
+
+   /**
+    **   Gets the number of probes since the table was created or had its
+    **   stats reset.
+    **   @return the probe count
+    **/
+   public long getProbes() {
+      return probes;
+   }
+
+   /**
+    **   Resets the hit rate counters.
+    **/
+   public void resetStats() {
+      probes = 0;
+      hits = 0;
+   }
+}
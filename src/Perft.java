@@ -0,0 +1,154 @@
+/******************************************************************************
+ *                             ChessSim 0.9                                   *
+ *                  Copyright © 2015 Ben Goldsworthy (rumperuu)               *
+ *                                                                            *
+ * A program to simulate a game of chess between two human players.           *
+ *                                                                            *
+ * This file is part of ChessSim.                                             *
+ *                                                                            *
+ * ChessSim is free software: you can redistribute it and/or modify           *
+ * it under the terms of the GNU General Public License as published by       *
+ * the Free Software Foundation, either version 3 of the License, or          *
+ * (at your option) any later version.                                        *
+ *                                                                            *
+ * ChessSim is distributed in the hope that it will be useful,                *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of             *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the              *
+ * GNU General Public License for more details.                               *
+ *                                                                            *
+ * You should have received a copy of the GNU General Public License          *
+ * along with ChessSim.  If not, see <http://www.gnu.org/licenses/>.          *
+ ******************************************************************************/
+
+/**
+ ** This class counts the leaf nodes of the legal move tree ("perft"),
+ ** utilised in the ChessSim program. The counts for well-known positions
+ ** are published, so any bug in move generation or move making shows up as
+ ** a wrong number; and since it does nothing but generate and make moves,
+ ** it doubles as a throughput measure.
+ **/
+
+import java.io.PrintStream;
+
+/**
+ **   @author  Ben Goldsworthy (rumperuu) <me+chesssim@bengoldsworthy.net>
+ **   @version 0.92
+ **/
+public class Perft {
+   public static final int MAX_DEPTH = 32;
+
+   // the standard test positions, with a depth and the published node count
+   // at that depth
+   public static final String[] SUITE_FENS = {
+      "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1",
+      "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+      "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+      "r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1",
+      "rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8",
+      "r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10"
+   };
+   public static final int[] SUITE_DEPTHS = {5, 4, 6, 5, 4, 4};
+   public static final long[] SUITE_NODES = {4865609L, 4085603L, 11030083L,
+                                             15833292L, 2103487L, 3894594L};
+
+   private final ChessLogic logic = new ChessLogic();
+   // a move buffer for each ply, and the one position that gets moves made
+   // and unmade on it, so counting doesn't allocate
+   private final int[][] moves = new int[MAX_DEPTH][MoveGenerator.MAX_MOVES];
+   private final Position position = new Position();
+
+   /**
+    **   Counts the leaf nodes of the legal move tree.
+    **   @param pos the position to start from, which isn't changed
+    **   @param depth the number of plies to go down
+    **   @return the number of leaf nodes
+    **/
+   public long perft(Position pos, int depth) {
+      if (depth <= 0) return 1;
+      position.copyFrom(pos);
+      return count(0, depth);
+   }
+
+   /**
+    **   Counts the leaf nodes below each legal move, and writes them out
+    **   along with the total and how long it took.
+    **   @param pos the position to start from, which isn't changed
+    **   @param depth the number of plies to go down
+    **   @param out where to write the results
+    **   @return the total number of leaf nodes
+    **/
+   public long divide(Position pos, int depth, PrintStream out) {
+      long start = System.nanoTime();
+      long total = 0;
+      position.copyFrom(pos);
+      int count = logic.generateLegal(position, moves[0], 0);
+      for (int i = 0; i < count; i++) {
+         position.makeMove(moves[0][i]);
+         long nodes = (depth <= 1) ? 1 : count(1, depth - 1);
+         position.unmakeMove(moves[0][i]);
+         out.println(Move.toString(moves[0][i]) + ": " + nodes);
+         total += nodes;
+      }
+      out.println();
+      out.println("Moves: " + count);
+      out.println(summary(total, System.nanoTime() - start));
+      return total;
+   }
+
+   /**
+    **   Runs the standard positions at their usual depths, checking the
+    **   counts against the published ones.
+    **   @param out where to write the results
+    **   @return whether every count was right
+    **/
+   public boolean runSuite(PrintStream out) {
+      Position pos = new Position();
+      boolean allRight = true;
+      long totalNodes = 0, totalTime = 0;
+      for (int i = 0; i < SUITE_FENS.length; i++) {
+         pos.setFen(SUITE_FENS[i]);
+         long start = System.nanoTime();
+         long nodes = perft(pos, SUITE_DEPTHS[i]);
+         long time = System.nanoTime() - start;
+         boolean right = (nodes == SUITE_NODES[i]);
+         allRight &= right;
+         totalNodes += nodes;
+         totalTime += time;
+         out.println((right ? "ok   " : "FAIL ") + "depth " + SUITE_DEPTHS[i]
+                     + "  " + summary(nodes, time)
+                     + (right ? "" : "  (expected " + SUITE_NODES[i] + ")")
+                     + "  " + SUITE_FENS[i]);
+      }
+      out.println("Total " + summary(totalNodes, totalTime));
+      return allRight;
+   }
+
+   /**
+    **   Describes a node count and time, with the nodes per second.
+    **   @param nodes the node count
+    **   @param nanos the time taken, in nanoseconds
+    **   @return the description
+    **/
+   public static String summary(long nodes, long nanos) {
+      long millis = Math.max(1, nanos / 1000000);
+      return "nodes " + nodes + "  time " + millis + " ms  nps "
+             + (nodes * 1000 / millis);
+   }
+
+   /*
+    * Counts the leaf nodes below the current position, `ply` moves down. The
+    * last ply is counted straight from the number of legal moves ("bulk
+    * counting").
+    */
+   private long count(int ply, int depth) {
+      int n = logic.generateLegal(position, moves[ply], 0);
+      if (depth == 1) return n;
+      long nodes = 0;
+      for (int i = 0; i < n; i++) {
+         position.makeMove(moves[ply][i]);
+         nodes += count(ply + 1, depth - 1);
+         position.unmakeMove(moves[ply][i]);
+      }
+      return nodes;
+   }
+}
@@ -0,0 +1,165 @@
+/******************************************************************************
+ *                             ChessSim 0.9                                   *
+ *                  Copyright © 2015 Ben Goldsworthy (rumperuu)               *
+ *                                                                            *
+ * A program to simulate a game of chess between two human players.           *
+ *                                                                            *
+ * This file is part of ChessSim.                                             *
+ *                                                                            *
+ * ChessSim is free software: you can redistribute it and/or modify           *
+ * it under the terms of the GNU General Public License as published by       *
+ * the Free Software Foundation, either version 3 of the License, or          *
+ * (at your option) any later version.                                        *
+ *                                                                            *
+ * ChessSim is distributed in the hope that it will be useful,                *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of             *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the              *
+ * GNU General Public License for more details.                               *
+ *                                                                            *
+ * You should have received a copy of the GNU General Public License          *
+ * along with ChessSim.  If not, see <http://www.gnu.org/licenses/>.          *
+ ******************************************************************************/
+
+/**
+ ** This class holds one game read from a PGN file, utilised in the ChessSim
+ ** program: where it starts, its moves (already checked against the rules)
+ ** and its result. The tags aren't kept, bar the starting position, since
+ ** they'd mean building a `String` for each one.
+ **/
+
+import java.util.Arrays;
+
+/**
+ **   @author  Ben Goldsworthy (rumperuu) <me+chesssim@bengoldsworthy.net>
+ **   @version 0.92
+ **/
+public class PgnGame {
+   public static final int UNKNOWN = 0, WHITE_WINS = 1, BLACK_WINS = 2,
+                           DRAW = 3;
+
+   private long offset;
+   private String fen;
+   private int[] moves = new int[256];
+   private int moveCount;
+   private int result;
+   private boolean valid;
+
+   /**
+    **   Gets where the game starts in the file.
+    **   @return the byte offset of its first tag (or first move, if it has
+    **           no tags)
+    **/
+   public long getOffset() {
+      return offset;
+   }
+
+   /**
+    **   Gets the position the game starts from, if it's not the standard
+    **   one.
+    **   @return the FEN from the game's FEN tag, or null
+    **/
+   public String getFen() {
+      return fen;
+   }
+
+   /**
+    **   Sets a position up as it was at the start of the game.
+    **   @param pos the position
+    **/
+   public void startPosition(Position pos) {
+      if (fen == null) pos.setStartPosition();
+      else pos.setFen(fen);
+   }
+
+   /**
+    **   Gets the number of moves (plies) read.
+    **   @return the number of moves
+    **/
+   public int getMoveCount() {
+      return moveCount;
+   }
+
+   /**
+    **   Gets one of the moves.
+    **   @param index the number of the move, from 0
+    **   @return the move
+    **/
+   public int getMove(int index) {
+      return moves[index];
+   }
+
+   /**
+    **   Gets the game's result.
+    **   @return UNKNOWN, WHITE_WINS, BLACK_WINS or DRAW
+    **/
+   public int getResult() {
+      return result;
+   }
+
+   /**
+    **   Determines whether every move in the game was read. If not, the
+    **   moves up to the first one that wasn't legal (or couldn't be made
+    **   out) are kept.
+    **   @return a boolean value
+    **/
+   public boolean isValid() {
+      return valid;
+   }
+
+   /**
+    **   Makes this game a copy of another one.
+    **   @param other the game to copy
+    **/
+   public void copyFrom(PgnGame other) {
+      offset = other.offset;
+      fen = other.fen;
+      if (moves.length < other.moveCount)
+         moves = new int[other.moves.length];
+      System.arraycopy(other.moves, 0, moves, 0, other.moveCount);
+      moveCount = other.moveCount;
+      result = other.result;
+      valid = other.valid;
+   }
+
+   /*
+    * Empties the game out, ready to read the next one into, starting at the
+    * given offset.
+    */
+   void reset(long offset) {
+      this.offset = offset;
+      fen = null;
+      moveCount = 0;
+      result = UNKNOWN;
+      valid = true;
+   }
+
+   /*
+    * Sets the FEN from the game's FEN tag.
+    */
+   void setFen(String fen) {
+      this.fen = fen;
+   }
+
+   /*
+    * Adds a move read from the game.
+    */
+   void addMove(int move) {
+      if (moveCount == moves.length)
+         moves = Arrays.copyOf(moves, moves.length * 2);
+      moves[moveCount++] = move;
+   }
+
+   /*
+    * Sets the result from the game's termination marker.
+    */
+   void setResult(int result) {
+      this.result = result;
+   }
+
+   /*
+    * Marks the game as not read all the way through.
+    */
+   void setInvalid() {
+      valid = false;
+   }
+}
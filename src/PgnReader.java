@@ -0,0 +1,662 @@
+/******************************************************************************
+ *                             ChessSim 0.9                                   *
+ *                  Copyright © 2015 Ben Goldsworthy (rumperuu)               *
+ *                                                                            *
+ * A program to simulate a game of chess between two human players.           *
+ *                                                                            *
+ * This file is part of ChessSim.                                             *
+ *                                                                            *
+ * ChessSim is free software: you can redistribute it and/or modify           *
+ * it under the terms of the GNU General Public License as published by       *
+ * the Free Software Foundation, either version 3 of the License, or          *
+ * (at your option) any later version.                                        *
+ *                                                                            *
+ * ChessSim is distributed in the hope that it will be useful,                *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of             *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the              *
+ * GNU General Public License for more details.                               *
+ *                                                                            *
+ * You should have received a copy of the GNU General Public License          *
+ * along with ChessSim.  If not, see <http://www.gnu.org/licenses/>.          *
+ ******************************************************************************/
+
+/**
+ ** This class reads games from PGN files, utilised in the ChessSim program.
+ ** The file is memory-mapped rather than read into the heap, so it can be
+ ** far bigger than memory, and parsed straight from the mapped bytes: the
+ ** only `String` ever made is for a FEN tag. Each move in standard
+ ** algebraic notation (SAN) is worked out from the attack tables and
+ ** checked against the rules, by making it and seeing that it doesn't
+ ** leave the king in check, as the game is replayed.
+ **
+ ** The file is split into chunks, each starting where a game's tags do.
+ ** Games are handed out one chunk at a time, with only the chunk being read
+ ** mapped, either in order (`iterator()`, `stream()`, `forEach()`) or with
+ ** the chunks spread over every core (`parallelStream()`,
+ ** `parallelForEach()`).
+ **/
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ **   @author  Ben Goldsworthy (rumperuu) <me+chesssim@bengoldsworthy.net>
+ **   @version 0.92
+ **/
+public class PgnReader implements Iterable<PgnGame> {
+   // the most that gets mapped at once (one game can't be bigger), and the
+   // usual size of a chunk
+   public static final long MAX_CHUNK_BYTES = 1L << 30;
+   public static final long DEFAULT_CHUNK_BYTES = 64L << 20;
+   // parallel reading splits into at least this many chunks per core, so
+   // the cores finish at about the same time
+   private static final int CHUNKS_PER_CORE = 4;
+   private static final long MIN_CHUNK_BYTES = 1L << 20;
+   // how much is read at a time when looking for where a game starts
+   private static final int SCAN_BYTES = 1 << 16;
+   private static final String PIECE_LETTERS = "PRNBQK";
+
+   private final Path file;
+   private final long size;
+
+   /**
+    **   Constructor function.
+    **   @param file the PGN file
+    **   @throws IOException if the file can't be read
+    **/
+   public PgnReader(Path file) throws IOException {
+      this.file = file;
+      size = Files.size(file);
+   }
+
+   /**
+    **   Gets the size of the file.
+    **   @return the size in bytes
+    **/
+   public long size() {
+      return size;
+   }
+
+   /**
+    **   Reads the games in order. Each game comes back as a new object.
+    **   @return the games
+    **/
+   @Override
+   public Iterator<PgnGame> iterator() {
+      return stream().iterator();
+   }
+
+   /**
+    **   Reads the games in order, lazily. Each game comes back as a new
+    **   object.
+    **   @return the games
+    **/
+   public Stream<PgnGame> stream() {
+      return chunkStream(split(DEFAULT_CHUNK_BYTES), false);
+   }
+
+   /**
+    **   Reads the games with the chunks spread over every core, so the
+    **   games don't come in order. Each game comes back as a new object.
+    **   @return the games
+    **/
+   public Stream<PgnGame> parallelStream() {
+      return chunkStream(split(parallelChunkBytes()), true);
+   }
+
+   /**
+    **   Reads the games in order, handing each one to `action`. The same
+    **   `PgnGame` is reused for every game, so nothing is allocated per
+    **   game; `action` mustn't keep hold of it.
+    **   @param action what to do with each game
+    **/
+   @Override
+   public void forEach(Consumer<? super PgnGame> action) {
+      long[] bounds = split(DEFAULT_CHUNK_BYTES);
+      for (int i = 0; i + 1 < bounds.length; i++) {
+         ChunkParser parser = new ChunkParser(bounds[i], bounds[i + 1]);
+         while (parser.hasNext()) action.accept(parser.next());
+      }
+   }
+
+   /**
+    **   Reads the games with the chunks spread over every core, handing
+    **   each one to `action`, which has to be safe to call from several
+    **   threads at once. Each thread reuses one `PgnGame` for all its games;
+    **   `action` mustn't keep hold of it.
+    **   @param action what to do with each game
+    **/
+   public void parallelForEach(Consumer<? super PgnGame> action) {
+      long[] bounds = split(parallelChunkBytes());
+      IntStream.range(0, bounds.length - 1).parallel().forEach(i -> {
+         ChunkParser parser = new ChunkParser(bounds[i], bounds[i + 1]);
+         while (parser.hasNext()) action.accept(parser.next());
+      });
+   }
+
+   /**
+    **   Splits the file into chunks of about the given size, each starting
+    **   where a game does.
+    **   @param chunkBytes the size to aim for, at most `MAX_CHUNK_BYTES`
+    **   @return the offsets the chunks start at, followed by the file size
+    **/
+   public long[] split(long chunkBytes) {
+      chunkBytes = Math.max(1, Math.min(chunkBytes, MAX_CHUNK_BYTES));
+      List<Long> bounds = new ArrayList<>();
+      bounds.add(0L);
+      try (FileChannel channel = FileChannel.open(file,
+                                                  StandardOpenOption.READ)) {
+         long last = 0;
+         while (last + chunkBytes < size) {
+            long start = findGameStart(channel, last + chunkBytes);
+            if (start >= size) break;
+            if (start - last > MAX_CHUNK_BYTES)
+               throw new IllegalStateException("No game starts between "
+                                               + last + " and " + start);
+            bounds.add(start);
+            last = start;
+         }
+      } catch (IOException e) {
+         throw new UncheckedIOException(e);
+      }
+      if (size - bounds.get(bounds.size() - 1) > MAX_CHUNK_BYTES)
+         throw new IllegalStateException("Game too big at "
+                                         + bounds.get(bounds.size() - 1));
+      long[] result = new long[bounds.size() + 1];
+      for (int i = 0; i < bounds.size(); i++) result[i] = bounds.get(i);
+      result[bounds.size()] = size;
+      return result;
+   }
+
+   /**
+    **   Works out the move some standard algebraic notation stands for,
+    **   e.g. "Nbd7", "exd6", "e8=Q+" or "O-O".
+    **   @param pos the position the move is made in
+    **   @param text the buffer the SAN is in
+    **   @param start the index of its first byte
+    **   @param end the index after its last byte
+    **   @return the move, or `Move.NONE` if it isn't a legal move (or is
+    **           ambiguous)
+    **/
+   public static int resolveSan(Position pos, ByteBuffer text, int start,
+                                int end) {
+      // annotations and check marks don't change the move
+      while (end > start && "+#!?".indexOf(text.get(end - 1)) >= 0) end--;
+      if (end - start < 2) return Move.NONE;
+      byte first = text.get(start);
+      if (first == 'O' || first == '0') {
+         int letters = 0;
+         for (int i = start; i < end; i++)
+            if (text.get(i) == 'O' || text.get(i) == '0') letters++;
+         return castle(pos, (letters == 3) ? Move.QUEEN_CASTLE
+                                           : Move.KING_CASTLE);
+      }
+
+      int promotion = -1;
+      int last = text.get(end - 1);
+      int promotionLetter = "NBRQ".indexOf(last);
+      if (promotionLetter >= 0) {
+         promotion = promotionLetter;
+         end--;
+         if (end > start && text.get(end - 1) == '=') end--;
+      }
+      if (end - start < 2) return Move.NONE;
+      int toFile = text.get(end - 2) - 'a', toRank = text.get(end - 1) - '1';
+      if (toFile < 0 || toFile > 7 || toRank < 0 || toRank > 7)
+         return Move.NONE;
+      final int to = toRank * 8 + toFile;
+
+      int type = PIECE_LETTERS.indexOf(first);
+      int i = start;
+      if (type > Position.PAWN) i++;
+      else type = Position.PAWN;
+      // whatever's between the piece and the target narrows down where
+      // it's coming from
+      long from = -1L;
+      boolean capture = false;
+      for (; i < end - 2; i++) {
+         int c = text.get(i);
+         if (c >= 'a' && c <= 'h') from &= Bitboards.FILE_A << (c - 'a');
+         else if (c >= '1' && c <= '8') from &= Bitboards.RANK_1
+                                                 << (8 * (c - '1'));
+         else if (c == 'x' || c == ':') capture = true;
+         else if (c != '-') return Move.NONE;
+      }
+
+      final int us = pos.getSideToMove();
+      final long occupied = pos.getOccupied();
+      long own = pos.getPieces(us, type);
+      switch (type) {
+      case Position.PAWN:
+         int forward = (us == Position.WHITE) ? 8 : -8;
+         if (capture) {
+            from &= own & Attacks.pawn(us ^ 1, to);
+         } else {
+            // a pawn only moves straight ahead onto an empty square
+            if ((occupied & (1L << to)) != 0) return Move.NONE;
+            int one = to - forward, two = to - 2 * forward;
+            long push = 0;
+            if (one >= 0 && one < 64 && (own & (1L << one)) != 0) {
+               push = 1L << one;
+            } else if (two >= 0 && two < 64 && (own & (1L << two)) != 0
+                       && (occupied & (1L << one)) == 0
+                       && Math.abs(toRank - ((us == Position.WHITE) ? 1 : 6))
+                          == 2) {
+               push = 1L << two;
+            }
+            from &= push;
+         }
+         // a pawn reaching the last rank has to say what it becomes
+         if ((toRank == 0 || toRank == 7) != (promotion >= 0))
+            return Move.NONE;
+         break;
+      case Position.KNIGHT:
+         from &= own & Attacks.knight(to);
+         break;
+      case Position.BISHOP:
+         from &= own & Attacks.bishop(to, occupied);
+         break;
+      case Position.ROOK:
+         from &= own & Attacks.rook(to, occupied);
+         break;
+      case Position.QUEEN:
+         from &= own & Attacks.queen(to, occupied);
+         break;
+      default:
+         from &= own & Attacks.king(to);
+      }
+      if (type != Position.PAWN && promotion >= 0) return Move.NONE;
+
+      // of the pieces that could get there, exactly one must be able to
+      // without leaving its king in check. Out of check, that only happens
+      // if moving opens a line from an enemy slider to the king, which the
+      // attack tables show without making the move; kings, en passant and
+      // getting out of check are left to trying the move.
+      final int them = us ^ 1, king = pos.kingSquare(us);
+      final boolean inCheck = pos.inCheck();
+      final long queens = pos.getPieces(them, Position.QUEEN);
+      final long straight = pos.getPieces(them, Position.ROOK) | queens;
+      final long diagonal = pos.getPieces(them, Position.BISHOP) | queens;
+      int found = Move.NONE;
+      for (; from != 0; from &= from - 1) {
+         int square = Long.numberOfTrailingZeros(from);
+         int move = encode(pos, square, to, type, promotion);
+         if (move == Move.NONE) continue;
+         boolean legal;
+         if (inCheck || type == Position.KING
+             || Move.flags(move) == Move.EP_CAPTURE) {
+            pos.makeMove(move);
+            legal = !MoveGenerator.isAttacked(pos, pos.kingSquare(us), them);
+            pos.unmakeMove(move);
+         } else {
+            long after = (occupied ^ (1L << square)) | (1L << to);
+            legal = (((Attacks.rook(king, after) & straight)
+                      | (Attacks.bishop(king, after) & diagonal))
+                     & ~(1L << to)) == 0;
+         }
+         if (!legal) continue;
+         if (found != Move.NONE) return Move.NONE;
+         found = move;
+      }
+      return found;
+   }
+
+   /*
+    * Builds the move of a piece from one square to another, working out
+    * its flags from the position. Returns `Move.NONE` if it would take a
+    * piece of its own side or a king, or a pawn would take straight ahead.
+    */
+   private static int encode(Position pos, int from, int to, int type,
+                             int promotion) {
+      int victim = pos.pieceAt(to);
+      if (victim != Position.EMPTY
+          && (pos.teamAt(to) == pos.getSideToMove()
+              || pos.typeAt(to) == Position.KING))
+         return Move.NONE;
+      int flags = (victim == Position.EMPTY) ? Move.QUIET : Move.CAPTURE;
+      if (type == Position.PAWN) {
+         // a pawn can't take straight ahead
+         if (victim != Position.EMPTY && ((to - from) & 7) == 0)
+            return Move.NONE;
+         if (promotion >= 0) {
+            flags = ((victim == Position.EMPTY) ? Move.PROMOTION
+                                                : Move.PROMOTION_CAPTURE)
+                    | promotion;
+         } else if (Math.abs(to - from) == 16) {
+            flags = Move.DOUBLE_PUSH;
+         } else if (to == pos.getEpSquare()) {
+            flags = Move.EP_CAPTURE;
+         } else if (victim == Position.EMPTY && ((to - from) & 7) != 0) {
+            // a diagonal move has to take something
+            return Move.NONE;
+         }
+      }
+      return Move.encode(from, to, flags);
+   }
+
+   /*
+    * Finds the legal castling move of the given kind, if there is one. It's
+    * rare enough that it's simplest to generate every legal move.
+    */
+   private static int castle(Position pos, int flags) {
+      int[] moves = new int[MoveGenerator.MAX_MOVES];
+      int count = new ChessLogic().generateLegal(pos, moves, 0);
+      for (int i = 0; i < count; i++)
+         if (Move.flags(moves[i]) == flags) return moves[i];
+      return Move.NONE;
+   }
+
+   /*
+    * Gets the chunk size for reading in parallel: small enough to give
+    * every core several chunks.
+    */
+   private long parallelChunkBytes() {
+      int cores = Runtime.getRuntime().availableProcessors();
+      return Math.max(MIN_CHUNK_BYTES,
+                      Math.min(DEFAULT_CHUNK_BYTES,
+                               size / (cores * CHUNKS_PER_CORE) + 1));
+   }
+
+   /*
+    * Makes a stream of the games in the given chunks, mapping each one only
+    * once the stream gets to it.
+    */
+   private Stream<PgnGame> chunkStream(long[] bounds, boolean parallel) {
+      IntStream chunks = IntStream.range(0, bounds.length - 1);
+      if (parallel) chunks = chunks.parallel();
+      return chunks.boxed().flatMap(i -> {
+         ChunkParser parser = new ChunkParser(bounds[i], bounds[i + 1]);
+         Iterator<PgnGame> copies = new Iterator<PgnGame>() {
+            public boolean hasNext() {
+               return parser.hasNext();
+            }
+
+            public PgnGame next() {
+               PgnGame game = new PgnGame();
+               game.copyFrom(parser.next());
+               return game;
+            }
+         };
+         return StreamSupport.stream(Spliterators.spliteratorUnknownSize(
+            copies, Spliterator.ORDERED | Spliterator.NONNULL), false);
+      });
+   }
+
+   /*
+    * Finds the first game to start at or after the given offset: the first
+    * tag line that doesn't follow another tag line. Returns the file size
+    * if there isn't one.
+    */
+   private long findGameStart(FileChannel channel, long from)
+   throws IOException {
+      ByteBuffer window = ByteBuffer.allocate(SCAN_BYTES);
+      // the line `from` is in counts as a tag line if it ends in ']', or
+      // if nothing of it is seen, since it could be the end of any line
+      boolean previousTag = false, lineStart = false, tagLine = false;
+      byte lastNonSpace = 0;
+      for (long offset = from; offset < size; ) {
+         window.clear();
+         int read = channel.read(window, offset);
+         if (read <= 0) break;
+         for (int i = 0; i < read; i++, offset++) {
+            byte c = window.get(i);
+            if (c == '\n') {
+               if (!lineStart) previousTag = (lastNonSpace == ']'
+                                             || lastNonSpace == 0);
+               else previousTag = tagLine;
+               lineStart = true;
+               tagLine = false;
+               lastNonSpace = 0;
+               continue;
+            }
+            if (c == ' ' || c == '\t' || c == '\r') continue;
+            if (lineStart && lastNonSpace == 0) {
+               tagLine = (c == '[');
+               if (tagLine && !previousTag) return offset;
+            }
+            lastNonSpace = c;
+         }
+      }
+      return size;
+   }
+
+   /*
+    * Reads the games from one chunk of the file, replaying each on a
+    * position of its own. `next()` returns the same `PgnGame` every time.
+    */
+   private class ChunkParser implements Iterator<PgnGame> {
+      private final MappedByteBuffer buffer;
+      private final long base;
+      private final int limit;
+      private final Position board = new Position();
+      private final PgnGame game = new PgnGame();
+      private int pos = 0;
+      private boolean ready;
+
+      ChunkParser(long start, long end) {
+         base = start;
+         try (FileChannel channel = FileChannel.open(file,
+                                                     StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                                 end - start);
+         } catch (IOException e) {
+            throw new UncheckedIOException(e);
+         }
+         limit = buffer.limit();
+      }
+
+      public boolean hasNext() {
+         if (!ready) ready = parseGame();
+         return ready;
+      }
+
+      public PgnGame next() {
+         if (!hasNext()) throw new NoSuchElementException();
+         ready = false;
+         return game;
+      }
+
+      /*
+       * Reads the next game, returning false if there isn't one.
+       */
+      private boolean parseGame() {
+         skipSpace();
+         if (pos >= limit) return false;
+         game.reset(base + pos);
+         board.setStartPosition();
+         while (pos < limit && buffer.get(pos) == '[') {
+            parseTag();
+            skipSpace();
+         }
+         if (game.getFen() != null) {
+            try {
+               board.setFen(game.getFen());
+            } catch (IllegalArgumentException e) {
+               game.setInvalid();
+            }
+         }
+         parseMoves();
+         return true;
+      }
+
+      /*
+       * Reads one tag, e.g. [Event "Casual game"], keeping it only if it's
+       * the FEN.
+       */
+      private void parseTag() {
+         int nameStart = ++pos;
+         while (pos < limit && buffer.get(pos) > ' '
+                && buffer.get(pos) != '"' && buffer.get(pos) != ']')
+            pos++;
+         boolean fen = (pos - nameStart == 3) && buffer.get(nameStart) == 'F'
+                       && buffer.get(nameStart + 1) == 'E'
+                       && buffer.get(nameStart + 2) == 'N';
+         while (pos < limit && buffer.get(pos) != '"'
+                && buffer.get(pos) != ']' && buffer.get(pos) != '\n')
+            pos++;
+         if (pos < limit && buffer.get(pos) == '"') {
+            int valueStart = ++pos;
+            while (pos < limit && buffer.get(pos) != '"') {
+               if (buffer.get(pos) == '\\') pos++;
+               pos++;
+            }
+            if (fen) game.setFen(text(valueStart, Math.min(pos, limit)));
+            pos++;
+         }
+         while (pos < limit && buffer.get(pos) != ']'
+                && buffer.get(pos) != '\n')
+            pos++;
+         if (pos < limit && buffer.get(pos) == ']') pos++;
+      }
+
+      /*
+       * Reads the moves up to the result (or the next game's tags, or the
+       * end of the chunk), skipping comments, variations, move numbers and
+       * annotation glyphs.
+       */
+      private void parseMoves() {
+         while (true) {
+            skipSpace();
+            if (pos >= limit) return;
+            byte c = buffer.get(pos);
+            switch (c) {
+            case '[':
+               // the next game, with no result before it
+               return;
+            case '*':
+               pos++;
+               return;
+            case '{':
+               skipPast((byte) '}');
+               continue;
+            case ';': case '%':
+               skipPast((byte) '\n');
+               continue;
+            case '(':
+               skipVariation();
+               continue;
+            case ')':
+               pos++;
+               continue;
+            case '$':
+               pos++;
+               while (pos < limit && isDigit(buffer.get(pos))) pos++;
+               continue;
+            default:
+            }
+            int end = pos;
+            while (end < limit && !isDelimiter(buffer.get(end))) end++;
+            int result = result(pos, end);
+            if (result != PgnGame.UNKNOWN) {
+               game.setResult(result);
+               pos = end;
+               return;
+            }
+            if (isDigit(c) && !(c == '0' && end > pos + 1
+                                && buffer.get(pos + 1) == '-')) {
+               // a move number, which may run straight into the move
+               while (pos < end && (isDigit(buffer.get(pos))
+                                    || buffer.get(pos) == '.'))
+                  pos++;
+               continue;
+            }
+            if (game.isValid()) playMove(pos, end);
+            pos = end;
+         }
+      }
+
+      /*
+       * Works out and makes the move in SAN between `start` and `end`,
+       * marking the game invalid if it isn't legal.
+       */
+      private void playMove(int start, int end) {
+         int move = resolveSan(board, buffer, start, end);
+         if (move == Move.NONE
+             || board.getHistorySize() == Position.MAX_HISTORY) {
+            game.setInvalid();
+            return;
+         }
+         board.makeMove(move);
+         game.addMove(move);
+      }
+
+      /*
+       * Gets the result a token stands for, or `PgnGame.UNKNOWN` if it
+       * isn't a result.
+       */
+      private int result(int start, int end) {
+         int length = end - start;
+         if (length == 3 && buffer.get(start + 1) == '-') {
+            if (buffer.get(start) == '1' && buffer.get(start + 2) == '0')
+               return PgnGame.WHITE_WINS;
+            if (buffer.get(start) == '0' && buffer.get(start + 2) == '1')
+               return PgnGame.BLACK_WINS;
+         }
+         if (length == 7 && buffer.get(start) == '1'
+             && buffer.get(start + 1) == '/' && buffer.get(start + 3) == '-')
+            return PgnGame.DRAW;
+         return PgnGame.UNKNOWN;
+      }
+
+      private void skipSpace() {
+         while (pos < limit && buffer.get(pos) <= ' ') pos++;
+      }
+
+      private void skipPast(byte marker) {
+         while (pos < limit && buffer.get(pos) != marker) pos++;
+         pos++;
+      }
+
+      /*
+       * Skips a variation, which can have variations and comments inside.
+       */
+      private void skipVariation() {
+         int depth = 0;
+         while (pos < limit) {
+            byte c = buffer.get(pos);
+            if (c == '{') {
+               skipPast((byte) '}');
+               continue;
+            }
+            pos++;
+            if (c == '(') depth++;
+            else if (c == ')' && --depth == 0) return;
+         }
+      }
+
+      private String text(int start, int end) {
+         byte[] bytes = new byte[end - start];
+         buffer.get(start, bytes);
+         return new String(bytes, StandardCharsets.ISO_8859_1);
+      }
+   }
+
+   private static boolean isDigit(byte c) {
+      return c >= '0' && c <= '9';
+   }
+
+   /*
+    * Determines whether a byte ends a token in the moves.
+    */
+   private static boolean isDelimiter(byte c) {
+      return c <= ' ' || c == '{' || c == '}' || c == '(' || c == ')'
+             || c == ';' || c == '[' || c == '$';
+   }
+}
@@ -0,0 +1,98 @@
+/******************************************************************************
+ *                             ChessSim 0.9                                   *
+ *                  Copyright © 2015 Ben Goldsworthy (rumperuu)               *
+ *                                                                            *
+ * A program to simulate a game of chess between two human players.           *
+ *                                                                            *
+ * This file is part of ChessSim.                                             *
+ *                                                                            *
+ * ChessSim is free software: you can redistribute it and/or modify           *
+ * it under the terms of the GNU General Public License as published by       *
+ * the Free Software Foundation, either version 3 of the License, or          *
+ * (at your option) any later version.                                        *
+ *                                                                            *
+ * ChessSim is distributed in the hope that it will be useful,                *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of             *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the              *
+ * GNU General Public License for more details.                               *
+ *                                                                            *
+ * You should have received a copy of the GNU General Public License          *
+ * along with ChessSim.  If not, see <http://www.gnu.org/licenses/>.          *
+ ******************************************************************************/
+
+/**
+ ** This class holds every legal move in a position, sorted by the square
+ ** the moving piece is on, utilised in the ChessSim program. The board
+ ** works them out once per position and keeps them, keyed by the
+ ** position's Zobrist key, so hovering over and clicking on pieces just
+ ** looks them up rather than generating them again. It never changes once
+ ** made, so it can be handed from one thread to another freely.
+ **/
+
+/**
+ **   @author  Ben Goldsworthy (rumperuu) <me+chesssim@bengoldsworthy.net>
+ **   @version 0.92
+ **/
+public final class PieceMoves {
+   private final long hash;
+   // the moves, grouped by from-square: the moves from square `sq` are at
+   // `start[sq]` up to (but not including) `start[sq + 1]`
+   private final int[] moves;
+   private final int[] start = new int[65];
+
+   /**
+    **   Works out the legal moves in a position.
+    **   @param pos the position
+    **   @param logic the move generator to use
+    **   @param buffer somewhere to generate the moves into first, at least
+    **          `MoveGenerator.MAX_MOVES` long
+    **/
+   public PieceMoves(Position pos, ChessLogic logic, int[] buffer) {
+      hash = pos.getHash();
+      int count = logic.generateLegal(pos, buffer, 0);
+      moves = new int[count];
+      // counts the moves from each square, turns the counts into starting
+      // points, then drops each move into place, keeping the generator's
+      // order within each square
+      for (int i = 0; i < count; i++) start[Move.from(buffer[i]) + 1]++;
+      for (int sq = 0; sq < 64; sq++) start[sq + 1] += start[sq];
+      int[] next = start.clone();
+      for (int i = 0; i < count; i++)
+         moves[next[Move.from(buffer[i])]++] = buffer[i];
+   }
+
+   /**
+    **   Gets the Zobrist key of the position these are the moves of.
+    **   @return the key
+    **/
+   public long getHash() {
+      return hash;
+   }
+
+   /**
+    **   Gets the number of legal moves the piece on a square has.
+    **   @param sq the square
+    **   @return the number of moves
+    **/
+   public int count(int sq) {
+      return start[sq + 1] - start[sq];
+   }
+
+   /**
+    **   Gets one of the legal moves of the piece on a square.
+    **   @param sq the square
+    **   @param i which of the moves, from 0 to `count(sq) - 1`
+    **   @return the move
+    **/
+   public int get(int sq, int i) {
+      return moves[start[sq] + i];
+   }
+
+   /**
+    **   Gets the number of legal moves in the position altogether.
+    **   @return the number of moves
+    **/
+   public int total() {
+      return moves.length;
+   }
+}
@@ -0,0 +1,54 @@
+/******************************************************************************
+ *                             ChessSim 0.9                                   *
+ *                  Copyright © 2015 Ben Goldsworthy (rumperuu)               *
+ *                                                                            *
+ * A program to simulate a game of chess between two human players.           *
+ *                                                                            *
+ * This file is part of ChessSim.                                             *
+ *                                                                            *
+ * ChessSim is free software: you can redistribute it and/or modify           *
+ * it under the terms of the GNU General Public License as published by       *
+ * the Free Software Foundation, either version 3 of the License, or          *
+ * (at your option) any later version.                                        *
+ *                                                                            *
+ * ChessSim is distributed in the hope that it will be useful,                *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of             *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the              *
+ * GNU General Public License for more details.                               *
+ *                                                                            *
+ * You should have received a copy of the GNU General Public License          *
+ * along with ChessSim.  If not, see <http://www.gnu.org/licenses/>.          *
+ ******************************************************************************/
+
+
+/**
+ ** This interface is something that picks moves in a game, utilised in the
+ ** ChessSim program: the engine's own `Search`, or an outside engine spoken
+ ** to over UCI. A `Tournament` gets one from each `EngineSetup` for each
+ ** thread it plays games on.
+ **/
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ **   @author  Ben Goldsworthy (rumperuu) <me+chesssim@bengoldsworthy.net>
+ **   @version 0.92
+ **/
+public interface Player extends Closeable {
+   /**
+    **   Gets ready for a new game, forgetting anything learnt in the last.
+    **   @param fen the position the game starts from
+    **   @throws IOException if an outside engine can't be spoken to
+    **/
+   void newGame(String fen) throws IOException;
+
+   /**
+    **   Picks a move for the side to move.
+    **   @param game the game so far, from the position given to `newGame()`
+    **   @return the move, which may be illegal (or `Move.NONE`) if an
+    **           outside engine gets it wrong
+    **   @throws IOException if an outside engine can't be spoken to
+    **/
+   int pickMove(Game game) throws IOException;
+}
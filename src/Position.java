@@ -0,0 +1,723 @@
+/******************************************************************************
+ *                             ChessSim 0.9                                   *
+ *                  Copyright © 2015 Ben Goldsworthy (rumperuu)               *
+ *                                                                            *
+ * A program to simulate a game of chess between two human players.           *
+ *                                                                            *
+ * This file is part of ChessSim.                                             *
+ *                                                                            *
+ * ChessSim is free software: you can redistribute it and/or modify           *
+ * it under the terms of the GNU General Public License as published by       *
+ * the Free Software Foundation, either version 3 of the License, or          *
+ * (at your option) any later version.                                        *
+ *                                                                            *
+ * ChessSim is distributed in the hope that it will be useful,                *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of             *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the              *
+ * GNU General Public License for more details.                               *
+ *                                                                            *
+ * You should have received a copy of the GNU General Public License          *
+ * along with ChessSim.  If not, see <http://www.gnu.org/licenses/>.          *
+ ******************************************************************************/
+
+/**
+ ** This class represents a chess position as a set of bitboards, utilised in
+ ** the ChessSim program. It is the one true record of where everything is;
+ ** the `ChessBoard` just draws whatever it finds in here.
+ **/
+
+/**
+ **   @author  Ben Goldsworthy (rumperuu) <me+chesssim@bengoldsworthy.net>
+ **   @version 0.92
+ **/
+public class Position {
+   // same numbering as everywhere else, so `ChessBoard` and `Piece` values
+   // can be passed straight in
+   public static final int WHITE = 0, BLACK = 1;
+   public static final int PAWN = 0, ROOK = 1, KNIGHT = 2, BISHOP = 3,
+                           QUEEN = 4, KING = 5;
+   // the mailbox value of a square with nothing on it
+   public static final int EMPTY = -1;
+   // the value of `epSquare` when there isn't one
+   public static final int NO_SQUARE = -1;
+   // how many moves deep the undo stack goes, which has to cover a whole
+   // game plus however far a search looks ahead of it
+   public static final int MAX_HISTORY = 2048;
+   // castling rights, as bit flags
+   public static final int WHITE_KINGSIDE = 1, WHITE_QUEENSIDE = 2,
+                           BLACK_KINGSIDE = 4, BLACK_QUEENSIDE = 8;
+   // the castling rights that survive a move touching each square
+   private static final int[] CASTLING_MASK = new int[64];
+   static {
+      for (int sq = 0; sq < 64; sq++) CASTLING_MASK[sq] = 15;
+      CASTLING_MASK[0] = ~WHITE_QUEENSIDE & 15;
+      CASTLING_MASK[7] = ~WHITE_KINGSIDE & 15;
+      CASTLING_MASK[4] = ~(WHITE_KINGSIDE | WHITE_QUEENSIDE) & 15;
+      CASTLING_MASK[56] = ~BLACK_QUEENSIDE & 15;
+      CASTLING_MASK[63] = ~BLACK_KINGSIDE & 15;
+      CASTLING_MASK[60] = ~(BLACK_KINGSIDE | BLACK_QUEENSIDE) & 15;
+   }
+
+   // one bitboard per (team, type) pair, indexed by `team * 6 + type`. Bit 0
+   // is a1, bit 7 is h1 and bit 63 is h8.
+   private final long[] pieces = new long[12];
+   // all the squares occupied by each team, and by either
+   private final long[] occupancy = new long[2];
+   private long occupied;
+   // a square-indexed copy of `pieces`, so "what's on this square" doesn't
+   // have to go digging through 12 bitboards
+   private final int[] board = new int[64];
+
+   private int sideToMove;
+   private int castlingRights;
+   private int epSquare;
+   private int halfmoveClock;
+   private int fullmoveNumber;
+   // the Zobrist key of all of the above (bar the move counters), kept up
+   // to date as pieces and state change
+   private long hash;
+   // the same, but of the pawns alone, for the `PawnTable`
+   private long pawnHash;
+   // the `Evaluator`'s material and piece-square totals (White's less
+   // Black's) and game phase, kept up to date the same way
+   private int middlegameScore, endgameScore, phase;
+   // a `Network`'s first layer for this position, if it's been given one,
+   // kept up to date the same way
+   private Accumulator accumulator;
+
+   // the undo stack. For each move made, `undoState` packs what the move
+   // can't tell us about the position before it (the piece taken, plus 1,
+   // in bits 0-3; the castling rights in bits 4-7; the en passant square,
+   // plus 1, in bits 8-14; the halfmove clock from bit 15 up), and
+   // `undoHash` holds the key from before it.
+   private final int[] undoState = new int[MAX_HISTORY];
+   private final long[] undoHash = new long[MAX_HISTORY];
+   private int historySize;
+
+   /**
+    **   Constructor function. The position starts off empty; call
+    **   `setStartPosition()` for a game.
+    **/
+   public Position() {
+      clear();
+   }
+
+   /**
+    **   Removes every piece and resets the game state.
+    **/
+   public void clear() {
+      for (int i = 0; i < 12; i++) pieces[i] = 0L;
+      occupancy[WHITE] = 0L;
+      occupancy[BLACK] = 0L;
+      occupied = 0L;
+      for (int sq = 0; sq < 64; sq++) board[sq] = EMPTY;
+      sideToMove = WHITE;
+      castlingRights = 0;
+      epSquare = NO_SQUARE;
+      halfmoveClock = 0;
+      fullmoveNumber = 1;
+      hash = 0L;
+      pawnHash = 0L;
+      middlegameScore = endgameScore = phase = 0;
+      if (accumulator != null) accumulator.clear();
+      historySize = 0;
+   }
+
+   /**
+    **   Makes this position a copy of another one, without allocating.
+    **   @param other the position to copy
+    **/
+   public void copyFrom(Position other) {
+      System.arraycopy(other.pieces, 0, pieces, 0, 12);
+      occupancy[WHITE] = other.occupancy[WHITE];
+      occupancy[BLACK] = other.occupancy[BLACK];
+      occupied = other.occupied;
+      System.arraycopy(other.board, 0, board, 0, 64);
+      sideToMove = other.sideToMove;
+      castlingRights = other.castlingRights;
+      epSquare = other.epSquare;
+      halfmoveClock = other.halfmoveClock;
+      fullmoveNumber = other.fullmoveNumber;
+      hash = other.hash;
+      pawnHash = other.pawnHash;
+      middlegameScore = other.middlegameScore;
+      endgameScore = other.endgameScore;
+      phase = other.phase;
+      historySize = other.historySize;
+      System.arraycopy(other.undoState, 0, undoState, 0, historySize);
+      System.arraycopy(other.undoHash, 0, undoHash, 0, historySize);
+      if (accumulator != null) accumulator.refresh(this);
+   }
+
+   /**
+    **   Sets up the standard chess starting position.
+    **/
+   public void setStartPosition() {
+      final int[] backRank = {ROOK, KNIGHT, BISHOP, QUEEN, KING, BISHOP,
+                              KNIGHT, ROOK};
+      clear();
+      for (int file = 0; file < 8; file++) {
+         addPiece(WHITE, backRank[file], file);
+         addPiece(WHITE, PAWN, 8 + file);
+         addPiece(BLACK, PAWN, 48 + file);
+         addPiece(BLACK, backRank[file], 56 + file);
+      }
+      setCastlingRights(WHITE_KINGSIDE | WHITE_QUEENSIDE | BLACK_KINGSIDE
+                        | BLACK_QUEENSIDE);
+   }
+
+   /**
+    **   Sets up a position from Forsyth-Edwards Notation, e.g. the start
+    **   position is "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1".
+    **   The move counters can be left off.
+    **   @param fen the FEN text
+    **   @throws IllegalArgumentException if the text isn't valid FEN
+    **/
+   public void setFen(String fen) {
+      String[] fields = fen.trim().split("\\s+");
+      if (fields.length < 4)
+         throw new IllegalArgumentException("Not enough FEN fields: " + fen);
+      clear();
+
+      int rank = 7, file = 0;
+      for (int i = 0; i < fields[0].length(); i++) {
+         char c = fields[0].charAt(i);
+         if (c == '/') {
+            rank--;
+            file = 0;
+         } else if ((c >= '1') && (c <= '8')) {
+            file += c - '0';
+         } else {
+            int type = "prnbqk".indexOf(Character.toLowerCase(c));
+            if ((type < 0) || (rank < 0) || (file > 7))
+               throw new IllegalArgumentException("Bad FEN board: " + fen);
+            addPiece(Character.isUpperCase(c) ? WHITE : BLACK, type,
+                     rank * 8 + file++);
+         }
+      }
+      if (Long.bitCount(pieces[WHITE * 6 + KING]) != 1
+          || Long.bitCount(pieces[BLACK * 6 + KING]) != 1)
+         throw new IllegalArgumentException("FEN needs one king each: " + fen);
+
+      if (fields[1].equals("w")) sideToMove = WHITE;
+      else if (fields[1].equals("b")) sideToMove = BLACK;
+      else throw new IllegalArgumentException("Bad FEN side: " + fen);
+
+      for (int i = 0; i < fields[2].length(); i++) {
+         switch (fields[2].charAt(i)) {
+         case 'K': castlingRights |= WHITE_KINGSIDE; break;
+         case 'Q': castlingRights |= WHITE_QUEENSIDE; break;
+         case 'k': castlingRights |= BLACK_KINGSIDE; break;
+         case 'q': castlingRights |= BLACK_QUEENSIDE; break;
+         case '-': break;
+         default:
+            throw new IllegalArgumentException("Bad FEN castling: " + fen);
+         }
+      }
+
+      if (!fields[3].equals("-")) {
+         if ((fields[3].length() != 2) || (fields[3].charAt(0) < 'a')
+             || (fields[3].charAt(0) > 'h') || (fields[3].charAt(1) < '1')
+             || (fields[3].charAt(1) > '8'))
+            throw new IllegalArgumentException("Bad FEN en passant: " + fen);
+         epSquare = (fields[3].charAt(1) - '1') * 8 + (fields[3].charAt(0)
+                                                       - 'a');
+         // as in `makeMove()`, it's only kept if a pawn can take there, so
+         // the key matches the same position reached by moves
+         if ((Attacks.pawn(sideToMove ^ 1, epSquare)
+              & pieces[sideToMove * 6 + PAWN]) == 0)
+            epSquare = NO_SQUARE;
+      }
+      try {
+         if (fields.length > 4) halfmoveClock = Integer.parseInt(fields[4]);
+         if (fields.length > 5) fullmoveNumber = Integer.parseInt(fields[5]);
+      } catch (NumberFormatException e) {
+         throw new IllegalArgumentException("Bad FEN counters: " + fen);
+      }
+      hash = computeHash();
+   }
+
+   /**
+    **   Writes the position out in Forsyth-Edwards Notation.
+    **   @return the FEN text
+    **/
+   public String toFen() {
+      StringBuilder fen = new StringBuilder();
+      for (int rank = 7; rank >= 0; rank--) {
+         int empty = 0;
+         for (int file = 0; file < 8; file++) {
+            int piece = board[rank * 8 + file];
+            if (piece == EMPTY) {
+               empty++;
+               continue;
+            }
+            if (empty > 0) fen.append(empty);
+            empty = 0;
+            fen.append("PRNBQKprnbqk".charAt(piece));
+         }
+         if (empty > 0) fen.append(empty);
+         if (rank > 0) fen.append('/');
+      }
+      fen.append((sideToMove == WHITE) ? " w " : " b ");
+      if (castlingRights == 0) fen.append('-');
+      if ((castlingRights & WHITE_KINGSIDE) != 0) fen.append('K');
+      if ((castlingRights & WHITE_QUEENSIDE) != 0) fen.append('Q');
+      if ((castlingRights & BLACK_KINGSIDE) != 0) fen.append('k');
+      if ((castlingRights & BLACK_QUEENSIDE) != 0) fen.append('q');
+      fen.append(' ').append((epSquare == NO_SQUARE)
+                             ? "-" : Move.squareName(epSquare));
+      fen.append(' ').append(halfmoveClock).append(' ')
+         .append(fullmoveNumber);
+      return fen.toString();
+   }
+
+   /**
+    **   Places a piece on an empty square.
+    **   @param team the team of the piece
+    **   @param type the type of the piece
+    **   @param sq the square, from 0 (a1) to 63 (h8)
+    **/
+   public void addPiece(int team, int type, int sq) {
+      long bit = 1L << sq;
+      pieces[team * 6 + type] |= bit;
+      occupancy[team] |= bit;
+      occupied |= bit;
+      board[sq] = team * 6 + type;
+      hash ^= Zobrist.PIECE[team * 6 + type][sq];
+      if (type == PAWN) pawnHash ^= Zobrist.PIECE[team * 6 + type][sq];
+      middlegameScore += Evaluator.MIDDLEGAME[team * 6 + type][sq];
+      endgameScore += Evaluator.ENDGAME[team * 6 + type][sq];
+      phase += Evaluator.PHASE_WEIGHTS[type];
+      if (accumulator != null) accumulator.add(team * 6 + type, sq);
+   }
+
+   /**
+    **   Takes whatever piece is on a square off the board.
+    **   @param sq the square
+    **/
+   public void removePiece(int sq) {
+      int piece = board[sq];
+      if (piece == EMPTY) return;
+      long bit = 1L << sq;
+      pieces[piece] &= ~bit;
+      occupancy[piece / 6] &= ~bit;
+      occupied &= ~bit;
+      board[sq] = EMPTY;
+      hash ^= Zobrist.PIECE[piece][sq];
+      if (piece % 6 == PAWN) pawnHash ^= Zobrist.PIECE[piece][sq];
+      middlegameScore -= Evaluator.MIDDLEGAME[piece][sq];
+      endgameScore -= Evaluator.ENDGAME[piece][sq];
+      phase -= Evaluator.PHASE_WEIGHTS[piece % 6];
+      if (accumulator != null) accumulator.remove(piece, sq);
+   }
+
+   /**
+    **   Moves a piece from one square to another, taking whatever was sitting
+    **   on the destination.
+    **   @param from the square the piece is on
+    **   @param to the square it's going to
+    **/
+   public void movePiece(int from, int to) {
+      int piece = board[from];
+      if (piece == EMPTY) return;
+      removePiece(to);
+      long bits = (1L << from) | (1L << to);
+      pieces[piece] ^= bits;
+      occupancy[piece / 6] ^= bits;
+      occupied ^= bits;
+      board[from] = EMPTY;
+      board[to] = piece;
+      hash ^= Zobrist.PIECE[piece][from] ^ Zobrist.PIECE[piece][to];
+      if (piece % 6 == PAWN)
+         pawnHash ^= Zobrist.PIECE[piece][from] ^ Zobrist.PIECE[piece][to];
+      middlegameScore += Evaluator.MIDDLEGAME[piece][to]
+                         - Evaluator.MIDDLEGAME[piece][from];
+      endgameScore += Evaluator.ENDGAME[piece][to]
+                      - Evaluator.ENDGAME[piece][from];
+      if (accumulator != null) accumulator.move(piece, from, to);
+   }
+
+   /**
+    **   Plays a move for the side to move, updating the castling rights, en
+    **   passant square and move counters along with the pieces. It can be
+    **   taken back with `unmakeMove()`.
+    **   @param move the `Move`-encoded move
+    **   @throws IllegalStateException if the undo stack is full
+    **/
+   public void makeMove(int move) {
+      int from = Move.from(move);
+      int to = Move.to(move);
+      int flags = Move.flags(move);
+      int team = sideToMove;
+      boolean pawnMove = (board[from] == team * 6 + PAWN);
+
+      if (historySize == MAX_HISTORY)
+         throw new IllegalStateException("Undo stack full");
+      undoState[historySize] = (board[to] + 1) | (castlingRights << 4)
+                               | ((epSquare + 1) << 8) | (halfmoveClock << 15);
+      undoHash[historySize++] = hash;
+
+      if (Move.isCapture(move) || pawnMove) halfmoveClock = 0;
+      else halfmoveClock++;
+
+      // an en passant capture takes a pawn that isn't on the to square
+      if (flags == Move.EP_CAPTURE)
+         removePiece((team == WHITE) ? to - 8 : to + 8);
+      movePiece(from, to);
+      if (Move.isPromotion(move)) {
+         removePiece(to);
+         addPiece(team, Move.promotionType(move), to);
+      }
+      // castling also moves the rook, which is on the same rank as the king
+      if (flags == Move.KING_CASTLE) movePiece(to + 1, to - 1);
+      else if (flags == Move.QUEEN_CASTLE) movePiece(to - 2, to + 1);
+
+      // anything leaving or landing on a king or rook home square loses
+      // the rights that go with it
+      setCastlingRights(castlingRights & CASTLING_MASK[from]
+                        & CASTLING_MASK[to]);
+      // the en passant square only gets set if an enemy pawn could actually
+      // take there, so the same position always gets the same key
+      int ep = NO_SQUARE;
+      if ((flags == Move.DOUBLE_PUSH)
+          && ((Attacks.pawn(team, (from + to) >>> 1)
+               & pieces[(team ^ 1) * 6 + PAWN]) != 0))
+         ep = (from + to) >>> 1;
+      setEpSquare(ep);
+
+      if (team == BLACK) fullmoveNumber++;
+      sideToMove = team ^ 1;
+      hash ^= Zobrist.SIDE;
+   }
+
+   /**
+    **   Takes back the last move made with `makeMove()`.
+    **   @param move the same move that was passed to `makeMove()`
+    **/
+   public void unmakeMove(int move) {
+      int from = Move.from(move);
+      int to = Move.to(move);
+      int flags = Move.flags(move);
+      int team = sideToMove ^ 1;
+      int state = undoState[--historySize];
+
+      if (flags == Move.KING_CASTLE) movePiece(to - 1, to + 1);
+      else if (flags == Move.QUEEN_CASTLE) movePiece(to + 1, to - 2);
+      if (Move.isPromotion(move)) {
+         removePiece(to);
+         addPiece(team, PAWN, to);
+      }
+      movePiece(to, from);
+      int captured = (state & 0xF) - 1;
+      if (flags == Move.EP_CAPTURE)
+         addPiece(team ^ 1, PAWN, (team == WHITE) ? to - 8 : to + 8);
+      else if (captured != EMPTY)
+         addPiece(captured / 6, captured % 6, to);
+
+      castlingRights = (state >>> 4) & 0xF;
+      epSquare = ((state >>> 8) & 0x7F) - 1;
+      halfmoveClock = state >>> 15;
+      if (team == BLACK) fullmoveNumber--;
+      sideToMove = team;
+      hash = undoHash[historySize];
+   }
+
+   /**
+    **   Determines whether this position has come up before since the last
+    **   capture or pawn move (which nothing can repeat across), with the
+    **   same side to move.
+    **   @return a boolean value
+    **/
+   public boolean isRepetition() {
+      int earliest = Math.max(0, historySize - halfmoveClock);
+      for (int i = historySize - 2; i >= earliest; i -= 2)
+         if (undoHash[i] == hash) return true;
+      return false;
+   }
+
+   /**
+    **   Counts how many times this position has come up before since the
+    **   last capture or pawn move, with the same side to move. Twice before
+    **   makes it a threefold repetition.
+    **   @return the number of earlier occurrences
+    **/
+   public int repetitions() {
+      int count = 0;
+      int earliest = Math.max(0, historySize - halfmoveClock);
+      for (int i = historySize - 2; i >= earliest; i -= 2)
+         if (undoHash[i] == hash) count++;
+      return count;
+   }
+
+   /**
+    **   Gets the number of moves on the undo stack.
+    **   @return the number of moves
+    **/
+   public int getHistorySize() {
+      return historySize;
+   }
+
+   /**
+    **   Gets the bitboard of a particular type of piece.
+    **   @param team the team of the pieces
+    **   @param type the type of the pieces
+    **   @return the bitboard
+    **/
+   public long getPieces(int team, int type) {
+      return pieces[team * 6 + type];
+   }
+
+   /**
+    **   Gets the bitboard of every square a team has a piece on.
+    **   @param team the team
+    **   @return the bitboard
+    **/
+   public long getOccupancy(int team) {
+      return occupancy[team];
+   }
+
+   /**
+    **   Gets the bitboard of every occupied square.
+    **   @return the bitboard
+    **/
+   public long getOccupied() {
+      return occupied;
+   }
+
+   /**
+    **   Gets the piece on a square, as `team * 6 + type`.
+    **   @param sq the square
+    **   @return the piece code, or EMPTY
+    **/
+   public int pieceAt(int sq) {
+      return board[sq];
+   }
+
+   /**
+    **   Gets the team of the piece on a square.
+    **   @param sq the square
+    **   @return the team, or EMPTY
+    **/
+   public int teamAt(int sq) {
+      return (board[sq] == EMPTY) ? EMPTY : board[sq] / 6;
+   }
+
+   /**
+    **   Gets the type of the piece on a square.
+    **   @param sq the square
+    **   @return the type, or EMPTY
+    **/
+   public int typeAt(int sq) {
+      return (board[sq] == EMPTY) ? EMPTY : board[sq] % 6;
+   }
+
+   /**
+    **   Gets the square a team's king is on.
+    **   @param team the team
+    **   @return the square
+    **/
+   public int kingSquare(int team) {
+      return Long.numberOfTrailingZeros(pieces[team * 6 + KING]);
+   }
+
+   /**
+    **   Determines whether the side to move is in check.
+    **   @return a boolean value
+    **/
+   public boolean inCheck() {
+      return MoveGenerator.isAttacked(this, kingSquare(sideToMove),
+                                      sideToMove ^ 1);
+   }
+
+   /**
+    **   Gets the team whose turn it is.
+    **   @return WHITE or BLACK
+    **/
+   public int getSideToMove() {
+      return sideToMove;
+   }
+
+   /**
+    **   Sets the team whose turn it is.
+    **   @param team WHITE or BLACK
+    **/
+   public void setSideToMove(int team) {
+      if (team != sideToMove) hash ^= Zobrist.SIDE;
+      sideToMove = team;
+   }
+
+   /**
+    **   Gets the castling rights still available.
+    **   @return the rights, as bit flags
+    **/
+   public int getCastlingRights() {
+      return castlingRights;
+   }
+
+   /**
+    **   Sets the castling rights still available.
+    **   @param rights the rights, as bit flags
+    **/
+   public void setCastlingRights(int rights) {
+      hash ^= Zobrist.CASTLING[castlingRights] ^ Zobrist.CASTLING[rights];
+      castlingRights = rights;
+   }
+
+   /**
+    **   Gets the square a pawn can be taken en passant on.
+    **   @return the square, or NO_SQUARE
+    **/
+   public int getEpSquare() {
+      return epSquare;
+   }
+
+   /**
+    **   Sets the square a pawn can be taken en passant on.
+    **   @param sq the square, or NO_SQUARE
+    **/
+   public void setEpSquare(int sq) {
+      if (epSquare != NO_SQUARE) hash ^= Zobrist.EP_FILE[epSquare & 7];
+      if (sq != NO_SQUARE) hash ^= Zobrist.EP_FILE[sq & 7];
+      epSquare = sq;
+   }
+
+   /**
+    **   Gets the Zobrist key of this position, which covers the pieces, the
+    **   side to move, the castling rights and the en passant file.
+    **   @return the key
+    **/
+   public long getHash() {
+      return hash;
+   }
+
+   /**
+    **   Gets the Zobrist key of just the pawns on the board.
+    **   @return the key
+    **/
+   public long getPawnHash() {
+      return pawnHash;
+   }
+
+   /**
+    **   Works the Zobrist key out from scratch. `getHash()` should always
+    **   give the same answer, much more cheaply.
+    **   @return the key
+    **/
+   public long computeHash() {
+      long key = 0L;
+      for (int sq = 0; sq < 64; sq++)
+         if (board[sq] != EMPTY) key ^= Zobrist.PIECE[board[sq]][sq];
+      if (sideToMove == BLACK) key ^= Zobrist.SIDE;
+      key ^= Zobrist.CASTLING[castlingRights];
+      if (epSquare != NO_SQUARE) key ^= Zobrist.EP_FILE[epSquare & 7];
+      return key;
+   }
+
+   /**
+    **   Gets the material and piece-square total for the middlegame.
+    **   @return White's total less Black's, in centipawns
+    **/
+   public int getMiddlegameScore() {
+      return middlegameScore;
+   }
+
+   /**
+    **   Gets the material and piece-square total for the endgame.
+    **   @return White's total less Black's, in centipawns
+    **/
+   public int getEndgameScore() {
+      return endgameScore;
+   }
+
+   /**
+    **   Gets how far from the endgame the position is, by the pieces (bar
+    **   pawns and kings) left on the board.
+    **   @return the phase, `Evaluator.MAX_PHASE` at the start and 0 with
+    **           just kings and pawns
+    **/
+   public int getPhase() {
+      return phase;
+   }
+
+   /**
+    **   Gives this position an accumulator to keep up to date as pieces
+    **   move, working it out for the pieces already on the board. The
+    **   accumulator isn't copied by `copyFrom()`; each position keeps its
+    **   own.
+    **   @param accumulator the accumulator, or null to stop keeping one
+    **/
+   public void setAccumulator(Accumulator accumulator) {
+      this.accumulator = accumulator;
+      if (accumulator != null) accumulator.refresh(this);
+   }
+
+   /**
+    **   Gets the accumulator this position keeps up to date.
+    **   @return the accumulator, or null if it hasn't been given one
+    **/
+   public Accumulator getAccumulator() {
+      return accumulator;
+   }
+
+   /**
+    **   Gets the number of halfmoves since the last capture or pawn move.
+    **   @return the halfmove clock
+    **/
+   public int getHalfmoveClock() {
+      return halfmoveClock;
+   }
+
+   /**
+    **   Sets the number of halfmoves since the last capture or pawn move.
+    **   @param clock the halfmove clock
+    **/
+   public void setHalfmoveClock(int clock) {
+      halfmoveClock = clock;
+   }
+
+   /**
+    **   Gets the fullmove number, which starts at 1 and goes up after Black
+    **   moves.
+    **   @return the fullmove number
+    **/
+   public int getFullmoveNumber() {
+      return fullmoveNumber;
+   }
+
+   /**
+    **   Sets the fullmove number.
+    **   @param number the fullmove number
+    **/
+   public void setFullmoveNumber(int number) {
+      fullmoveNumber = number;
+   }
+
+   /**
+    **   Converts `ChessBoard` coords (x is the file, y is the rank counting
+    **   down from Black's back rank) into a square number.
+    **   @param x the x-coord
+    **   @param y the y-coord
+    **   @return the square
+    **/
+   public static int square(int x, int y) {
+      return ((7 - y) << 3) | x;
+   }
+
+   /**
+    **   Gets the `ChessBoard` x-coord of a square.
+    **   @param sq the square
+    **   @return the x-coord
+    **/
+   public static int getX(int sq) {
+      return sq & 7;
+   }
+
+   /**
+    **   Gets the `ChessBoard` y-coord of a square.
+    **   @param sq the square
+    **   @return the y-coord
+    **/
+   public static int getY(int sq) {
+      return 7 - (sq >>> 3);
+   }
+}
@@ -0,0 +1,470 @@
+/******************************************************************************
+ *                             ChessSim 0.9                                   *
+ *                  Copyright © 2015 Ben Goldsworthy (rumperuu)               *
+ *                                                                            *
+ * A program to simulate a game of chess between two human players.           *
+ *                                                                            *
+ * This file is part of ChessSim.                                             *
+ *                                                                            *
+ * ChessSim is free software: you can redistribute it and/or modify           *
+ * it under the terms of the GNU General Public License as published by       *
+ * the Free Software Foundation, either version 3 of the License, or          *
+ * (at your option) any later version.                                        *
+ *                                                                            *
+ * ChessSim is distributed in the hope that it will be useful,                *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of             *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the              *
+ * GNU General Public License for more details.                               *
+ *                                                                            *
+ * You should have received a copy of the GNU General Public License          *
+ * along with ChessSim.  If not, see <http://www.gnu.org/licenses/>.          *
+ ******************************************************************************/
+
+/**
+ ** This class finds every game in a PGN file that reached a given position,
+ ** utilised in the ChessSim program. It works from an index file holding
+ ** one entry per position per game: the position's Zobrist key and where
+ ** the game starts in the PGN file, sorted by key. The file is
+ ** memory-mapped, and every `FENCE_STRIDE`th key is kept in memory as a
+ ** "fence", so a look-up is a binary search of the fences followed by one
+ ** of a single block of the file.
+ **
+ ** The index is built like an external sort. The games are read on every
+ ** core, and each thread fills a buffer of entries, sorts it and writes it
+ ** out as a run; the runs are then merged, `MERGE_WAYS` at a time (in
+ ** parallel, if there are enough of them), until one is left.
+ **/
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.stream.IntStream;
+
+/**
+ **   @author  Ben Goldsworthy (rumperuu) <me+chesssim@bengoldsworthy.net>
+ **   @version 0.92
+ **/
+public class PositionIndex {
+   // the file starts with the magic number, the number of entries and the
+   // number of fences, then has the entries (a key and a game offset each,
+   // big-endian), then the fences
+   public static final long MAGIC = 0x4353504F53494458L;
+   public static final int HEADER_BYTES = 24;
+   public static final int ENTRY_BYTES = 16;
+   public static final int FENCE_STRIDE = 4096;
+   // how many entries each thread sorts in memory before writing a run
+   // (16 MB), and how many runs are merged at once
+   public static final int RUN_ENTRIES = 1 << 20;
+   public static final int MERGE_WAYS = 64;
+   // each mapping holds 2^26 entries (1 GB), so the index isn't limited to
+   // what one buffer can address
+   private static final int SEGMENT_SHIFT = 26;
+   private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+   private static final int IO_BYTES = 1 << 20;
+   private static final int INSERTION_SORT_ENTRIES = 16;
+
+   private final long size;
+   private final long[] fences;
+   private final MappedByteBuffer[] segments;
+
+   /**
+    **   Constructor function. Opens an index built by `build()`.
+    **   @param file the index file
+    **   @throws IOException if the file can't be read, or isn't an index
+    **/
+   public PositionIndex(Path file) throws IOException {
+      try (FileChannel channel = FileChannel.open(file,
+                                                  StandardOpenOption.READ)) {
+         ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+         readFully(channel, header, 0);
+         if (header.getLong(0) != MAGIC)
+            throw new IOException("Not a position index: " + file);
+         size = header.getLong(8);
+         int fenceCount = (int) header.getLong(16);
+         long fenceStart = HEADER_BYTES + size * ENTRY_BYTES;
+         if (channel.size() != fenceStart + (long) fenceCount * 8)
+            throw new IOException("Truncated position index: " + file);
+
+         ByteBuffer fenceBytes = ByteBuffer.allocate(fenceCount * 8);
+         readFully(channel, fenceBytes, fenceStart);
+         fences = new long[fenceCount];
+         fenceBytes.asLongBuffer().get(fences);
+
+         segments = new MappedByteBuffer[(int) ((size + SEGMENT_MASK)
+                                                >>> SEGMENT_SHIFT)];
+         for (int i = 0; i < segments.length; i++) {
+            long first = (long) i << SEGMENT_SHIFT;
+            long entries = Math.min(size - first, 1L << SEGMENT_SHIFT);
+            segments[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+                                      HEADER_BYTES + first * ENTRY_BYTES,
+                                      entries * ENTRY_BYTES);
+         }
+      }
+   }
+
+   /**
+    **   Gets the number of entries in the index.
+    **   @return the number of (position, game) pairs
+    **/
+   public long size() {
+      return size;
+   }
+
+   /**
+    **   Finds the games that reached a position.
+    **   @param pos the position
+    **   @return where each game starts in the PGN file, in order
+    **/
+   public long[] find(Position pos) {
+      return find(pos.getHash());
+   }
+
+   /**
+    **   Finds the games that reached a position.
+    **   @param key the position's Zobrist key
+    **   @return where each game starts in the PGN file, in order
+    **/
+   public long[] find(long key) {
+      // the first fence at or past the key bounds where its entries start
+      // from above, and the one before it bounds it from below
+      int fence = Arrays.binarySearch(fences, key);
+      if (fence < 0) fence = -fence - 1;
+      else while (fence > 0 && fences[fence - 1] == key) fence--;
+      long low = (fence == 0) ? 0 : (long) (fence - 1) * FENCE_STRIDE;
+      long high = (fence == fences.length) ? size
+                                           : (long) fence * FENCE_STRIDE;
+      while (low < high) {
+         long middle = (low + high) >>> 1;
+         if (keyAt(middle) < key) low = middle + 1;
+         else high = middle;
+      }
+
+      long[] games = new long[16];
+      int count = 0;
+      for (long i = low; i < size && keyAt(i) == key; i++) {
+         if (count == games.length) games = Arrays.copyOf(games, count * 2);
+         games[count++] = gameAt(i);
+      }
+      return Arrays.copyOf(games, count);
+   }
+
+   /**
+    **   Builds an index of every position in every game of a PGN file.
+    **   Temporary run files are written next to the index, and deleted
+    **   afterwards.
+    **   @param pgn the PGN file
+    **   @param index the index file to write
+    **   @return the number of entries written
+    **   @throws IOException if either file can't be read or written
+    **/
+   public static long build(Path pgn, Path index) throws IOException {
+      Path directory = index.toAbsolutePath().getParent();
+      List<Path> runs = Collections.synchronizedList(new ArrayList<>());
+      List<RunBuffer> buffers = Collections.synchronizedList(
+                                   new ArrayList<>());
+      ThreadLocal<RunBuffer> buffer = ThreadLocal.withInitial(() -> {
+         RunBuffer created = new RunBuffer(directory, runs);
+         buffers.add(created);
+         return created;
+      });
+      try {
+         new PgnReader(pgn).parallelForEach(game -> buffer.get().add(game));
+         buffers.parallelStream().forEach(RunBuffer::flush);
+
+         List<Path> remaining = new ArrayList<>(runs);
+         while (remaining.size() > MERGE_WAYS) {
+            List<List<Path>> groups = new ArrayList<>();
+            for (int i = 0; i < remaining.size(); i += MERGE_WAYS)
+               groups.add(remaining.subList(i, Math.min(remaining.size(),
+                                                        i + MERGE_WAYS)));
+            Path[] merged = new Path[groups.size()];
+            IntStream.range(0, groups.size()).parallel().forEach(i -> {
+               try {
+                  merged[i] = Files.createTempFile(directory, "index", ".run");
+                  runs.add(merged[i]);
+                  merge(groups.get(i), merged[i], false);
+               } catch (IOException e) {
+                  throw new UncheckedIOException(e);
+               }
+            });
+            remaining = new ArrayList<>(Arrays.asList(merged));
+         }
+         return merge(remaining, index, true);
+      } catch (UncheckedIOException e) {
+         throw e.getCause();
+      } finally {
+         for (Path run : runs) Files.deleteIfExists(run);
+      }
+   }
+
+   /*
+    * Gets the key of one entry.
+    */
+   private long keyAt(long entry) {
+      return segments[(int) (entry >>> SEGMENT_SHIFT)]
+             .getLong((int) (entry & SEGMENT_MASK) * ENTRY_BYTES);
+   }
+
+   /*
+    * Gets the game offset of one entry.
+    */
+   private long gameAt(long entry) {
+      return segments[(int) (entry >>> SEGMENT_SHIFT)]
+             .getLong((int) (entry & SEGMENT_MASK) * ENTRY_BYTES + 8);
+   }
+
+   /*
+    * Merges sorted runs into one. The final index also gets its header and
+    * fences; an intermediate run is just entries. Returns the number of
+    * entries.
+    */
+   private static long merge(List<Path> inputs, Path output, boolean index)
+   throws IOException {
+      PriorityQueue<RunReader> queue = new PriorityQueue<>(
+         Math.max(1, inputs.size()),
+         (a, b) -> compare(a.key, a.game, b.key, b.game));
+      List<RunReader> readers = new ArrayList<>();
+      try (FileChannel out = FileChannel.open(
+              output, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+              StandardOpenOption.TRUNCATE_EXISTING)) {
+         for (Path input : inputs) {
+            RunReader reader = new RunReader(input);
+            readers.add(reader);
+            if (reader.next()) queue.add(reader);
+         }
+         ByteBuffer buffer = ByteBuffer.allocate(IO_BYTES);
+         long position = index ? HEADER_BYTES : 0, count = 0;
+         long[] fences = new long[64];
+         int fenceCount = 0;
+         while (!queue.isEmpty()) {
+            RunReader reader = queue.poll();
+            if (index && count % FENCE_STRIDE == 0) {
+               if (fenceCount == fences.length)
+                  fences = Arrays.copyOf(fences, fenceCount * 2);
+               fences[fenceCount++] = reader.key;
+            }
+            if (!buffer.hasRemaining())
+               position += writeFully(out, buffer, position);
+            buffer.putLong(reader.key).putLong(reader.game);
+            count++;
+            if (reader.next()) queue.add(reader);
+         }
+         if (index) {
+            for (int i = 0; i < fenceCount; i++) {
+               if (!buffer.hasRemaining())
+                  position += writeFully(out, buffer, position);
+               buffer.putLong(fences[i]);
+            }
+            writeFully(out, buffer, position);
+            buffer.putLong(MAGIC).putLong(count).putLong(fenceCount);
+            writeFully(out, buffer, 0);
+         } else {
+            writeFully(out, buffer, position);
+         }
+         return count;
+      } finally {
+         for (RunReader reader : readers) reader.close();
+      }
+   }
+
+   /*
+    * Compares two entries, by key and then by game.
+    */
+   private static int compare(long keyA, long gameA, long keyB, long gameB) {
+      int byKey = Long.compare(keyA, keyB);
+      return (byKey != 0) ? byKey : Long.compare(gameA, gameB);
+   }
+
+   /*
+    * Sorts entries held as pairs of longs (key, game), from entry `low` up
+    * to but not including entry `high`, by quicksort.
+    */
+   private static void sort(long[] entries, int low, int high) {
+      while (high - low > INSERTION_SORT_ENTRIES) {
+         int middle = (low + high) >>> 1;
+         if (less(entries, middle, low)) swap(entries, middle, low);
+         if (less(entries, high - 1, low)) swap(entries, high - 1, low);
+         if (less(entries, high - 1, middle)) swap(entries, high - 1, middle);
+         long pivotKey = entries[2 * middle];
+         long pivotGame = entries[2 * middle + 1];
+         int i = low, j = high - 1;
+         while (i <= j) {
+            while (compare(entries[2 * i], entries[2 * i + 1], pivotKey,
+                           pivotGame) < 0)
+               i++;
+            while (compare(entries[2 * j], entries[2 * j + 1], pivotKey,
+                           pivotGame) > 0)
+               j--;
+            if (i <= j) swap(entries, i++, j--);
+         }
+         // recurse into the smaller side and loop on the bigger one, so the
+         // stack stays shallow
+         if (j + 1 - low < high - i) {
+            sort(entries, low, j + 1);
+            low = i;
+         } else {
+            sort(entries, i, high);
+            high = j + 1;
+         }
+      }
+      for (int i = low + 1; i < high; i++)
+         for (int j = i; j > low && less(entries, j, j - 1); j--)
+            swap(entries, j, j - 1);
+   }
+
+   private static boolean less(long[] entries, int a, int b) {
+      return compare(entries[2 * a], entries[2 * a + 1], entries[2 * b],
+                     entries[2 * b + 1]) < 0;
+   }
+
+   private static void swap(long[] entries, int a, int b) {
+      long key = entries[2 * a], game = entries[2 * a + 1];
+      entries[2 * a] = entries[2 * b];
+      entries[2 * a + 1] = entries[2 * b + 1];
+      entries[2 * b] = key;
+      entries[2 * b + 1] = game;
+   }
+
+   private static void readFully(FileChannel channel, ByteBuffer buffer,
+                                 long position) throws IOException {
+      while (buffer.hasRemaining()) {
+         int read = channel.read(buffer, position);
+         if (read < 0) throw new IOException("Unexpected end of file");
+         position += read;
+      }
+      buffer.flip();
+   }
+
+   /*
+    * Writes out what's in the buffer at the given position, and empties
+    * it. Returns the number of bytes written.
+    */
+   private static int writeFully(FileChannel channel, ByteBuffer buffer,
+                                 long position) throws IOException {
+      buffer.flip();
+      int bytes = buffer.remaining();
+      while (buffer.hasRemaining())
+         position += channel.write(buffer, position);
+      buffer.clear();
+      return bytes;
+   }
+
+   /*
+    * One thread's entries waiting to be sorted and written out as a run,
+    * along with the position it replays games on.
+    */
+   private static class RunBuffer {
+      private final Path directory;
+      private final List<Path> runs;
+      private final long[] entries = new long[2 * RUN_ENTRIES];
+      private final Position board = new Position();
+      private long[] keys = new long[256];
+      private int count;
+
+      RunBuffer(Path directory, List<Path> runs) {
+         this.directory = directory;
+         this.runs = runs;
+      }
+
+      /*
+       * Adds an entry for each different position the game reached. The
+       * moves of a game that wasn't read all the way through are still
+       * indexed as far as they go.
+       */
+      void add(PgnGame game) {
+         try {
+            game.startPosition(board);
+         } catch (IllegalArgumentException e) {
+            return;
+         }
+         int plies = game.getMoveCount();
+         if (keys.length <= plies) keys = new long[2 * (plies + 1)];
+         keys[0] = board.getHash();
+         for (int i = 0; i < plies; i++) {
+            board.makeMove(game.getMove(i));
+            keys[i + 1] = board.getHash();
+         }
+         Arrays.sort(keys, 0, plies + 1);
+         if (count + plies + 1 > RUN_ENTRIES) flush();
+         for (int i = 0; i <= plies; i++) {
+            if (i > 0 && keys[i] == keys[i - 1]) continue;
+            entries[2 * count] = keys[i];
+            entries[2 * count + 1] = game.getOffset();
+            count++;
+         }
+      }
+
+      /*
+       * Sorts the entries and writes them out as a new run.
+       */
+      void flush() {
+         if (count == 0) return;
+         sort(entries, 0, count);
+         try {
+            Path run = Files.createTempFile(directory, "index", ".run");
+            runs.add(run);
+            try (FileChannel out = FileChannel.open(
+                    run, StandardOpenOption.WRITE)) {
+               ByteBuffer buffer = ByteBuffer.allocate(IO_BYTES);
+               long position = 0;
+               for (int i = 0; i < 2 * count; i++) {
+                  if (!buffer.hasRemaining())
+                     position += writeFully(out, buffer, position);
+                  buffer.putLong(entries[i]);
+               }
+               writeFully(out, buffer, position);
+            }
+         } catch (IOException e) {
+            throw new UncheckedIOException(e);
+         }
+         count = 0;
+      }
+   }
+
+   /*
+    * Reads the entries of a run back in order.
+    */
+   private static class RunReader {
+      private final FileChannel channel;
+      private final ByteBuffer buffer = ByteBuffer.allocate(IO_BYTES);
+      private long position;
+      long key, game;
+
+      RunReader(Path run) throws IOException {
+         channel = FileChannel.open(run, StandardOpenOption.READ);
+         buffer.limit(0);
+      }
+
+      /*
+       * Moves on to the next entry, returning false at the end of the run.
+       */
+      boolean next() throws IOException {
+         if (buffer.remaining() < ENTRY_BYTES) {
+            buffer.compact();
+            int read;
+            while (buffer.position() < ENTRY_BYTES
+                   && (read = channel.read(buffer, position)) > 0)
+               position += read;
+            buffer.flip();
+            if (buffer.remaining() < ENTRY_BYTES) return false;
+         }
+         key = buffer.getLong();
+         game = buffer.getLong();
+         return true;
+      }
+
+      void close() throws IOException {
+         channel.close();
+      }
+   }
+}
@@ -0,0 +1,706 @@
+/******************************************************************************
+ *                             ChessSim 0.9                                   *
+ *                  Copyright © 2015 Ben Goldsworthy (rumperuu)               *
+ *                                                                            *
+ * A program to simulate a game of chess between two human players.           *
+ *                                                                            *
+ * This file is part of ChessSim.                                             *
+ *                                                                            *
+ * ChessSim is free software: you can redistribute it and/or modify           *
+ * it under the terms of the GNU General Public License as published by       *
+ * the Free Software Foundation, either version 3 of the License, or          *
+ * (at your option) any later version.                                        *
+ *                                                                            *
+ * ChessSim is distributed in the hope that it will be useful,                *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of             *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the              *
+ * GNU General Public License for more details.                               *
+ *                                                                            *
+ * You should have received a copy of the GNU General Public License          *
+ * along with ChessSim.  If not, see <http://www.gnu.org/licenses/>.          *
+ ******************************************************************************/
+
+/**
+ ** This class picks a move for the computer to play, utilised in the
+ ** ChessSim program. It searches the game tree by alpha-beta: each iteration
+ ** goes a ply deeper than the last, with the first move at each node
+ ** searched properly and the rest only checked, with a null window, to make
+ ** sure they're no better ("principal variation search"). At the leaves it
+ ** carries on through the captures ("quiescence search"), so it never judges
+ ** a position halfway through an exchange. Captures are tried best victim
+ ** first, then the quiet moves that caused cutoffs at the same ply
+ ** ("killers"), then the rest in order of how often they've caused cutoffs
+ ** anywhere ("history"). Ahead of all of those goes the best move from the
+ ** last time the position was seen, out of the `TranspositionTable`, which
+ ** can also cut a search short if it went deep enough. Positions in the
+ ** `Tablebase`, if it has one, aren't searched at all, and at the root the
+ ** tablebase picks the move. Leaves are scored by the `Evaluator`, or by a
+ ** `Network` if it's been given one.
+ **
+ ** A search stops when it runs out of depth, nodes or time, or when `stop()`
+ ** is called from another thread. It only ever plays a move from an
+ ** iteration it finished, or a root move it finished searching, so stopping
+ ** it early costs depth rather than correctness.
+ **/
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ **   @author  Ben Goldsworthy (rumperuu) <me+chesssim@bengoldsworthy.net>
+ **   @version 0.92
+ **/
+public class Search {
+   public static final int MAX_PLY = 128;
+   public static final int INFINITY = 32000;
+   // a mate is scored as this less the plies it takes, so any score beyond
+   // `MATE_BOUND` is a forced mate
+   public static final int MATE = 30000;
+   public static final int MATE_BOUND = MATE - MAX_PLY;
+   // a win the tablebase knows about is scored as this less the ply it's
+   // found at: below any mate, but above anything the evaluator gives
+   public static final int TABLEBASE_WIN = MATE_BOUND - 1;
+
+   // how often (in nodes) the clock and the stop flag are looked at
+   private static final int CHECK_MASK = 255;
+   // the move ordering bands, from first tried to last
+   private static final int PV_SCORE = 1 << 30;
+   private static final int HASH_SCORE = PV_SCORE - 1;
+   private static final int CAPTURE_SCORE = 1 << 28;
+   private static final int KILLER_SCORE = 1 << 26;
+   private static final int HISTORY_MAX = 1 << 24;
+   private static final int UNDERPROMOTION_SCORE = -1;
+   // which iterations a helper thread skips, so that the threads sharing a
+   // table spread out over different depths: helper `i` works in blocks of
+   // `SKIP_SIZE[i]` depths, skipping every other block, starting
+   // `SKIP_PHASE[i]` depths in
+   private static final int[] SKIP_SIZE = {1, 1, 2, 2, 2, 2, 3, 3, 3, 3, 3, 3,
+                                           4, 4, 4, 4, 4, 4, 4, 4};
+   private static final int[] SKIP_PHASE = {0, 1, 0, 1, 2, 3, 0, 1, 2, 3, 4,
+                                            5, 0, 1, 2, 3, 4, 5, 6, 7};
+
+   private final ChessLogic logic = new ChessLogic();
+   private final Evaluator evaluator = new Evaluator();
+   private final TranspositionTable table;
+   private Tablebase tablebase;
+   // kept up to date by `position` when there's a network
+   private Accumulator accumulator;
+   // the position that gets moves made and unmade on it, and the buffers for
+   // each ply, so searching doesn't allocate
+   private final Position position = new Position();
+   private final int[][] moves = new int[MAX_PLY + 1][MoveGenerator.MAX_MOVES];
+   private final int[][] scores = new int[MAX_PLY + 1][MoveGenerator.MAX_MOVES];
+   private final int[][] killers = new int[MAX_PLY + 1][2];
+   // indexed by side and `from * 64 + to`
+   private final int[][] history = new int[2][64 * 64];
+   // the "triangular" principal variation table: row `ply` holds the best
+   // line found from that ply on
+   private final int[][] pv = new int[MAX_PLY + 1][MAX_PLY + 1];
+   private final int[] pvLength = new int[MAX_PLY + 1];
+   private final int[] bestPv = new int[MAX_PLY + 1];
+   private int bestPvLength;
+   private boolean followPv;
+   private int helperIndex;
+
+   // each search gets a token from `clearStop()`, and a stop is for every
+   // search whose token is no newer than the stop's, so a stop that comes
+   // in late can't cut short a search started after it
+   private volatile long latestToken;
+   private final AtomicLong stoppedToken = new AtomicLong(-1);
+   private long searchToken;
+   private boolean aborted;
+   private SearchListener listener;
+   private long nodes, nodeLimit, tablebaseHits;
+   // the end time is 0 while the search is running
+   private long startTime, endTime, deadline;
+   private int bestMove, bestScore, depthReached;
+   private int rootMove, rootScore;
+
+   /**
+    **   Creates a search with a transposition table of its own, of the
+    **   default size.
+    **/
+   public Search() {
+      this(new TranspositionTable());
+   }
+
+   /**
+    **   Creates a search using the given transposition table, which it may
+    **   share with other searches.
+    **   @param table the table
+    **/
+   public Search(TranspositionTable table) {
+      this.table = table;
+   }
+
+   /**
+    **   Gets the transposition table this search uses.
+    **   @return the table
+    **/
+   public TranspositionTable getTable() {
+      return table;
+   }
+
+   /**
+    **   Gets the evaluator this search uses, which has its pawn table.
+    **   @return the evaluator
+    **/
+   public Evaluator getEvaluator() {
+      return evaluator;
+   }
+
+   /**
+    **   Makes this search one of the helper threads of a `ParallelSearch`,
+    **   which skips some iterations so as not to search exactly what the
+    **   other threads are searching.
+    **   @param index the helper's number, from 1, or 0 for a normal search
+    **/
+   public void setHelperIndex(int index) {
+      helperIndex = index;
+   }
+
+   /**
+    **   Sets the tablebase to probe. It's probed from whichever thread is
+    **   searching, and may be shared with other searches.
+    **   @param tablebase the tablebase, or null for none
+    **/
+   public void setTablebase(Tablebase tablebase) {
+      this.tablebase = tablebase;
+   }
+
+   /**
+    **   Sets the network to score positions with instead of the evaluator.
+    **   It may be shared with other searches.
+    **   @param network the network, or null for the evaluator
+    **   @throws IllegalStateException if Java wasn't started with the
+    **           vector module the network needs
+    **/
+   public void setNetwork(Network network) {
+      if (network != null && !Network.isSupported())
+         throw new IllegalStateException("Networks need --add-modules "
+                                         + Network.VECTOR_MODULE);
+      accumulator = (network == null) ? null : new Accumulator(network);
+      position.setAccumulator(accumulator);
+   }
+
+   /**
+    **   Sets who to tell when each iteration finishes.
+    **   @param listener the listener, or null for nobody
+    **/
+   public void setListener(SearchListener listener) {
+      this.listener = listener;
+   }
+
+   /**
+    **   Searches for the best move, returning when a limit is hit. It can
+    **   be stopped by `stop()`, or by `stop(token)` with the token the last
+    **   `clearStop()` gave out.
+    **   @param root the position to search, which isn't changed
+    **   @param limits how far to search
+    **   @return the best move found, or `Move.NONE` if there are no legal
+    **           moves
+    **/
+   public int search(Position root, SearchLimits limits) {
+      return search(root, limits, latestToken);
+   }
+
+   /**
+    **   Searches for the best move, returning when a limit is hit. Only a
+    **   stop for `token`, or for a later one, stops it; this is for when
+    **   the search might not start until after the next `clearStop()`.
+    **   @param root the position to search, which isn't changed
+    **   @param limits how far to search
+    **   @param token the token from `clearStop()` for this search
+    **   @return the best move found, or `Move.NONE` if there are no legal
+    **           moves
+    **/
+   public int search(Position root, SearchLimits limits, long token) {
+      searchToken = token;
+      position.copyFrom(root);
+      aborted = false;
+      nodes = 0;
+      tablebaseHits = 0;
+      evaluator.getPawnTable().resetStats();
+      nodeLimit = limits.getNodes();
+      startTime = System.nanoTime();
+      endTime = 0;
+      deadline = (limits.getMoveTime() > 0)
+                 ? startTime + limits.getMoveTime() * 1000000 : 0;
+      depthReached = 0;
+      bestScore = 0;
+      bestPvLength = 0;
+      for (int[] k : killers) k[0] = k[1] = Move.NONE;
+      for (int[] h : history) Arrays.fill(h, 0);
+      table.newSearch();
+
+      // whatever happens, there's a legal move to fall back on
+      if (logic.generateLegal(position, moves[0], 0) == 0) {
+         bestMove = Move.NONE;
+         endTime = System.nanoTime();
+         return bestMove;
+      }
+      bestMove = moves[0][0];
+      if (tablebase != null && probeRoot()) {
+         endTime = System.nanoTime();
+         return bestMove;
+      }
+
+      int maxDepth = (limits.getDepth() > 0)
+                     ? Math.min(limits.getDepth(), MAX_PLY) : MAX_PLY;
+      for (int depth = 1; depth <= maxDepth; depth++) {
+         if (skipDepth(depth)) continue;
+         followPv = true;
+         rootMove = Move.NONE;
+         int score = alphaBeta(depth, -INFINITY, INFINITY, 0);
+         // a root move that was searched all the way is good to play even
+         // if the iteration wasn't finished, since it beat the last
+         // iteration's best move (which is always tried first)
+         if (rootMove != Move.NONE) {
+            bestMove = rootMove;
+            bestScore = rootScore;
+            bestPvLength = pvLength[0];
+            System.arraycopy(pv[0], 0, bestPv, 0, bestPvLength);
+         }
+         if (aborted) break;
+         depthReached = depth;
+         if (listener != null)
+            listener.iterationDone(depth, score, nodes, getElapsed(), bestPv,
+                                   bestPvLength);
+         if (Math.abs(score) >= MATE_BOUND) break;
+         // the next iteration would take several times as long as this
+         // one, so don't start it if it'd only be cut off
+         if ((deadline != 0)
+             && (System.nanoTime() - startTime) * 2 >= deadline - startTime)
+            break;
+      }
+      endTime = System.nanoTime();
+      return bestMove;
+   }
+
+   /**
+    **   Asks the search to stop as soon as it can. Safe to call from any
+    **   thread. A search that hasn't started yet stops as soon as it does,
+    **   until `clearStop()` is called.
+    **/
+   public void stop() {
+      stop(latestToken);
+   }
+
+   /**
+    **   Asks the search with the given token, and any earlier one, to stop
+    **   as soon as it can. Safe to call from any thread. A search started
+    **   with a later token isn't affected, however late the stop comes.
+    **   @param token the token from `clearStop()`
+    **/
+   public void stop(long token) {
+      stoppedToken.accumulateAndGet(token, Math::max);
+   }
+
+   /**
+    **   Forgets any earlier `stop()`, so the next search runs. It's called
+    **   before handing the search to another thread rather than by the
+    **   search itself, so that a stop coming in between isn't lost.
+    **   @return the next search's token, for `stop(token)`
+    **/
+   public synchronized long clearStop() {
+      return ++latestToken;
+   }
+
+   /**
+    **   Gets the best move from the last search.
+    **   @return the move
+    **/
+   public int getBestMove() {
+      return bestMove;
+   }
+
+   /**
+    **   Gets the score of the best move from the last search.
+    **   @return the score in centipawns, from the side to move's point of
+    **           view
+    **/
+   public int getBestScore() {
+      return bestScore;
+   }
+
+   /**
+    **   Gets the principal variation from the last search.
+    **   @return a copy of the moves
+    **/
+   public int[] getPrincipalVariation() {
+      return Arrays.copyOf(bestPv, bestPvLength);
+   }
+
+   /**
+    **   Gets the deepest iteration the last search finished.
+    **   @return the depth in plies
+    **/
+   public int getDepthReached() {
+      return depthReached;
+   }
+
+   /**
+    **   Gets the number of positions the last search looked at, including
+    **   the quiescence search.
+    **   @return the node count
+    **/
+   public long getNodes() {
+      return nodes;
+   }
+
+   /**
+    **   Gets the number of tablebase probes that got an answer in the last
+    **   search.
+    **   @return the number of hits
+    **/
+   public long getTablebaseHits() {
+      return tablebaseHits;
+   }
+
+   /**
+    **   Gets how long the last search took, or has taken so far if it's
+    **   still running.
+    **   @return the time in milliseconds
+    **/
+   public long getElapsed() {
+      return elapsedNanos() / 1000000;
+   }
+
+   /**
+    **   Gets the speed of the last search.
+    **   @return the nodes per second
+    **/
+   public long getNodesPerSecond() {
+      long nanos = Math.max(1, elapsedNanos());
+      return (long) (nodes * 1e9 / nanos);
+   }
+
+   /**
+    **   Determines whether a score is a forced mate (for either side).
+    **   @param score the score
+    **   @return a boolean value
+    **/
+   public static boolean isMateScore(int score) {
+      return Math.abs(score) >= MATE_BOUND;
+   }
+
+   /*
+    * Gets how long the last search took, or has taken so far.
+    */
+   private long elapsedNanos() {
+      return ((endTime != 0) ? endTime : System.nanoTime()) - startTime;
+   }
+
+   /*
+    * Determines whether this search, as a helper, should skip an iteration.
+    * The first is never skipped, so every helper has a move to offer.
+    */
+   private boolean skipDepth(int depth) {
+      if (helperIndex == 0 || depth == 1) return false;
+      int i = (helperIndex - 1) % SKIP_SIZE.length;
+      return ((depth + SKIP_PHASE[i]) / SKIP_SIZE[i]) % 2 != 0;
+   }
+
+   /*
+    * Takes the root move from the tablebase, if the position's in it,
+    * returning whether it was.
+    */
+   private boolean probeRoot() {
+      if (Long.bitCount(position.getOccupied()) > tablebase.getMaxPieces())
+         return false;
+      int move = tablebase.bestMove(position);
+      if (move == Move.NONE) return false;
+      tablebaseHits++;
+      bestMove = move;
+      bestScore = tablebase.probeWdl(position) * TABLEBASE_WIN;
+      bestPv[0] = move;
+      bestPvLength = 1;
+      depthReached = 1;
+      if (listener != null)
+         listener.iterationDone(1, bestScore, nodes, getElapsed(), bestPv,
+                                bestPvLength);
+      return true;
+   }
+
+   /*
+    * Searches the current position `depth` plies deep with a window of
+    * (`alpha`, `beta`), returning its score. Once the search is aborted
+    * the scores mean nothing, and every caller just unwinds.
+    */
+   private int alphaBeta(int depth, int alpha, int beta, int ply) {
+      pvLength[ply] = ply;
+      boolean inCheck = position.inCheck();
+      // a check could be a mating attack, so is always looked at a ply
+      // further
+      if (inCheck) depth++;
+      if (depth <= 0) return quiesce(alpha, beta, ply);
+
+      if (countNode()) return 0;
+      if (ply > 0 && (position.getHalfmoveClock() >= 100
+                      || position.isRepetition()))
+         return 0;
+      if (ply >= MAX_PLY) return evaluate();
+      if (ply > 0 && tablebase != null
+          && Long.bitCount(position.getOccupied())
+             <= tablebase.getMaxPieces()) {
+         int result = tablebase.probeWdl(position);
+         if (result != Tablebase.UNKNOWN) {
+            tablebaseHits++;
+            return result * (TABLEBASE_WIN - ply);
+         }
+      }
+
+      // a deep enough stored result can stand in for searching, though not
+      // on the principal variation (a full window), where the line itself
+      // is wanted
+      final long key = position.getHash();
+      long entry = table.probe(key);
+      int hashMove = Move.NONE;
+      if (entry != 0) {
+         hashMove = TranspositionTable.move(entry);
+         if (ply > 0 && beta - alpha == 1
+             && TranspositionTable.depth(entry) >= depth) {
+            int stored = fromTable(TranspositionTable.score(entry), ply);
+            int bound = TranspositionTable.bound(entry);
+            if (bound == TranspositionTable.EXACT
+                || (bound == TranspositionTable.LOWER && stored >= beta)
+                || (bound == TranspositionTable.UPPER && stored <= alpha))
+               return stored;
+         }
+      }
+
+      int[] list = moves[ply];
+      int count = logic.generateLegal(position, list, 0);
+      if (count == 0) return inCheck ? -MATE + ply : 0;
+      scoreMoves(list, count, ply, hashMove);
+
+      final int us = position.getSideToMove();
+      final int originalAlpha = alpha;
+      int best = -INFINITY;
+      int bestHere = Move.NONE;
+      for (int i = 0; i < count; i++) {
+         int move = pickMove(list, count, i, ply);
+         position.makeMove(move);
+         int score;
+         if (i == 0) {
+            score = -alphaBeta(depth - 1, -beta, -alpha, ply + 1);
+         } else {
+            score = -alphaBeta(depth - 1, -alpha - 1, -alpha, ply + 1);
+            if (score > alpha && score < beta)
+               score = -alphaBeta(depth - 1, -beta, -alpha, ply + 1);
+         }
+         position.unmakeMove(move);
+         if (aborted) return 0;
+
+         if (score > best) {
+            best = score;
+            bestHere = move;
+            if (score > alpha) {
+               alpha = score;
+               updatePv(move, ply);
+               if (ply == 0) {
+                  rootMove = move;
+                  rootScore = score;
+               }
+               if (alpha >= beta) {
+                  if (!Move.isCapture(move) && !Move.isPromotion(move))
+                     rememberCutoff(us, move, depth, ply);
+                  break;
+               }
+            }
+         }
+      }
+
+      int bound = (best >= beta) ? TranspositionTable.LOWER
+                  : (best > originalAlpha) ? TranspositionTable.EXACT
+                  : TranspositionTable.UPPER;
+      // with every move failing low, none of them is known to be best
+      table.store(key, (bound == TranspositionTable.UPPER) ? Move.NONE
+                       : bestHere, toTable(best, ply), depth, bound);
+      return best;
+   }
+
+   /*
+    * Searches just the captures (or every evasion, when in check) until the
+    * position is quiet, returning its score. Not in check, the side to move
+    * can always decline to capture, so the static evaluation is a lower
+    * bound ("standing pat").
+    */
+   private int quiesce(int alpha, int beta, int ply) {
+      pvLength[ply] = ply;
+      if (countNode()) return 0;
+      if (ply >= MAX_PLY) return evaluate();
+
+      int[] list = moves[ply];
+      int count;
+      int best;
+      if (position.inCheck()) {
+         count = logic.generateLegal(position, list, 0);
+         if (count == 0) return -MATE + ply;
+         best = -INFINITY;
+      } else {
+         best = evaluate();
+         if (best >= beta) return best;
+         if (best > alpha) alpha = best;
+         count = logic.generateLegalCaptures(position, list, 0);
+      }
+      followPv = false;
+      scoreMoves(list, count, ply, Move.NONE);
+
+      for (int i = 0; i < count; i++) {
+         int move = pickMove(list, count, i, ply);
+         position.makeMove(move);
+         int score = -quiesce(-beta, -alpha, ply + 1);
+         position.unmakeMove(move);
+         if (aborted) return 0;
+
+         if (score > best) {
+            best = score;
+            if (score > alpha) {
+               alpha = score;
+               updatePv(move, ply);
+               if (alpha >= beta) break;
+            }
+         }
+      }
+      return best;
+   }
+
+   /*
+    * Scores the current position, from the side to move's point of view.
+    */
+   private int evaluate() {
+      return (accumulator != null)
+             ? accumulator.evaluate(position.getSideToMove())
+             : evaluator.evaluate(position);
+   }
+
+   /*
+    * Counts a node, and checks every so often whether the search should
+    * stop, returning whether it has.
+    */
+   private boolean countNode() {
+      nodes++;
+      if (nodeLimit > 0 && nodes >= nodeLimit) aborted = true;
+      if ((nodes & CHECK_MASK) == 0
+          && (stoppedToken.get() >= searchToken
+              || (deadline != 0 && System.nanoTime() - deadline >= 0)))
+         aborted = true;
+      return aborted;
+   }
+
+   /*
+    * Gives each move an ordering score: the last iteration's principal
+    * variation first, then the move from the transposition table, then
+    * captures by most valuable victim and least valuable attacker, then
+    * killers, then history.
+    */
+   private void scoreMoves(int[] list, int count, int ply, int hashMove) {
+      int pvMove = Move.NONE;
+      if (followPv) {
+         followPv = false;
+         if (ply < bestPvLength) pvMove = bestPv[ply];
+      }
+      final int us = position.getSideToMove();
+      int[] score = scores[ply];
+      for (int i = 0; i < count; i++) {
+         int move = list[i];
+         if (move == pvMove) {
+            score[i] = PV_SCORE;
+            followPv = true;
+         } else if (move == hashMove) {
+            score[i] = HASH_SCORE;
+         } else if (Move.isPromotion(move)
+                    && Move.promotionType(move) != Position.QUEEN) {
+            score[i] = UNDERPROMOTION_SCORE;
+         } else if (Move.isCapture(move) || Move.isPromotion(move)) {
+            int victim = Move.isCapture(move)
+                         ? position.typeAt(Move.to(move)) : Position.EMPTY;
+            // en passant takes a pawn that isn't on the target square
+            if (victim == Position.EMPTY && Move.isCapture(move))
+               victim = Position.PAWN;
+            int gain = (victim == Position.EMPTY)
+                       ? 0 : Evaluator.PIECE_VALUES[victim];
+            if (Move.isPromotion(move))
+               gain += Evaluator.PIECE_VALUES[Position.QUEEN];
+            int attacker = position.typeAt(Move.from(move));
+            score[i] = CAPTURE_SCORE + gain * 16
+                       - Evaluator.PIECE_VALUES[attacker] / 16;
+         } else if (move == killers[ply][0]) {
+            score[i] = KILLER_SCORE + 1;
+         } else if (move == killers[ply][1]) {
+            score[i] = KILLER_SCORE;
+         } else {
+            score[i] = history[us][move & 0xFFF];
+         }
+      }
+   }
+
+   /*
+    * Converts a mate score from "mate in n plies from the root" to "mate in
+    * n plies from here", which is what the table stores, since the same
+    * position can come up at different plies.
+    */
+   private static int toTable(int score, int ply) {
+      if (score >= MATE_BOUND) return score + ply;
+      if (score <= -MATE_BOUND) return score - ply;
+      return score;
+   }
+
+   /*
+    * Converts a mate score from the table back to being from the root.
+    */
+   private static int fromTable(int score, int ply) {
+      if (score >= MATE_BOUND) return score - ply;
+      if (score <= -MATE_BOUND) return score + ply;
+      return score;
+   }
+
+   /*
+    * Swaps the best-scoring of the moves not yet tried into position `i`
+    * and returns it. Since a cutoff usually comes within the first few
+    * moves, this beats sorting the whole list.
+    */
+   private int pickMove(int[] list, int count, int i, int ply) {
+      int[] score = scores[ply];
+      int best = i;
+      for (int j = i + 1; j < count; j++)
+         if (score[j] > score[best]) best = j;
+      int move = list[best];
+      list[best] = list[i];
+      list[i] = move;
+      int s = score[best];
+      score[best] = score[i];
+      score[i] = s;
+      return move;
+   }
+
+   /*
+    * Puts `move` at the head of this ply's principal variation, followed by
+    * the best line from the ply below.
+    */
+   private void updatePv(int move, int ply) {
+      pv[ply][ply] = move;
+      int length = pvLength[ply + 1];
+      System.arraycopy(pv[ply + 1], ply + 1, pv[ply], ply + 1,
+                       length - (ply + 1));
+      pvLength[ply] = Math.max(length, ply + 1);
+   }
+
+   /*
+    * Remembers a quiet move that caused a cutoff, as a killer for this ply
+    * and in the history table. Deeper cutoffs count for more, and the
+    * whole table is halved before anything can overflow into the killers'
+    * band.
+    */
+   private void rememberCutoff(int us, int move, int depth, int ply) {
+      if (killers[ply][0] != move) {
+         killers[ply][1] = killers[ply][0];
+         killers[ply][0] = move;
+      }
+      int[] h = history[us];
+      h[move & 0xFFF] += depth * depth;
+      if (h[move & 0xFFF] >= HISTORY_MAX)
+         for (int i = 0; i < h.length; i++) h[i] /= 2;
+   }
+}
@@ -0,0 +1,85 @@
+/******************************************************************************
+ *                             ChessSim 0.9                                   *
+ *                  Copyright © 2015 Ben Goldsworthy (rumperuu)               *
+ *                                                                            *
+ * A program to simulate a game of chess between two human players.           *
+ *                                                                            *
+ * This file is part of ChessSim.                                             *
+ *                                                                            *
+ * ChessSim is free software: you can redistribute it and/or modify           *
+ * it under the terms of the GNU General Public License as published by       *
+ * the Free Software Foundation, either version 3 of the License, or          *
+ * (at your option) any later version.                                        *
+ *                                                                            *
+ * ChessSim is distributed in the hope that it will be useful,                *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of             *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the              *
+ * GNU General Public License for more details.                               *
+ *                                                                            *
+ * You should have received a copy of the GNU General Public License          *
+ * along with ChessSim.  If not, see <http://www.gnu.org/licenses/>.          *
+ ******************************************************************************/
+
+/**
+ ** This class says how far a `Search` may go, utilised in the ChessSim
+ ** program. Any limit left at 0 doesn't apply; the search stops at
+ ** whichever of the others it hits first.
+ **/
+
+/**
+ **   @author  Ben Goldsworthy (rumperuu) <me+chesssim@bengoldsworthy.net>
+ **   @version 0.92
+ **/
+public class SearchLimits {
+   private int depth;
+   private long nodes;
+   private long moveTime;
+
+   /**
+    **   Gets the deepest iteration the search may start.
+    **   @return the depth in plies, or 0 for no limit
+    **/
+   public int getDepth() {
+      return depth;
+   }
+
+   /**
+    **   Sets the deepest iteration the search may start.
+    **   @param depth the depth in plies, or 0 for no limit
+    **/
+   public void setDepth(int depth) {
+      this.depth = depth;
+   }
+
+   /**
+    **   Gets the number of nodes after which the search stops.
+    **   @return the node count, or 0 for no limit
+    **/
+   public long getNodes() {
+      return nodes;
+   }
+
+   /**
+    **   Sets the number of nodes after which the search stops.
+    **   @param nodes the node count, or 0 for no limit
+    **/
+   public void setNodes(long nodes) {
+      this.nodes = nodes;
+   }
+
+   /**
+    **   Gets the time after which the search stops, however far it's got.
+    **   @return the time in milliseconds, or 0 for no limit
+    **/
+   public long getMoveTime() {
+      return moveTime;
+   }
+
+   /**
+    **   Sets the time after which the search stops, however far it's got.
+    **   @param millis the time in milliseconds, or 0 for no limit
+    **/
+   public void setMoveTime(long millis) {
+      moveTime = millis;
+   }
+}
@@ -0,0 +1,46 @@
+/******************************************************************************
+ *                             ChessSim 0.9                                   *
+ *                  Copyright © 2015 Ben Goldsworthy (rumperuu)               *
+ *                                                                            *
+ * A program to simulate a game of chess between two human players.           *
+ *                                                                            *
+ * This file is part of ChessSim.                                             *
+ *                                                                            *
+ * ChessSim is free software: you can redistribute it and/or modify           *
+ * it under the terms of the GNU General Public License as published by       *
+ * the Free Software Foundation, either version 3 of the License, or          *
+ * (at your option) any later version.                                        *
+ *                                                                            *
+ * ChessSim is distributed in the hope that it will be useful,                *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of             *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the              *
+ * GNU General Public License for more details.                               *
+ *                                                                            *
+ * You should have received a copy of the GNU General Public License          *
+ * along with ChessSim.  If not, see <http://www.gnu.org/licenses/>.          *
+ ******************************************************************************/
+
+/**
+ ** This interface hears about a `Search`'s progress, utilised in the
+ ** ChessSim program.
+ **/
+
+/**
+ **   @author  Ben Goldsworthy (rumperuu) <me+chesssim@bengoldsworthy.net>
+ **   @version 0.92
+ **/
+public interface SearchListener {
+   /**
+    **   Called each time the search finishes an iteration.
+    **   @param depth the depth just finished
+    **   @param score the score in centipawns, from the side to move's point
+    **          of view; mates are scored near `Search.MATE`
+    **   @param nodes the nodes searched so far
+    **   @param millis the time taken so far
+    **   @param pv the principal variation, which is only valid until this
+    **          call returns
+    **   @param pvLength the number of moves in `pv`
+    **/
+   void iterationDone(int depth, int score, long nodes, long millis, int[] pv,
+                      int pvLength);
+}
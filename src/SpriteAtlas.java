@@ -0,0 +1,123 @@
+/******************************************************************************
+ *                             ChessSim 0.9                                   *
+ *                  Copyright © 2015 Ben Goldsworthy (rumperuu)               *
+ *                                                                            *
+ * A program to simulate a game of chess between two human players.           *
+ *                                                                            *
+ * This file is part of ChessSim.                                             *
+ *                                                                            *
+ * ChessSim is free software: you can redistribute it and/or modify           *
+ * it under the terms of the GNU General Public License as published by       *
+ * the Free Software Foundation, either version 3 of the License, or          *
+ * (at your option) any later version.                                        *
+ *                                                                            *
+ * ChessSim is distributed in the hope that it will be useful,                *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of             *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the              *
+ * GNU General Public License for more details.                               *
+ *                                                                            *
+ * You should have received a copy of the GNU General Public License          *
+ * along with ChessSim.  If not, see <http://www.gnu.org/licenses/>.          *
+ ******************************************************************************/
+
+/**
+ ** This class holds the piece pictures, utilised in the ChessSim program.
+ ** The twelve images are loaded from disk once, for the whole program, and
+ ** drawn side by side into one image ("atlas") scaled to the size of a
+ ** square, so drawing a piece is a straight copy of part of it, with no
+ ** scaling. The atlas is only redrawn when the squares change size.
+ **/
+
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import javax.imageio.ImageIO;
+
+/**
+ **   @author  Ben Goldsworthy (rumperuu) <me+chesssim@bengoldsworthy.net>
+ **   @version 0.92
+ **/
+public final class SpriteAtlas {
+   // where the images are looked for, in order: "images" is where the
+   // program has always looked, and "media" is where they are in the source
+   private static final String[] DIRECTORIES = {"images", "media"};
+   private static final String[] TEAM_NAMES = {"white", "black"};
+
+   // the images as loaded, indexed by piece code
+   private static final BufferedImage[] SOURCES = load();
+   private static BufferedImage atlas;
+   private static int atlasSize;
+
+   private SpriteAtlas() {
+   }
+
+   /**
+    **   Draws a piece.
+    **   @param g where to draw it
+    **   @param piece the piece code (as used by `Position`)
+    **   @param x the left edge
+    **   @param y the top edge
+    **   @param size the size of the square to draw it in
+    **/
+   public static void draw(Graphics g, int piece, int x, int y, int size) {
+      BufferedImage sprites = getAtlas(size);
+      g.drawImage(sprites, x, y, x + size, y + size, piece * size, 0,
+                  (piece + 1) * size, size, null);
+   }
+
+   /*
+    * Gets the atlas for the given square size, drawing it first if the last
+    * one was for a different size. Only the event dispatch thread paints,
+    * so this doesn't need to be thread-safe.
+    */
+   private static BufferedImage getAtlas(int size) {
+      if (atlas != null && atlasSize == size) return atlas;
+      BufferedImage sprites = new BufferedImage(12 * size, size,
+                                                BufferedImage.TYPE_INT_ARGB);
+      Graphics2D g = sprites.createGraphics();
+      g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                         RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+      for (int piece = 0; piece < 12; piece++) {
+         BufferedImage source = SOURCES[piece];
+         if (source == null) continue;
+         // keeps the image's shape, centred in the square
+         double scale = Math.min((double) size / source.getWidth(),
+                                 (double) size / source.getHeight());
+         int w = (int) (source.getWidth() * scale);
+         int h = (int) (source.getHeight() * scale);
+         g.drawImage(source.getScaledInstance(w, h, Image.SCALE_SMOOTH),
+                     piece * size + (size - w) / 2, (size - h) / 2, null);
+      }
+      g.dispose();
+      atlas = sprites;
+      atlasSize = size;
+      return atlas;
+   }
+
+   /*
+    * Loads the twelve piece images, named e.g. "white1.png" for a white
+    * pawn (the number being one more than the `Position` piece type). A
+    * missing image just leaves its pieces undrawn.
+    */
+   private static BufferedImage[] load() {
+      BufferedImage[] images = new BufferedImage[12];
+      for (int piece = 0; piece < 12; piece++) {
+         String name = TEAM_NAMES[piece / 6] + (piece % 6 + 1) + ".png";
+         for (String directory : DIRECTORIES) {
+            File file = new File(directory, name);
+            if (!file.isFile()) continue;
+            try {
+               images[piece] = ImageIO.read(file);
+               break;
+            } catch (IOException e) {
+               System.out.println("Error 04: couldn't read " + file + ".");
+            }
+         }
+      }
+      return images;
+   }
+}
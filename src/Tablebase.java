@@ -0,0 +1,362 @@
+/******************************************************************************
+ *                             ChessSim 0.9                                   *
+ *                  Copyright © 2015 Ben Goldsworthy (rumperuu)               *
+ *                                                                            *
+ * A program to simulate a game of chess between two human players.           *
+ *                                                                            *
+ * This file is part of ChessSim.                                             *
+ *                                                                            *
+ * ChessSim is free software: you can redistribute it and/or modify           *
+ * it under the terms of the GNU General Public License as published by       *
+ * the Free Software Foundation, either version 3 of the License, or          *
+ * (at your option) any later version.                                        *
+ *                                                                            *
+ * ChessSim is distributed in the hope that it will be useful,                *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of             *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the              *
+ * GNU General Public License for more details.                               *
+ *                                                                            *
+ * You should have received a copy of the GNU General Public License          *
+ * along with ChessSim.  If not, see <http://www.gnu.org/licenses/>.          *
+ ******************************************************************************/
+
+/**
+ ** This class looks up endgame positions in tablebases, utilised in the
+ ** ChessSim program. A tablebase holds, for every position of some set of
+ ** material (laid out by `TablebaseLayout`), whether the side to move wins,
+ ** draws or loses with perfect play (WDL, two bits a position), and how
+ ** many plies it takes the winner to force a capture or pawn move (DTZ, a
+ ** byte a position). Always playing a winning move that brings that number
+ ** down makes progress, so it's enough to actually win. They're made by
+ ** `TablebaseGenerator`, and ignore the fifty-move rule.
+ **
+ ** The files are memory-mapped read-only, and the tables already loaded
+ ** never change, so any number of threads can probe at once with no
+ ** locking at all. Positions with castling rights aren't in any table.
+ **/
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ **   @author  Ben Goldsworthy (rumperuu) <me+chesssim@bengoldsworthy.net>
+ **   @version 0.92
+ **/
+public class Tablebase {
+   // results, from the side to move's point of view
+   public static final int LOSS = -1, DRAW = 0, WIN = 1, UNKNOWN = 2;
+   public static final String WDL_SUFFIX = ".wdl", DTZ_SUFFIX = ".dtz";
+   // each file starts with its magic number and the number of positions
+   public static final long WDL_MAGIC = 0x43535442574C4431L;
+   public static final long DTZ_MAGIC = 0x4353544244545A31L;
+   public static final int HEADER_BYTES = 16;
+   // how results are stored in a WDL file, four positions to a byte, the
+   // first in the lowest bits
+   public static final int CODE_DRAW = 0, CODE_WIN = 1, CODE_LOSS = 2,
+                           CODE_UNUSED = 3;
+
+   // replaced as a whole whenever a table is added, so a probe never sees
+   // one half-added
+   private volatile Registry registry = new Registry(new Table[0]);
+
+   /**
+    **   Creates a tablebase with no tables yet.
+    **/
+   public Tablebase() {
+   }
+
+   /**
+    **   Creates a tablebase from every table in a directory.
+    **   @param directory the directory
+    **   @throws IOException if a table can't be read
+    **/
+   public Tablebase(Path directory) throws IOException {
+      if (!Files.isDirectory(directory)) return;
+      try (DirectoryStream<Path> files = Files.newDirectoryStream(
+              directory, "*" + WDL_SUFFIX)) {
+         for (Path wdl : files) {
+            String file = wdl.getFileName().toString();
+            String name = file.substring(0, file.length()
+                                            - WDL_SUFFIX.length());
+            add(new TablebaseLayout(name), wdl,
+                wdl.resolveSibling(name + DTZ_SUFFIX));
+         }
+      }
+   }
+
+   /**
+    **   Adds a table, in place of any already there for the same material.
+    **   @param layout the table's material
+    **   @param wdl its WDL file
+    **   @param dtz its DTZ file, which may not exist
+    **   @throws IOException if a file can't be read, or doesn't fit the
+    **           layout
+    **/
+   public synchronized void add(TablebaseLayout layout, Path wdl, Path dtz)
+   throws IOException {
+      MappedByteBuffer results = map(wdl, WDL_MAGIC, layout,
+                                     (layout.size() + 3) / 4);
+      MappedByteBuffer distances = Files.exists(dtz)
+                                   ? map(dtz, DTZ_MAGIC, layout, layout.size())
+                                   : null;
+      Table[] tables = registry.tables;
+      int slot = 0;
+      while (slot < tables.length && tables[slot].layout.getMaterialKey()
+                                     != layout.getMaterialKey())
+         slot++;
+      Table[] added = Arrays.copyOf(tables, Math.max(tables.length, slot + 1));
+      added[slot] = new Table(layout, results, distances);
+      registry = new Registry(added);
+   }
+
+   /**
+    **   Determines whether there's a table for some material.
+    **   @param layout the material
+    **   @return a boolean value
+    **/
+   public boolean hasTable(TablebaseLayout layout) {
+      return registry.find(layout.getMaterialKey()) >= 0;
+   }
+
+   /**
+    **   Gets the number of tables.
+    **   @return the number of tables
+    **/
+   public int getTableCount() {
+      return registry.tables.length;
+   }
+
+   /**
+    **   Gets the most pieces (kings included) any table has.
+    **   @return the number of pieces, or 0 if there are no tables
+    **/
+   public int getMaxPieces() {
+      return registry.maxPieces;
+   }
+
+   /**
+    **   Looks up whether the side to move wins, draws or loses.
+    **   @param pos the position; if it has an en passant square, moves are
+    **          made and unmade on it
+    **   @return WIN, DRAW or LOSS, or UNKNOWN if it isn't in a table
+    **/
+   public int probeWdl(Position pos) {
+      if (pos.getCastlingRights() != 0) return UNKNOWN;
+      int pieces = Long.bitCount(pos.getOccupied());
+      if (pieces == 2) return DRAW;
+      Registry tables = registry;
+      if (pieces > tables.maxPieces) return UNKNOWN;
+      if (pos.getEpSquare() == Position.NO_SQUARE) return lookUp(tables, pos);
+
+      // the tables leave out en passant, so the captures it allows are
+      // tried here, against the position without it
+      int best = LOSS - 1;
+      int[] moves = new int[MoveGenerator.MAX_MOVES];
+      int count = new ChessLogic().generateLegal(pos, moves, 0);
+      for (int i = 0; i < count; i++) {
+         if (Move.flags(moves[i]) != Move.EP_CAPTURE) continue;
+         pos.makeMove(moves[i]);
+         int result = probeWdl(pos);
+         pos.unmakeMove(moves[i]);
+         if (result == UNKNOWN) return UNKNOWN;
+         best = Math.max(best, -result);
+      }
+      if (best == WIN) return WIN;
+      int without = lookUp(tables, pos);
+      return (without == UNKNOWN) ? UNKNOWN : Math.max(best, without);
+   }
+
+   /**
+    **   Looks up how many plies it takes the winner to force a capture or
+    **   pawn move (or mate). The loser holds out as long as it can.
+    **   @param pos the position, which mustn't have an en passant square
+    **   @return the number of plies, or -1 if it isn't known (it's a draw,
+    **           or isn't in a table, or the tables only have WDL)
+    **/
+   public int probeDtz(Position pos) {
+      if (pos.getCastlingRights() != 0
+          || pos.getEpSquare() != Position.NO_SQUARE)
+         return -1;
+      Registry tables = registry;
+      int slot = tables.find(TablebaseLayout.materialKey(pos));
+      if (slot < 0) return -1;
+      Table table = tables.tables[tables.slots[slot]];
+      long index = table.layout.index(tables.squares(slot, pos),
+                                      tables.sideToMove(slot, pos));
+      int code = table.code(index);
+      if ((code != CODE_WIN && code != CODE_LOSS) || table.dtz == null)
+         return -1;
+      int distance = table.dtz.get(HEADER_BYTES + (int) index) & 0xFF;
+      return (distance == 0xFF) ? -1 : distance;
+   }
+
+   /**
+    **   Picks a move that keeps the best result: for the winner, the one
+    **   that gets to a capture or pawn move (or mate) soonest; for the
+    **   loser, the one that puts it off longest.
+    **   @param pos the position; moves are made and unmade on it
+    **   @return the move, or `Move.NONE` if the position (or any position
+    **           after a move) isn't in a table
+    **/
+   public int bestMove(Position pos) {
+      int result = probeWdl(pos);
+      if (result == UNKNOWN) return Move.NONE;
+      ChessLogic logic = new ChessLogic();
+      int[] moves = new int[MoveGenerator.MAX_MOVES];
+      int[] replies = new int[MoveGenerator.MAX_MOVES];
+      int count = logic.generateLegal(pos, moves, 0);
+      int best = Move.NONE, bestRank = Integer.MIN_VALUE;
+      for (int i = 0; i < count; i++) {
+         int move = moves[i];
+         boolean zeroing = Move.isCapture(move)
+                           || pos.typeAt(Move.from(move)) == Position.PAWN;
+         pos.makeMove(move);
+         int after = probeWdl(pos);
+         int rank = 0;
+         if (after != UNKNOWN && -after == result && result != DRAW) {
+            boolean mate = logic.generateLegal(pos, replies, 0) == 0;
+            int distance = (zeroing || mate) ? 0 : probeDtz(pos);
+            // the winner wants mate, then a capture or pawn move, then the
+            // shortest distance; the loser the longest
+            if (result == WIN) rank = mate ? 2 : zeroing ? 1 : -distance;
+            else rank = zeroing ? 0 : distance + 1;
+            if (distance < 0) after = UNKNOWN;
+         }
+         pos.unmakeMove(move);
+         if (after == UNKNOWN) return Move.NONE;
+         if (-after == result && rank > bestRank) {
+            best = move;
+            bestRank = rank;
+         }
+      }
+      return best;
+   }
+
+   /*
+    * Looks up the result of a position in the tables, taking no notice of
+    * any en passant square.
+    */
+   private static int lookUp(Registry tables, Position pos) {
+      int slot = tables.find(TablebaseLayout.materialKey(pos));
+      if (slot < 0) return UNKNOWN;
+      Table table = tables.tables[tables.slots[slot]];
+      switch (table.code(table.layout.index(tables.squares(slot, pos),
+                                            tables.sideToMove(slot, pos)))) {
+      case CODE_WIN: return WIN;
+      case CODE_LOSS: return LOSS;
+      case CODE_DRAW: return DRAW;
+      default: return UNKNOWN;
+      }
+   }
+
+   /*
+    * Maps a table file read-only, checking its header.
+    */
+   private static MappedByteBuffer map(Path file, long magic,
+                                       TablebaseLayout layout, long bytes)
+   throws IOException {
+      try (FileChannel channel = FileChannel.open(file,
+                                                  StandardOpenOption.READ)) {
+         ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+         while (header.hasRemaining() && channel.read(header) >= 0) {
+         }
+         if (header.position() < HEADER_BYTES || header.getLong(0) != magic
+             || header.getLong(8) != layout.size()
+             || channel.size() != HEADER_BYTES + bytes)
+            throw new IOException("Not a " + layout.getName()
+                                  + " table: " + file);
+         return channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                            HEADER_BYTES + bytes);
+      }
+   }
+
+   /*
+    * One table: its layout and its mapped files.
+    */
+   private static class Table {
+      final TablebaseLayout layout;
+      final MappedByteBuffer wdl, dtz;
+
+      Table(TablebaseLayout layout, MappedByteBuffer wdl,
+            MappedByteBuffer dtz) {
+         this.layout = layout;
+         this.wdl = wdl;
+         this.dtz = dtz;
+      }
+
+      int code(long index) {
+         return (wdl.get(HEADER_BYTES + (int) (index >>> 2))
+                 >>> (2 * (index & 3))) & 3;
+      }
+   }
+
+   /*
+    * The tables, found by material key through an open-addressed hash
+    * table. Each table is in it twice, under its own key and under the key
+    * with the colours swapped, so either side can have the stronger
+    * material. Never changed once made.
+    */
+   private static class Registry {
+      final Table[] tables;
+      final int[] keys;
+      final int[] slots;
+      final boolean[] flipped;
+      final int mask;
+      final int maxPieces;
+
+      Registry(Table[] tables) {
+         this.tables = tables;
+         int capacity = Integer.highestOneBit(Math.max(1, tables.length * 4))
+                        * 2;
+         mask = capacity - 1;
+         keys = new int[capacity];
+         slots = new int[capacity];
+         flipped = new boolean[capacity];
+         Arrays.fill(slots, -1);
+         int most = 0;
+         for (int i = 0; i < tables.length; i++) {
+            int key = tables[i].layout.getMaterialKey();
+            put(key, i, false);
+            if (TablebaseLayout.flipKey(key) != key)
+               put(TablebaseLayout.flipKey(key), i, true);
+            most = Math.max(most, tables[i].layout.getPieceCount());
+         }
+         maxPieces = most;
+      }
+
+      /*
+       * Finds the slot of the table for some material, or -1.
+       */
+      int find(int key) {
+         for (int i = (key * 0x9E3779B1) >>> 16 & mask; slots[i] >= 0;
+              i = (i + 1) & mask)
+            if (keys[i] == key) return i;
+         return -1;
+      }
+
+      int[] squares(int slot, Position pos) {
+         int[] squares = new int[TablebaseLayout.MAX_PIECES];
+         tables[slots[slot]].layout.squaresOf(pos, flipped[slot], squares);
+         return squares;
+      }
+
+      int sideToMove(int slot, Position pos) {
+         return pos.getSideToMove() ^ (flipped[slot] ? 1 : 0);
+      }
+
+      private void put(int key, int table, boolean flip) {
+         int i = (key * 0x9E3779B1) >>> 16 & mask;
+         while (slots[i] >= 0 && keys[i] != key) i = (i + 1) & mask;
+         keys[i] = key;
+         slots[i] = table;
+         flipped[i] = flip;
+      }
+   }
+}
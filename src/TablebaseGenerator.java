@@ -0,0 +1,656 @@
+/******************************************************************************
+ *                             ChessSim 0.9                                   *
+ *                  Copyright © 2015 Ben Goldsworthy (rumperuu)               *
+ *                                                                            *
+ * A program to simulate a game of chess between two human players.           *
+ *                                                                            *
+ * This file is part of ChessSim.                                             *
+ *                                                                            *
+ * ChessSim is free software: you can redistribute it and/or modify           *
+ * it under the terms of the GNU General Public License as published by       *
+ * the Free Software Foundation, either version 3 of the License, or          *
+ * (at your option) any later version.                                        *
+ *                                                                            *
+ * ChessSim is distributed in the hope that it will be useful,                *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of             *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the              *
+ * GNU General Public License for more details.                               *
+ *                                                                            *
+ * You should have received a copy of the GNU General Public License          *
+ * along with ChessSim.  If not, see <http://www.gnu.org/licenses/>.          *
+ ******************************************************************************/
+
+/**
+ ** This class makes the tables `Tablebase` probes, utilised in the ChessSim
+ ** program, by retrograde analysis. Every position of the material is
+ ** numbered by its `TablebaseLayout`; the ones already decided (mate, or
+ ** every move leading into a smaller table that's already been made) are
+ ** found first, and then the work goes backwards a ply at a time: the
+ ** positions a move away from a newly-lost one are won, and those a move
+ ** away from a newly-won one are checked to see whether every move now
+ ** loses. Whatever's left undecided at the end is a draw. The distances to
+ ** a capture or pawn move are worked out the same way afterwards.
+ **
+ ** The working state of every position lives in temporary memory-mapped
+ ** files (`WorkArray`s) rather than on the heap, so a five-piece table
+ ** doesn't need gigabytes of it, and each pass is split into blocks of
+ ** positions that all the cores work through at once. Positions only ever
+ ** go from undecided to decided, by atomic updates, so the threads don't
+ ** need any locking either.
+ **/
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongConsumer;
+import java.util.function.ObjLongConsumer;
+import java.util.stream.LongStream;
+
+/**
+ **   @author  Ben Goldsworthy (rumperuu) <me+chesssim@bengoldsworthy.net>
+ **   @version 0.92
+ **/
+public class TablebaseGenerator {
+   // positions handed to a thread at a time; a multiple of 64, so each
+   // block's bits are whole words
+   private static final int BLOCK = 1 << 14;
+   // what's known about each position while working
+   private static final int UNDECIDED = 0, WON = 1, LOST = 2, ILLEGAL = 3;
+   private static final int NO_DISTANCE = 255, MAX_DISTANCE = 254;
+   // more than any one position can have
+   private static final int MAX_PREDECESSORS = 512;
+   private static final int[] PROMOTIONS = {Position.QUEEN, Position.ROOK,
+                                            Position.BISHOP, Position.KNIGHT};
+
+   private final Path directory;
+   private final PrintStream out;
+   private final Tablebase tablebase;
+
+   /**
+    **   Constructor function. Tables already in the directory are used
+    **   rather than made again.
+    **   @param directory where to write the tables
+    **   @param out where to report progress
+    **   @throws IOException if the directory can't be made or read
+    **/
+   public TablebaseGenerator(Path directory, PrintStream out)
+   throws IOException {
+      this.directory = directory;
+      this.out = out;
+      Files.createDirectories(directory);
+      tablebase = new Tablebase(directory);
+   }
+
+   /**
+    **   Gets the tablebase holding every table made (or found) so far.
+    **   @return the tablebase
+    **/
+   public Tablebase getTablebase() {
+      return tablebase;
+   }
+
+   /**
+    **   Makes the tables for every material of up to some number of pieces.
+    **   @param maxPieces the most pieces, kings included, from 3 to
+    **          `TablebaseLayout.MAX_PIECES`
+    **   @throws IOException if a table can't be written
+    **/
+   public void generateAll(int maxPieces) throws IOException {
+      if (maxPieces < 3 || maxPieces > TablebaseLayout.MAX_PIECES)
+         throw new IllegalArgumentException("Bad number of pieces: "
+                                            + maxPieces);
+      Set<String> names = new LinkedHashSet<>();
+      addMaterial(new int[2][Position.KING], 0, maxPieces - 2, names);
+      for (String name : names) generate(name);
+   }
+
+   /**
+    **   Makes the table for some material, and first any it leads to that
+    **   haven't been made yet.
+    **   @param name the material, e.g. "KQvKR"
+    **   @throws IOException if a table can't be written
+    **/
+   public void generate(String name) throws IOException {
+      TablebaseLayout layout = new TablebaseLayout(name);
+      if (tablebase.hasTable(layout)) return;
+      for (String next : successors(layout)) generate(next);
+      new Build(layout).run();
+   }
+
+   /*
+    * Adds every material with up to `left` more pieces, counting from
+    * (team, type) slot `slot`, to a set of names.
+    */
+   private static void addMaterial(int[][] counts, int slot, int left,
+                                   Set<String> names) {
+      if (slot == 2 * Position.KING) {
+         String name = TablebaseLayout.nameOf(counts, false);
+         if (!name.equals("KvK")) names.add(name);
+         return;
+      }
+      int team = slot / Position.KING, type = slot % Position.KING;
+      for (int n = 0; n <= left; n++) {
+         counts[team][type] = n;
+         addMaterial(counts, slot + 1, left - n, names);
+      }
+      counts[team][type] = 0;
+   }
+
+   /*
+    * Lists the materials a capture or promotion can lead to.
+    */
+   private static List<String> successors(TablebaseLayout layout) {
+      int[][] counts = TablebaseLayout.parse(layout.getName());
+      List<String> names = new ArrayList<>();
+      for (int team = 0; team < 2; team++)
+         for (int type = 0; type < Position.KING; type++) {
+            if (counts[team][type] == 0) continue;
+            counts[team][type]--;
+            addSuccessor(counts, names);
+            if (type == Position.PAWN)
+               for (int promotion : PROMOTIONS) {
+                  counts[team][promotion]++;
+                  addSuccessor(counts, names);
+                  // promoting by capturing
+                  for (int taken = 1; taken < Position.KING; taken++)
+                     if (counts[1 - team][taken] > 0) {
+                        counts[1 - team][taken]--;
+                        addSuccessor(counts, names);
+                        counts[1 - team][taken]++;
+                     }
+                  counts[team][promotion]--;
+               }
+            counts[team][type]++;
+         }
+      return names;
+   }
+
+   private static void addSuccessor(int[][] counts, List<String> names) {
+      String name = TablebaseLayout.nameOf(counts, false);
+      if (!name.equals("KvK") && !names.contains(name)) names.add(name);
+   }
+
+   /*
+    * Runs something on every block of positions, across all the cores.
+    */
+   private static void forEachBlock(long size, LongConsumer action) {
+      LongStream.range(0, (size + BLOCK - 1) / BLOCK).parallel()
+                .forEach(action);
+   }
+
+   /*
+    * The making of one table.
+    */
+   private class Build {
+      final TablebaseLayout layout;
+      final long size;
+      final int materialKey;
+      // the state of each position, a byte each
+      WorkArray state;
+      // the distance of each position to a capture or pawn move
+      WorkArray distance;
+      // the positions decided in the last pass, in this pass, and the ones
+      // this pass might decide
+      WorkArray current, next, candidates;
+      final ThreadLocal<Worker> workers = ThreadLocal.withInitial(Worker::new);
+
+      Build(TablebaseLayout layout) {
+         this.layout = layout;
+         size = layout.size();
+         materialKey = layout.getMaterialKey();
+      }
+
+      void run() throws IOException {
+         long start = System.nanoTime();
+         try {
+            state = new WorkArray(directory, size);
+            current = WorkArray.bits(directory, size);
+            next = WorkArray.bits(directory, size);
+            candidates = WorkArray.bits(directory, size);
+            solveResults();
+            // the results are on disk by now, so the state array is reused
+            // for the distances, reading the results back from the file
+            distance = state;
+            state = null;
+            solveDistances(start);
+         } finally {
+            for (WorkArray array : new WorkArray[] {state, distance, current,
+                                                    next, candidates})
+               if (array != null) array.delete();
+         }
+      }
+
+      /*
+       * Works out whether each position is won, lost or drawn, and writes
+       * the WDL file.
+       */
+      void solveResults() throws IOException {
+         forEachBlock(size, block -> {
+            Worker worker = workers.get();
+            long end = Math.min(size, (block + 1) * BLOCK);
+            for (long i = block * BLOCK; i < end; i++) worker.initialise(i);
+         });
+         int passes = 0;
+         while (!current.isEmpty()) {
+            passes++;
+            forEachSet(current, Worker::markPredecessors);
+            forEachSet(candidates, Worker::decide);
+            WorkArray swap = current;
+            current = next;
+            next = swap;
+            next.fill(0);
+            candidates.fill(0);
+         }
+
+         LongAdder won = new LongAdder(), lost = new LongAdder(),
+                   drawn = new LongAdder();
+         Path wdl = directory.resolve(layout.getName() + Tablebase.WDL_SUFFIX);
+         Path temporary = wdl.resolveSibling(wdl.getFileName() + ".tmp");
+         try (DataOutputStream file = open(temporary, Tablebase.WDL_MAGIC)) {
+            int packed = 0;
+            for (long i = 0; i < size; i++) {
+               int code;
+               switch (state.getByte(i)) {
+               case WON: code = Tablebase.CODE_WIN; won.increment(); break;
+               case LOST: code = Tablebase.CODE_LOSS; lost.increment(); break;
+               case ILLEGAL: code = Tablebase.CODE_UNUSED; break;
+               default: code = Tablebase.CODE_DRAW; drawn.increment();
+               }
+               packed |= code << (2 * (i & 3));
+               if ((i & 3) == 3 || i == size - 1) {
+                  file.write(packed);
+                  packed = 0;
+               }
+            }
+         }
+         Files.move(temporary, wdl, StandardCopyOption.REPLACE_EXISTING);
+         out.println(layout.getName() + ": " + size + " positions, "
+                     + won.sum() + " won, " + lost.sum() + " lost, "
+                     + drawn.sum() + " drawn, " + passes + " passes");
+      }
+
+      /*
+       * Works out the distance of each decisive position to a capture or
+       * pawn move (or mate), and writes the DTZ file. The results come from
+       * the WDL file, which is added to the tablebase first.
+       */
+      void solveDistances(long start) throws IOException {
+         Path wdl = directory.resolve(layout.getName() + Tablebase.WDL_SUFFIX);
+         Path dtz = directory.resolve(layout.getName() + Tablebase.DTZ_SUFFIX);
+         Files.deleteIfExists(dtz);
+         tablebase.add(layout, wdl, dtz);
+         distance.fill(NO_DISTANCE);
+         current.fill(0);
+         forEachBlock(size, block -> {
+            Worker worker = workers.get();
+            long end = Math.min(size, (block + 1) * BLOCK);
+            for (long i = block * BLOCK; i < end; i++) worker.seed(i);
+         });
+         int layer = 0, longest = 0;
+         while (!current.isEmpty() || !next.isEmpty()) {
+            final int d = layer;
+            forEachSet(current, (worker, i) -> worker.spread(i, d));
+            forEachSet(candidates, (worker, i) -> worker.confirm(i, d));
+            WorkArray swap = current;
+            current = next;
+            next = swap;
+            next.fill(0);
+            candidates.fill(0);
+            if (!current.isEmpty()) longest = Math.min(layer + 1, MAX_DISTANCE);
+            layer++;
+         }
+
+         Path temporary = dtz.resolveSibling(dtz.getFileName() + ".tmp");
+         try (DataOutputStream file = open(temporary, Tablebase.DTZ_MAGIC)) {
+            for (long i = 0; i < size; i++) file.write(distance.getByte(i));
+         }
+         Files.move(temporary, dtz, StandardCopyOption.REPLACE_EXISTING);
+         tablebase.add(layout, wdl, dtz);
+         out.println(layout.getName() + ": longest distance " + longest
+                     + " plies, " + (System.nanoTime() - start) / 1000000
+                     + " ms");
+      }
+
+      /*
+       * Runs something on every position whose bit is set, across all the
+       * cores.
+       */
+      void forEachSet(WorkArray bits, ObjLongConsumer<Worker> action) {
+         long words = bits.words(), perBlock = BLOCK / 64;
+         LongStream.range(0, (words + perBlock - 1) / perBlock).parallel()
+                   .forEach(block -> {
+            Worker worker = workers.get();
+            for (long w = block * perBlock;
+                 w < Math.min(words, (block + 1) * perBlock); w++)
+               for (long word = bits.getWord(w); word != 0;
+                    word &= word - 1) {
+                  long i = w * 64 + Long.numberOfTrailingZeros(word);
+                  if (i < size) action.accept(worker, i);
+               }
+         });
+      }
+
+      DataOutputStream open(Path file, long magic) throws IOException {
+         OutputStream stream = Files.newOutputStream(file);
+         DataOutputStream data = new DataOutputStream(
+            new BufferedOutputStream(stream, 1 << 20));
+         data.writeLong(magic);
+         data.writeLong(size);
+         return data;
+      }
+
+      /*
+       * One thread's scratch space, and the work done on each position.
+       */
+      class Worker {
+         final ChessLogic logic = new ChessLogic();
+         final Position board = new Position(), prior = new Position();
+         final int[] squares = new int[TablebaseLayout.MAX_PIECES];
+         final int[] priorSquares = new int[TablebaseLayout.MAX_PIECES];
+         final int[] moves = new int[MoveGenerator.MAX_MOVES];
+         final int[] replies = new int[MoveGenerator.MAX_MOVES];
+         final long[] predecessors = new long[MAX_PREDECESSORS];
+
+         /*
+          * Marks a position illegal, or decided if it already can be.
+          */
+         void initialise(long index) {
+            if (!load(index)) {
+               state.setByte(index, ILLEGAL);
+               return;
+            }
+            int result = evaluate();
+            if (result != Tablebase.UNKNOWN) {
+               state.setByte(index, (result == Tablebase.WIN) ? WON : LOST);
+               current.setBit(index);
+            }
+         }
+
+         /*
+          * Marks the undecided positions a move before a decided one as
+          * candidates.
+          */
+         void markPredecessors(long index) {
+            load(index);
+            int n = predecessors(false);
+            for (int i = 0; i < n; i++)
+               if (state.getByte(predecessors[i]) == UNDECIDED)
+                  candidates.setBit(predecessors[i]);
+         }
+
+         /*
+          * Decides a candidate, if its moves now allow it.
+          */
+         void decide(long index) {
+            if (state.getByte(index) != UNDECIDED) return;
+            load(index);
+            int result = evaluate();
+            if (result == Tablebase.UNKNOWN) return;
+            int code = (result == Tablebase.WIN) ? WON : LOST;
+            // another thread may have got here first, through another
+            // successor
+            if (state.compareAndSetByte(index, UNDECIDED, code))
+               next.setBit(index);
+         }
+
+         /*
+          * Gives mates a distance of 0, and positions where the winner can
+          * (or the loser must) capture or move a pawn straight away 1.
+          */
+         void seed(long index) {
+            if (!load(index)) return;
+            int result = tablebase.probeWdl(board);
+            if (result != Tablebase.WIN && result != Tablebase.LOSS) return;
+            int count = logic.generateLegal(board, moves, 0);
+            if (count == 0) {
+               distance.setByte(index, 0);
+               current.setBit(index);
+               return;
+            }
+            boolean progress = (result == Tablebase.LOSS);
+            for (int i = 0; i < count; i++) {
+               int move = moves[i];
+               boolean zeroing = isZeroing(move);
+               if (result == Tablebase.LOSS) {
+                  progress &= zeroing;
+                  continue;
+               }
+               if (!zeroing) continue;
+               board.makeMove(move);
+               progress = (tablebase.probeWdl(board) == Tablebase.LOSS);
+               board.unmakeMove(move);
+               if (progress) break;
+            }
+            if (progress) {
+               distance.setByte(index, 1);
+               next.setBit(index);
+            }
+         }
+
+         /*
+          * Follows the quiet moves back from a position given a distance
+          * of `d`: the winner's positions before a lost one are `d + 1`
+          * away, and the loser's before a won one might be.
+          */
+         void spread(long index, int d) {
+            load(index);
+            boolean lost = (tablebase.probeWdl(board) == Tablebase.LOSS);
+            int n = predecessors(true);
+            for (int i = 0; i < n; i++) {
+               long p = predecessors[i];
+               if (distance.getByte(p) != NO_DISTANCE) continue;
+               int result = resultOf(p);
+               if (lost && result == Tablebase.WIN) {
+                  if (distance.compareAndSetByte(p, NO_DISTANCE,
+                                                 Math.min(d + 1, MAX_DISTANCE)))
+                     next.setBit(p);
+               } else if (!lost && result == Tablebase.LOSS) {
+                  candidates.setBit(p);
+               }
+            }
+         }
+
+         /*
+          * Gives a lost position a distance of `d + 1`, if every quiet move
+          * now has one of at most `d`.
+          */
+         void confirm(long index, int d) {
+            if (distance.getByte(index) != NO_DISTANCE) return;
+            load(index);
+            int count = logic.generateLegal(board, moves, 0);
+            int longest = -1;
+            for (int i = 0; i < count && longest <= d; i++) {
+               if (isZeroing(moves[i])) continue;
+               board.makeMove(moves[i]);
+               long child = layout.index(squares(board), board.getSideToMove());
+               board.unmakeMove(moves[i]);
+               int dist = distance.getByte(child);
+               longest = (dist == NO_DISTANCE) ? Integer.MAX_VALUE
+                                               : Math.max(longest, dist);
+            }
+            if (longest > d) return;
+            if (distance.compareAndSetByte(index, NO_DISTANCE,
+                                           Math.min(d + 1, MAX_DISTANCE)))
+               next.setBit(index);
+         }
+
+         /*
+          * Sets up the position a number stands for on `board`, and says
+          * whether it's a legal one (and the number the layout gives it,
+          * rather than a mirror image of one).
+          */
+         boolean load(long index) {
+            int stm = layout.decode(index, squares);
+            long seen = 0;
+            for (int i = 0; i < layout.getPieceCount(); i++) {
+               long bit = 1L << squares[i];
+               if ((seen & bit) != 0) return false;
+               seen |= bit;
+               if (layout.getType(i) == Position.PAWN
+                   && (squares[i] < 8 || squares[i] >= 56))
+                  return false;
+            }
+            if (layout.index(squares, stm) != index) return false;
+            layout.setUp(board, squares, stm);
+            // the side that just moved can't have left its king in check
+            return !MoveGenerator.isAttacked(board, board.kingSquare(stm ^ 1),
+                                             stm);
+         }
+
+         /*
+          * Works out what the side to move on `board` gets from the results
+          * known so far: a win if any move leads to a loss, a loss if every
+          * move leads to a win (or it's mate), or UNKNOWN. Stalemate is
+          * UNKNOWN too, and ends up a draw.
+          */
+         int evaluate() {
+            int count = logic.generateLegal(board, moves, 0);
+            if (count == 0) return board.inCheck() ? Tablebase.LOSS
+                                                   : Tablebase.UNKNOWN;
+            boolean allWon = true;
+            for (int i = 0; i < count; i++) {
+               board.makeMove(moves[i]);
+               int result = childResult();
+               board.unmakeMove(moves[i]);
+               if (result == Tablebase.LOSS) return Tablebase.WIN;
+               allWon &= (result == Tablebase.WIN);
+            }
+            return allWon ? Tablebase.LOSS : Tablebase.UNKNOWN;
+         }
+
+         /*
+          * Gets the result, as far as it's known, for the side to move on
+          * `board` after a move: from the table being made if the material
+          * is the same, or else from the tables already made.
+          */
+         int childResult() {
+            if (TablebaseLayout.materialKey(board) != materialKey) {
+               int result = tablebase.probeWdl(board);
+               if (result == Tablebase.UNKNOWN)
+                  throw new IllegalStateException("Missing table after "
+                                                  + layout.getName() + ": "
+                                                  + board.toFen());
+               return result;
+            }
+            int ep = board.getEpSquare();
+            int result = fromState(board);
+            if (ep == Position.NO_SQUARE) return result;
+
+            // an en passant capture, which leaves this table, may be
+            // better than anything the table knows about
+            int count = logic.generateLegal(board, replies, 0);
+            int best = Tablebase.LOSS - 1;
+            for (int i = 0; i < count; i++) {
+               if (Move.flags(replies[i]) != Move.EP_CAPTURE) continue;
+               board.makeMove(replies[i]);
+               best = Math.max(best, -tablebase.probeWdl(board));
+               board.unmakeMove(replies[i]);
+            }
+            if (best == Tablebase.WIN || result == Tablebase.WIN)
+               return Tablebase.WIN;
+            if (result == Tablebase.UNKNOWN) return Tablebase.UNKNOWN;
+            // the table's LOSS ignores the capture
+            return (best == Tablebase.DRAW) ? Tablebase.UNKNOWN : result;
+         }
+
+         /*
+          * Reads the working result of a position with this material.
+          */
+         int fromState(Position pos) {
+            switch (state.getByte(layout.index(squares(pos),
+                                               pos.getSideToMove()))) {
+            case WON: return Tablebase.WIN;
+            case LOST: return Tablebase.LOSS;
+            default: return Tablebase.UNKNOWN;
+            }
+         }
+
+         /*
+          * Reads the finished result of a position from the WDL file.
+          */
+         int resultOf(long index) {
+            int stm = layout.decode(index, priorSquares);
+            layout.setUp(prior, priorSquares, stm);
+            return tablebase.probeWdl(prior);
+         }
+
+         int[] squares(Position pos) {
+            layout.squaresOf(pos, false, priorSquares);
+            return priorSquares;
+         }
+
+         boolean isZeroing(int move) {
+            return Move.isCapture(move)
+                   || board.typeAt(Move.from(move)) == Position.PAWN;
+         }
+
+         /*
+          * Finds the legal positions a move before the one on `board`, and
+          * their numbers. Moves can't be taken back into a capture (that
+          * would be a different material), and pawn moves are left out if
+          * `quietOnly`. Returns how many there are.
+          */
+         int predecessors(boolean quietOnly) {
+            int stm = board.getSideToMove(), mover = stm ^ 1;
+            long occupied = board.getOccupied();
+            int n = 0;
+            for (int i = 0; i < layout.getPieceCount(); i++) {
+               if (layout.getTeam(i) != mover) continue;
+               int sq = squares[i], type = layout.getType(i);
+               long from;
+               if (type == Position.PAWN) {
+                  if (quietOnly) continue;
+                  int back = (mover == Position.WHITE) ? -8 : 8;
+                  int rank = sq >>> 3;
+                  from = 0;
+                  // a pawn can't have come from its first rank
+                  if (rank != ((mover == Position.WHITE) ? 1 : 6)
+                      && (occupied & (1L << (sq + back))) == 0) {
+                     from |= 1L << (sq + back);
+                     if (rank == ((mover == Position.WHITE) ? 3 : 4)
+                         && (occupied & (1L << (sq + 2 * back))) == 0)
+                        from |= 1L << (sq + 2 * back);
+                  }
+               } else {
+                  from = attacks(type, sq, occupied) & ~occupied;
+               }
+               for (; from != 0; from &= from - 1) {
+                  System.arraycopy(squares, 0, priorSquares, 0,
+                                   layout.getPieceCount());
+                  priorSquares[i] = Long.numberOfTrailingZeros(from);
+                  layout.setUp(prior, priorSquares, mover);
+                  // the side now to move can't have been left in check
+                  if (MoveGenerator.isAttacked(prior, prior.kingSquare(stm),
+                                               mover))
+                     continue;
+                  predecessors[n++] = layout.index(priorSquares, mover);
+               }
+            }
+            return n;
+         }
+      }
+   }
+
+   /*
+    * Gets the squares a piece other than a pawn attacks.
+    */
+   private static long attacks(int type, int sq, long occupied) {
+      switch (type) {
+      case Position.KNIGHT: return Attacks.knight(sq);
+      case Position.BISHOP: return Attacks.bishop(sq, occupied);
+      case Position.ROOK: return Attacks.rook(sq, occupied);
+      case Position.QUEEN: return Attacks.queen(sq, occupied);
+      default: return Attacks.king(sq);
+      }
+   }
+}
@@ -0,0 +1,373 @@
+/******************************************************************************
+ *                             ChessSim 0.9                                   *
+ *                  Copyright © 2015 Ben Goldsworthy (rumperuu)               *
+ *                                                                            *
+ * A program to simulate a game of chess between two human players.           *
+ *                                                                            *
+ * This file is part of ChessSim.                                             *
+ *                                                                            *
+ * ChessSim is free software: you can redistribute it and/or modify           *
+ * it under the terms of the GNU General Public License as published by       *
+ * the Free Software Foundation, either version 3 of the License, or          *
+ * (at your option) any later version.                                        *
+ *                                                                            *
+ * ChessSim is distributed in the hope that it will be useful,                *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of             *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the              *
+ * GNU General Public License for more details.                               *
+ *                                                                            *
+ * You should have received a copy of the GNU General Public License          *
+ * along with ChessSim.  If not, see <http://www.gnu.org/licenses/>.          *
+ ******************************************************************************/
+
+/**
+ ** This class says how the positions of one set of material (e.g. king and
+ ** queen against king, "KQvK") are laid out in a tablebase, utilised in the
+ ** ChessSim program. A position is numbered from the squares of its pieces
+ ** (white king, black king, then the rest of White's pieces and Black's,
+ ** strongest first) and the side to move, six bits a square.
+ **
+ ** Turning or reflecting the board doesn't change a position's value, so
+ ** only positions with the white king in one part of the board are
+ ** numbered: the triangle a1-d1-d4, or, when there are pawns (which can't
+ ** be turned round), the a-d files. Of the ways of getting it there, and of
+ ** ordering identical pieces, the one giving the lowest number is used, so
+ ** each position has exactly one.
+ **/
+
+/**
+ **   @author  Ben Goldsworthy (rumperuu) <me+chesssim@bengoldsworthy.net>
+ **   @version 0.92
+ **/
+public class TablebaseLayout {
+   public static final int MAX_PIECES = 5;
+   private static final String PIECE_LETTERS = "PRNBQK";
+   // the order pieces are named and numbered in within a side
+   private static final int[] TYPE_ORDER = {Position.QUEEN, Position.ROOK,
+                                            Position.BISHOP, Position.KNIGHT,
+                                            Position.PAWN};
+   // indexed by transformation and square: bit 2 of the transformation
+   // swaps files and ranks, bit 0 flips the files and bit 1 the ranks
+   private static final int[][] TRANSFORM = new int[8][64];
+   // the bits of a material key each team's counts take
+   private static final int KEY_BITS = 15;
+
+   private final String name;
+   private final int count;
+   private final int[] teams, types;
+   // whether each piece is the same as the one before it
+   private final boolean[] repeat;
+   private final boolean pawns;
+   private final int transforms;
+   private final int[] slotOf = new int[64];
+   private final int[] slotSquare;
+   private final long size;
+   private final int materialKey;
+
+   static {
+      for (int t = 0; t < 8; t++)
+         for (int sq = 0; sq < 64; sq++) {
+            int file = sq & 7, rank = sq >>> 3;
+            if ((t & 4) != 0) {
+               int swap = file;
+               file = rank;
+               rank = swap;
+            }
+            if ((t & 1) != 0) file = 7 - file;
+            if ((t & 2) != 0) rank = 7 - rank;
+            TRANSFORM[t][sq] = rank * 8 + file;
+         }
+   }
+
+   /**
+    **   Constructor function.
+    **   @param name the material, e.g. "KQvKR" (the pieces on each side can
+    **          come in any order)
+    **   @throws IllegalArgumentException if the name isn't valid material of
+    **           at most `MAX_PIECES` pieces
+    **/
+   public TablebaseLayout(String name) {
+      int[][] counts = parse(name);
+      // the stronger side is always White
+      if (stronger(side(counts[1]), side(counts[0])))
+         counts = new int[][] {counts[1], counts[0]};
+      this.name = "K" + side(counts[0]) + "vK" + side(counts[1]);
+      int n = 2;
+      for (int team = 0; team < 2; team++)
+         for (int type = 0; type < Position.KING; type++)
+            n += counts[team][type];
+      if (n > MAX_PIECES)
+         throw new IllegalArgumentException("Too many pieces: " + name);
+      count = n;
+      teams = new int[n];
+      types = new int[n];
+      repeat = new boolean[n];
+      teams[1] = Position.BLACK;
+      types[0] = types[1] = Position.KING;
+      int i = 2;
+      for (int team = 0; team < 2; team++)
+         for (int type : TYPE_ORDER)
+            for (int k = 0; k < counts[team][type]; k++, i++) {
+               teams[i] = team;
+               types[i] = type;
+               repeat[i] = (k > 0);
+            }
+      pawns = counts[0][Position.PAWN] + counts[1][Position.PAWN] > 0;
+      transforms = pawns ? 2 : 8;
+
+      int slots = 0;
+      for (int sq = 0; sq < 64; sq++) {
+         int file = sq & 7, rank = sq >>> 3;
+         slotOf[sq] = (file < 4 && (pawns || rank <= file)) ? slots++ : -1;
+      }
+      slotSquare = new int[slots];
+      for (int sq = 0; sq < 64; sq++)
+         if (slotOf[sq] >= 0) slotSquare[slotOf[sq]] = sq;
+      size = 2L * slots << (6 * (n - 1));
+      materialKey = materialKey(counts);
+   }
+
+   /**
+    **   Gets the material's name, written the standard way.
+    **   @return the name, e.g. "KQvKR"
+    **/
+   public String getName() {
+      return name;
+   }
+
+   /**
+    **   Gets the number of pieces, kings included.
+    **   @return the number of pieces
+    **/
+   public int getPieceCount() {
+      return count;
+   }
+
+   /**
+    **   Gets the team of one of the pieces.
+    **   @param piece the piece's number, from 0 (the white king)
+    **   @return WHITE or BLACK
+    **/
+   public int getTeam(int piece) {
+      return teams[piece];
+   }
+
+   /**
+    **   Gets the type of one of the pieces.
+    **   @param piece the piece's number, from 0 (the white king)
+    **   @return the `Position` piece type
+    **/
+   public int getType(int piece) {
+      return types[piece];
+   }
+
+   /**
+    **   Determines whether there are pawns, which stop the board being
+    **   turned round.
+    **   @return a boolean value
+    **/
+   public boolean hasPawns() {
+      return pawns;
+   }
+
+   /**
+    **   Gets the number of positions numbered, including ones that can't
+    **   happen (and ones numbered differently) which are just left unused.
+    **   @return the number of positions
+    **/
+   public long size() {
+      return size;
+   }
+
+   /**
+    **   Gets the key of the material, as `materialKey(Position)` works it
+    **   out.
+    **   @return the key
+    **/
+   public int getMaterialKey() {
+      return materialKey;
+   }
+
+   /**
+    **   Numbers a position.
+    **   @param squares the square of each piece, in this layout's order;
+    **          identical pieces can be in any order. It isn't changed.
+    **   @param sideToMove WHITE or BLACK
+    **   @return the position's number
+    **/
+   public long index(int[] squares, int sideToMove) {
+      int[] moved = new int[count];
+      long best = Long.MAX_VALUE;
+      for (int t = 0; t < transforms; t++) {
+         int[] transform = TRANSFORM[t];
+         if (slotOf[transform[squares[0]]] < 0) continue;
+         for (int i = 0; i < count; i++) {
+            int sq = transform[squares[i]];
+            // identical pieces are put in order of square
+            int j = i;
+            for (; j > 0 && repeat[j] && moved[j - 1] > sq; j--)
+               moved[j] = moved[j - 1];
+            moved[j] = sq;
+         }
+         long index = sideToMove * slotSquare.length + slotOf[moved[0]];
+         for (int i = 1; i < count; i++) index = (index << 6) | moved[i];
+         best = Math.min(best, index);
+      }
+      return best;
+   }
+
+   /**
+    **   Works out the position a number stands for.
+    **   @param index the position's number
+    **   @param squares filled in with the square of each piece
+    **   @return the side to move
+    **/
+   public int decode(long index, int[] squares) {
+      for (int i = count - 1; i > 0; i--) {
+         squares[i] = (int) (index & 63);
+         index >>>= 6;
+      }
+      squares[0] = slotSquare[(int) (index % slotSquare.length)];
+      return (int) (index / slotSquare.length);
+   }
+
+   /**
+    **   Reads the squares of a position's pieces, in this layout's order.
+    **   @param pos the position, which must have this material (or this
+    **          material with the colours swapped, if `flipped`)
+    **   @param flipped whether to swap the colours, turning the board round
+    **          so that White's pawns still go up
+    **   @param squares filled in with the square of each piece
+    **   @return the side to move, swapped too if `flipped`
+    **/
+   public int squaresOf(Position pos, boolean flipped, int[] squares) {
+      int flip = flipped ? 1 : 0;
+      long remaining = 0;
+      for (int i = 0; i < count; i++) {
+         if (!repeat[i]) remaining = pos.getPieces(teams[i] ^ flip, types[i]);
+         int sq = Long.numberOfTrailingZeros(remaining);
+         remaining &= remaining - 1;
+         squares[i] = flipped ? sq ^ 56 : sq;
+      }
+      return pos.getSideToMove() ^ flip;
+   }
+
+   /**
+    **   Sets up a position from the squares of its pieces. It isn't checked
+    **   for being legal.
+    **   @param pos the position to set up
+    **   @param squares the square of each piece, in this layout's order
+    **   @param sideToMove WHITE or BLACK
+    **/
+   public void setUp(Position pos, int[] squares, int sideToMove) {
+      pos.clear();
+      for (int i = 0; i < count; i++)
+         pos.addPiece(teams[i], types[i], squares[i]);
+      pos.setSideToMove(sideToMove);
+   }
+
+   /**
+    **   Works out a key standing for a position's material: the number of
+    **   each kind of piece, bar kings, three bits each.
+    **   @param pos the position
+    **   @return the key
+    **/
+   public static int materialKey(Position pos) {
+      int key = 0;
+      for (int team = 0; team < 2; team++)
+         for (int type = 0; type < Position.KING; type++)
+            key |= Long.bitCount(pos.getPieces(team, type))
+                   << (KEY_BITS * team + 3 * type);
+      return key;
+   }
+
+   /**
+    **   Swaps the teams in a material key.
+    **   @param key the key
+    **   @return the key with White's and Black's pieces swapped
+    **/
+   public static int flipKey(int key) {
+      int mask = (1 << KEY_BITS) - 1;
+      return ((key & mask) << KEY_BITS) | (key >>> KEY_BITS);
+   }
+
+   /**
+    **   Writes material out the standard way: the stronger side as White,
+    **   each side's pieces strongest first.
+    **   @param counts the number of each piece, indexed by team and type
+    **          (kings aren't counted)
+    **   @param flipped whether the sides are to be swapped first
+    **   @return the name, e.g. "KRPvKR"
+    **/
+   public static String nameOf(int[][] counts, boolean flipped) {
+      String white = side(counts[flipped ? 1 : 0]);
+      String black = side(counts[flipped ? 0 : 1]);
+      if (stronger(black, white)) {
+         String swap = white;
+         white = black;
+         black = swap;
+      }
+      return "K" + white + "vK" + black;
+   }
+
+   /**
+    **   Counts the pieces of each kind in material written like "KQvKR".
+    **   @param name the material
+    **   @return the number of each piece, indexed by team and type (kings
+    **           aren't counted)
+    **   @throws IllegalArgumentException if the name isn't valid
+    **/
+   public static int[][] parse(String name) {
+      String[] sides = name.toUpperCase().split("V");
+      if (sides.length != 2 || !sides[0].startsWith("K")
+          || !sides[1].startsWith("K"))
+         throw new IllegalArgumentException("Bad material: " + name);
+      int[][] counts = new int[2][Position.KING];
+      for (int team = 0; team < 2; team++)
+         for (int i = 1; i < sides[team].length(); i++) {
+            int type = PIECE_LETTERS.indexOf(sides[team].charAt(i));
+            if (type < 0 || type == Position.KING)
+               throw new IllegalArgumentException("Bad material: " + name);
+            counts[team][type]++;
+         }
+      return counts;
+   }
+
+   /*
+    * Writes one side's pieces (bar the king), strongest first.
+    */
+   private static String side(int[] counts) {
+      StringBuilder text = new StringBuilder();
+      for (int type : TYPE_ORDER)
+         for (int k = 0; k < counts[type]; k++)
+            text.append(PIECE_LETTERS.charAt(type));
+      return text.toString();
+   }
+
+   /*
+    * Determines whether one side's pieces should count as White's rather
+    * than the other's: more pieces first, then more material, then
+    * whichever sorts first.
+    */
+   private static boolean stronger(String a, String b) {
+      if (a.length() != b.length()) return a.length() > b.length();
+      int valueA = 0, valueB = 0;
+      for (int i = 0; i < a.length(); i++) {
+         valueA += Evaluator.PIECE_VALUES[PIECE_LETTERS.indexOf(a.charAt(i))];
+         valueB += Evaluator.PIECE_VALUES[PIECE_LETTERS.indexOf(b.charAt(i))];
+      }
+      if (valueA != valueB) return valueA > valueB;
+      return a.compareTo(b) < 0;
+   }
+
+   /*
+    * Works out the material key for piece counts.
+    */
+   private static int materialKey(int[][] counts) {
+      int key = 0;
+      for (int team = 0; team < 2; team++)
+         for (int type = 0; type < Position.KING; type++)
+            key |= counts[team][type] << (KEY_BITS * team + 3 * type);
+      return key;
+   }
+}
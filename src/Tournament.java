@@ -0,0 +1,378 @@
+/******************************************************************************
+ *                             ChessSim 0.9                                   *
+ *                  Copyright © 2015 Ben Goldsworthy (rumperuu)               *
+ *                                                                            *
+ * A program to simulate a game of chess between two human players.           *
+ *                                                                            *
+ * This file is part of ChessSim.                                             *
+ *                                                                            *
+ * ChessSim is free software: you can redistribute it and/or modify           *
+ * it under the terms of the GNU General Public License as published by       *
+ * the Free Software Foundation, either version 3 of the License, or          *
+ * (at your option) any later version.                                        *
+ *                                                                            *
+ * ChessSim is distributed in the hope that it will be useful,                *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of             *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the              *
+ * GNU General Public License for more details.                               *
+ *                                                                            *
+ * You should have received a copy of the GNU General Public License          *
+ * along with ChessSim.  If not, see <http://www.gnu.org/licenses/>.          *
+ ******************************************************************************/
+
+/**
+ ** This class plays two engines against each other, utilised in the
+ ** ChessSim program, to find out whether a change makes the engine
+ ** stronger. Each engine has its own `EngineSetup`: its limits, and either
+ ** the engine's own search (with its evaluator or network) or an outside
+ ** UCI program. They play games on every core at once, through `Game` and
+ ** no display. Each opening is played twice, with
+ ** the engines swapping colours, so neither gets the luck of the better
+ ** side. Games end by the rules (mate, stalemate, the fifty-move rule,
+ ** threefold repetition or no mating material), or as a draw if they go on
+ ** for `MAX_PLIES`.
+ **
+ ** As results come in it keeps the Elo difference between the engines up to
+ ** date, and a sequential probability ratio test (SPRT) of whether the
+ ** first engine is `elo1` better than the second rather than `elo0`, which
+ ** stops the run as soon as it's sure either way.
+ **/
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ **   @author  Ben Goldsworthy (rumperuu) <me+chesssim@bengoldsworthy.net>
+ **   @version 0.92
+ **/
+public class Tournament {
+   // a game still going after this many plies is called a draw
+   public static final int MAX_PLIES = 400;
+   // the SPRT's defaults: is the first engine 0 or 5 Elo better, with 5%
+   // chances of either mistake?
+   public static final double DEFAULT_ELO0 = 0, DEFAULT_ELO1 = 5,
+                              DEFAULT_ALPHA = 0.05, DEFAULT_BETA = 0.05;
+   // how many walks through a book `bookOpenings()` tries per opening
+   // wanted, before settling for the different ones it's found
+   private static final int BOOK_TRIES = 4;
+
+   private final EngineSetup[] setups;
+   private final List<String> openings;
+   private final int threads;
+   private double elo0 = DEFAULT_ELO0, elo1 = DEFAULT_ELO1;
+   private double alpha = DEFAULT_ALPHA, beta = DEFAULT_BETA;
+
+   // the results so far, from the first engine's point of view; only
+   // touched under the lock on `this`
+   private int wins, losses, draws;
+   private long startTime;
+   private volatile boolean finished;
+   private PrintStream out;
+
+   // each thread's two engines, kept from one game to the next, and every
+   // one made, to be closed at the end of the run
+   private final ThreadLocal<Player[]> engines = ThreadLocal.withInitial(
+      this::newPlayers);
+   private final List<Player> players = new ArrayList<>();
+
+   /**
+    **   Constructor function.
+    **   @param first the first engine
+    **   @param second the second engine
+    **   @param openings the positions to start games from, as FEN
+    **   @param threads how many games to play at once
+    **/
+   public Tournament(EngineSetup first, EngineSetup second,
+                     List<String> openings, int threads) {
+      if (openings.isEmpty())
+         throw new IllegalArgumentException("No openings");
+      setups = new EngineSetup[] {first, second};
+      this.openings = openings;
+      this.threads = threads;
+   }
+
+   /**
+    **   Sets what the SPRT decides between.
+    **   @param elo0 the Elo difference if the change is no good
+    **   @param elo1 the Elo difference if the change is good
+    **   @param alpha the chance allowed of passing a change that's no good
+    **   @param beta the chance allowed of failing a change that's good
+    **/
+   public void setSprt(double elo0, double elo1, double alpha, double beta) {
+      this.elo0 = elo0;
+      this.elo1 = elo1;
+      this.alpha = alpha;
+      this.beta = beta;
+   }
+
+   /**
+    **   Plays up to the given number of games, writing out the standings as
+    **   each one finishes, and stopping early if the SPRT finishes first.
+    **   @param games the most games to play (rounded up to an even number,
+    **          for the pairs)
+    **   @param out where to write the standings
+    **/
+   public void run(int games, PrintStream out) {
+      this.out = out;
+      wins = losses = draws = 0;
+      finished = false;
+      startTime = System.nanoTime();
+      ExecutorService executor = Executors.newFixedThreadPool(threads);
+      for (int game = 0; game < games + (games & 1); game++) {
+         // both games of a pair use the same opening
+         final String opening = openings.get((game / 2) % openings.size());
+         final boolean firstIsWhite = (game % 2 == 0);
+         executor.execute(() -> {
+            if (finished) return;
+            try {
+               record(play(opening, firstIsWhite));
+            } catch (IOException | UncheckedIOException
+                     | IllegalStateException e) {
+               abandon(e.getMessage());
+            }
+         });
+      }
+      executor.shutdown();
+      try {
+         executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+      synchronized (players) {
+         for (Player player : players) {
+            try {
+               player.close();
+            } catch (IOException e) {
+               // it's finished with either way
+            }
+         }
+         players.clear();
+      }
+      out.println("Final: " + standings());
+   }
+
+   /**
+    **   Reads openings from a file of FEN (or EPD) lines, one per line.
+    **   Blank lines and lines starting with '#' are skipped, and anything
+    **   after the FEN's fields (such as EPD operations) is ignored.
+    **   @param file the file
+    **   @return the openings
+    **   @throws IOException if the file can't be read
+    **   @throws IllegalArgumentException if a line isn't a valid position
+    **/
+   public static List<String> loadOpenings(Path file) throws IOException {
+      List<String> openings = new ArrayList<>();
+      Position check = new Position();
+      for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+         line = line.trim();
+         if (line.isEmpty() || line.startsWith("#")) continue;
+         String[] fields = line.split("\\s+");
+         int count = (fields.length >= 6 && fields[4].matches("\\d+")
+                      && fields[5].matches("\\d+")) ? 6 : 4;
+         String fen = String.join(" ", Arrays.copyOf(fields,
+                                  Math.min(count, fields.length)));
+         check.setFen(fen);
+         openings.add(fen);
+      }
+      return openings;
+   }
+
+   /**
+    **   Makes openings by playing random moves from an opening book, each
+    **   picked in proportion to its weight, from the start position until
+    **   the book runs out or `plies` moves have been played. Openings that
+    **   come out the same are only kept once, so there may be fewer than
+    **   asked for.
+    **   @param book the book
+    **   @param count how many openings to make
+    **   @param plies the most moves to play into each
+    **   @param seed the seed for the random choices, so a run can be
+    **          repeated
+    **   @return the openings, as FEN
+    **/
+   public static List<String> bookOpenings(PolyglotBook book, int count,
+                                           int plies, long seed) {
+      Set<String> openings = new LinkedHashSet<>();
+      Random random = new Random(seed);
+      Position pos = new Position();
+      for (int tries = 0; tries < BOOK_TRIES * count
+                          && openings.size() < count; tries++) {
+         pos.setStartPosition();
+         for (int ply = 0; ply < plies; ply++) {
+            int move = book.pickMove(pos, random);
+            if (move == Move.NONE) break;
+            pos.makeMove(move);
+         }
+         openings.add(pos.toFen());
+      }
+      return new ArrayList<>(openings);
+   }
+
+   /*
+    * Plays one game, returning the result for the first engine: 1 for a
+    * win, 0 for a draw and -1 for a loss.
+    */
+   private int play(String opening, boolean firstIsWhite)
+   throws IOException {
+      Player[] pair = engines.get();
+      for (Player player : pair) player.newGame(opening);
+      Game game = new Game(opening);
+      for (int ply = 0; ply < MAX_PLIES; ply++) {
+         int status = game.getStatus();
+         if (status == Game.CHECKMATE) {
+            // the side to move has been mated
+            boolean firstToMove = (game.getSideToMove() == Position.WHITE)
+                                  == firstIsWhite;
+            return firstToMove ? -1 : 1;
+         }
+         if (status != Game.ONGOING) return 0;
+         int engine = ((game.getSideToMove() == Position.WHITE)
+                       == firstIsWhite) ? 0 : 1;
+         // an illegal move (only an outside engine could give one) loses
+         if (!game.applyMove(pair[engine].pickMove(game)))
+            return (engine == 0) ? -1 : 1;
+      }
+      return 0;
+   }
+
+   /*
+    * Makes a thread's two engines.
+    */
+   private Player[] newPlayers() {
+      Player[] pair = new Player[2];
+      try {
+         for (int i = 0; i < 2; i++) {
+            pair[i] = setups[i].newPlayer();
+            synchronized (players) {
+               players.add(pair[i]);
+            }
+         }
+      } catch (IOException e) {
+         throw new UncheckedIOException(e);
+      }
+      return pair;
+   }
+
+   /*
+    * Ends the run early because an engine has stopped working.
+    */
+   private synchronized void abandon(String reason) {
+      if (finished) return;
+      out.println("Engine error: " + reason);
+      finished = true;
+   }
+
+   /*
+    * Adds a game's result to the standings, writes them out, and ends the
+    * run if the SPRT has decided.
+    */
+   private synchronized void record(int result) {
+      if (finished) return;
+      if (result > 0) wins++;
+      else if (result < 0) losses++;
+      else draws++;
+      double llr = logLikelihoodRatio();
+      String verdict = "";
+      if (llr >= upperBound()) verdict = "  SPRT passed";
+      else if (llr <= lowerBound()) verdict = "  SPRT failed";
+      out.println(standings() + verdict);
+      if (!verdict.isEmpty()) finished = true;
+   }
+
+   /*
+    * Describes the standings: the results, the Elo difference with its 95%
+    * error margin, the SPRT's log-likelihood ratio against its bounds, and
+    * the games per hour.
+    */
+   private String standings() {
+      int games = wins + losses + draws;
+      double hours = (System.nanoTime() - startTime) / 3.6e12;
+      return String.format("Games %d: +%d -%d =%d  Elo %.1f +/- %.1f  "
+                           + "LLR %.2f (%.2f, %.2f)  %.0f games/h",
+                           games, wins, losses, draws, elo(score()),
+                           eloMargin(), logLikelihoodRatio(), lowerBound(),
+                           upperBound(), games / Math.max(hours, 1e-9));
+   }
+
+   /*
+    * Gets the first engine's average score per game, from 0 to 1.
+    */
+   private double score() {
+      int games = wins + losses + draws;
+      return (games == 0) ? 0.5 : (wins + draws / 2.0) / games;
+   }
+
+   /*
+    * Gets the variance of one game's score, from the results so far.
+    */
+   private double variance() {
+      int games = wins + losses + draws;
+      if (games == 0) return 0;
+      double s = score();
+      return (wins * (1 - s) * (1 - s) + draws * (0.5 - s) * (0.5 - s)
+              + losses * s * s) / games;
+   }
+
+   /*
+    * Converts an average score to an Elo difference, by the logistic
+    * model. A clean sweep either way comes out infinite.
+    */
+   private static double elo(double score) {
+      return -400 * Math.log10(1 / score - 1);
+   }
+
+   /*
+    * Converts an Elo difference to the expected average score.
+    */
+   private static double expectedScore(double elo) {
+      return 1 / (1 + Math.pow(10, -elo / 400));
+   }
+
+   /*
+    * Gets the half-width of the 95% confidence interval on the Elo
+    * difference.
+    */
+   private double eloMargin() {
+      int games = wins + losses + draws;
+      if (games == 0) return 0;
+      double s = score();
+      double error = 1.96 * Math.sqrt(variance() / games);
+      return (elo(Math.min(s + error, 1)) - elo(Math.max(s - error, 0))) / 2;
+   }
+
+   /*
+    * Gets the log-likelihood ratio of `elo1` against `elo0`, using the
+    * usual normal approximation to the game results' distribution.
+    */
+   private double logLikelihoodRatio() {
+      double variance = variance();
+      if (variance == 0) return 0;
+      int games = wins + losses + draws;
+      double s0 = expectedScore(elo0), s1 = expectedScore(elo1);
+      return games * (s1 - s0) * (2 * score() - s0 - s1) / (2 * variance);
+   }
+
+   /*
+    * Gets the log-likelihood ratios at which the SPRT fails and passes.
+    */
+   private double lowerBound() {
+      return Math.log(beta / (1 - alpha));
+   }
+
+   private double upperBound() {
+      return Math.log((1 - beta) / alpha);
+   }
+}
@@ -0,0 +1,299 @@
+/******************************************************************************
+ *                             ChessSim 0.9                                   *
+ *                  Copyright © 2015 Ben Goldsworthy (rumperuu)               *
+ *                                                                            *
+ * A program to simulate a game of chess between two human players.           *
+ *                                                                            *
+ * This file is part of ChessSim.                                             *
+ *                                                                            *
+ * ChessSim is free software: you can redistribute it and/or modify           *
+ * it under the terms of the GNU General Public License as published by       *
+ * the Free Software Foundation, either version 3 of the License, or          *
+ * (at your option) any later version.                                        *
+ *                                                                            *
+ * ChessSim is distributed in the hope that it will be useful,                *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of             *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the              *
+ * GNU General Public License for more details.                               *
+ *                                                                            *
+ * You should have received a copy of the GNU General Public License          *
+ * along with ChessSim.  If not, see <http://www.gnu.org/licenses/>.          *
+ ******************************************************************************/
+
+/**
+ ** This class remembers what the search has found out about positions it's
+ ** seen before, utilised in the ChessSim program, so the same position
+ ** reached by different move orders ("transpositions") only gets searched
+ ** once, and the best move from the last visit can be tried first.
+ **
+ ** It's one fixed-size `long[]` rather than an object per entry, so it
+ ** costs nothing to the garbage collector however big it is. Each entry is
+ ** two longs: the packed data, and the position key XORed with that data.
+ ** Nothing is locked, so threads sharing the table can interleave their
+ ** writes to an entry; but then the key word no longer matches the data
+ ** word and the entry just looks like a miss, rather than handing back
+ ** another position's data. Each of the longs is read and written whole
+ ** (opaque access), so half a write can never be seen.
+ **
+ ** Entries come in buckets of four, which fill one 64-byte cache line. A
+ ** new entry goes over the one in its bucket that's least worth keeping:
+ ** the one for the same position if there is one, otherwise the shallowest,
+ ** counting entries left over from earlier searches as shallower still.
+ **/
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ **   @author  Ben Goldsworthy (rumperuu) <me+chesssim@bengoldsworthy.net>
+ **   @version 0.92
+ **/
+public class TranspositionTable {
+   // the bound types: the real score is at most, at least or exactly the
+   // stored one. None of them is 0, so no stored data word is ever 0.
+   public static final int UPPER = 1, LOWER = 2, EXACT = 3;
+   public static final int DEFAULT_MEGABYTES = 16;
+   public static final int MAX_MEGABYTES = 8192;
+
+   private static final int BUCKET_SIZE = 4;
+   // longs per entry and per bucket
+   private static final int ENTRY_LONGS = 2;
+   private static final int BUCKET_LONGS = BUCKET_SIZE * ENTRY_LONGS;
+   private static final int AGE_MASK = 0x3F;
+   private static final VarHandle SLOT =
+      MethodHandles.arrayElementVarHandle(long[].class);
+
+   private long[] table;
+   private long bucketMask;
+   private int age;
+   private final LongAdder probes = new LongAdder();
+   private final LongAdder hits = new LongAdder();
+
+   /**
+    **   Creates a table of the default size.
+    **/
+   public TranspositionTable() {
+      this(DEFAULT_MEGABYTES);
+   }
+
+   /**
+    **   Creates a table of (at most) the given size.
+    **   @param megabytes the size
+    **/
+   public TranspositionTable(int megabytes) {
+      resize(megabytes);
+   }
+
+   /**
+    **   Throws away everything and changes the size of the table. The
+    **   number of buckets is rounded down to a power of two. Mustn't be
+    **   called while anything is searching.
+    **   @param megabytes the new size
+    **/
+   public void resize(int megabytes) {
+      if (megabytes < 1 || megabytes > MAX_MEGABYTES)
+         throw new IllegalArgumentException("Hash size must be 1 to "
+                                            + MAX_MEGABYTES + " MB");
+      // (at the maximum size, the array has 2^30 longs, which is as big as
+      // a power of two can get in a Java array)
+      long buckets = Long.highestOneBit((long) megabytes * 1024 * 1024
+                                        / (BUCKET_LONGS * Long.BYTES));
+      // lets the old table go before allocating the new one
+      table = null;
+      table = new long[(int) buckets * BUCKET_LONGS];
+      bucketMask = buckets - 1;
+      age = 0;
+      resetStats();
+   }
+
+   /**
+    **   Throws away everything, keeping the size.
+    **/
+   public void clear() {
+      Arrays.fill(table, 0);
+      age = 0;
+      resetStats();
+   }
+
+   /**
+    **   Marks the start of a new search, so that entries from earlier ones
+    **   get replaced first.
+    **/
+   public void newSearch() {
+      age = (age + 1) & AGE_MASK;
+   }
+
+   /**
+    **   Looks a position up.
+    **   @param key the position's Zobrist key
+    **   @return the packed data (see `move()`, `score()`, `depth()` and
+    **           `bound()`), or 0 if the position isn't in the table
+    **/
+   public long probe(long key) {
+      probes.increment();
+      int base = bucketIndex(key);
+      for (int i = base; i < base + BUCKET_LONGS; i += ENTRY_LONGS) {
+         long data = (long) SLOT.getOpaque(table, i + 1);
+         if (data != 0 && ((long) SLOT.getOpaque(table, i) ^ data) == key) {
+            hits.increment();
+            return data;
+         }
+      }
+      return 0;
+   }
+
+   /**
+    **   Stores what a search found out about a position.
+    **   @param key the position's Zobrist key
+    **   @param move the best move found, or `Move.NONE` if there wasn't one
+    **   @param score the score, which must fit in 16 bits
+    **   @param depth the depth searched, from 0 to 255
+    **   @param bound whether `score` is an `UPPER`, `LOWER` or `EXACT` bound
+    **/
+   public void store(long key, int move, int score, int depth, int bound) {
+      int base = bucketIndex(key);
+      int replace = base;
+      int replaceWorth = Integer.MAX_VALUE;
+      for (int i = base; i < base + BUCKET_LONGS; i += ENTRY_LONGS) {
+         long data = (long) SLOT.getOpaque(table, i + 1);
+         // entries are never emptied, so once there's an empty one the
+         // rest of the bucket is empty too
+         if (data == 0) {
+            replace = i;
+            break;
+         }
+         if (((long) SLOT.getOpaque(table, i) ^ data) == key) {
+            // the same position: a shallower search of it is still worth
+            // keeping over an old one, but never lose its best move
+            if (move == Move.NONE) move = move(data);
+            replace = i;
+            break;
+         }
+         // an entry loses a few plies of worth for each search it's missed
+         int stale = (age - age(data)) & AGE_MASK;
+         int worth = depth(data) - 8 * stale;
+         if (worth < replaceWorth) {
+            replace = i;
+            replaceWorth = worth;
+         }
+      }
+      long data = pack(move, score, depth, bound, age);
+      SLOT.setOpaque(table, replace, key ^ data);
+      SLOT.setOpaque(table, replace + 1, data);
+   }
+
+   /**
+    **   Gets the best move out of packed data.
+    **   @param data the data from `probe()`
+    **   @return the move, or `Move.NONE`
+    **/
+   public static int move(long data) {
+      return (int) (data & 0xFFFF);
+   }
+
+   /**
+    **   Gets the score out of packed data.
+    **   @param data the data from `probe()`
+    **   @return the score
+    **/
+   public static int score(long data) {
+      return (short) (data >>> 16);
+   }
+
+   /**
+    **   Gets the depth searched out of packed data.
+    **   @param data the data from `probe()`
+    **   @return the depth
+    **/
+   public static int depth(long data) {
+      return (int) ((data >>> 32) & 0xFF);
+   }
+
+   /**
+    **   Gets the bound type out of packed data.
+    **   @param data the data from `probe()`
+    **   @return `UPPER`, `LOWER` or `EXACT`
+    **/
+   public static int bound(long data) {
+      return (int) ((data >>> 40) & 3);
+   }
+
+   /**
+    **   Gets the proportion of probes that found their position since the
+    **   table was created, cleared or had its stats reset.
+    **   @return the hit rate, from 0 to 1
+    **/
+   public double getHitRate() {
+      long n = probes.sum();
+      return (n == 0) ? 0 : (double) hits.sum() / n;
+   }
+
+   /**
+    **   Gets the number of probes since the table was created, cleared or
+    **   had its stats reset.
+    **   @return the probe count
+    **/
+   public long getProbes() {
+      return probes.sum();
+   }
+
+   /**
+    **   Resets the hit rate counters.
+    **/
+   public void resetStats() {
+      probes.reset();
+      hits.reset();
+   }
+
+   /**
+    **   Estimates how full the table is with entries from the current
+    **   search, by looking at (up to) the first thousand buckets.
+    **   @return the occupancy in thousandths ("permill")
+    **/
+   public int getOccupancy() {
+      int buckets = (int) Math.min(1000, bucketMask + 1);
+      int used = 0;
+      for (int i = 0; i < buckets * BUCKET_LONGS; i += ENTRY_LONGS) {
+         long data = (long) SLOT.getOpaque(table, i + 1);
+         if (data != 0 && age(data) == age) used++;
+      }
+      return used * 1000 / (buckets * BUCKET_SIZE);
+   }
+
+   /**
+    **   Gets the size of the table.
+    **   @return the number of entries it can hold
+    **/
+   public long getCapacity() {
+      return (bucketMask + 1) * BUCKET_SIZE;
+   }
+
+   /*
+    * Gets the index of the first long of a key's bucket. The low bits of the
+    * key pick the bucket; all 64 bits are checked on a probe.
+    */
+   private int bucketIndex(long key) {
+      return (int) (key & bucketMask) * BUCKET_LONGS;
+   }
+
+   /*
+    * Gets the search an entry was stored in, out of packed data.
+    */
+   private static int age(long data) {
+      return (int) ((data >>> 42) & AGE_MASK);
+   }
+
+   /*
+    * Packs an entry's fields into one long: the move in bits 0-15, the
+    * score in 16-31, the depth in 32-39, the bound in 40-41 and the age in
+    * 42-47.
+    */
+   private static long pack(int move, int score, int depth, int bound,
+                            int age) {
+      return (move & 0xFFFFL) | ((score & 0xFFFFL) << 16)
+             | ((long) Math.min(Math.max(depth, 0), 0xFF) << 32)
+             | ((long) bound << 40) | ((long) age << 42);
+   }
+}
@@ -0,0 +1,388 @@
+/******************************************************************************
+ *                             ChessSim 0.9                                   *
+ *                  Copyright © 2015 Ben Goldsworthy (rumperuu)               *
+ *                                                                            *
+ * A program to simulate a game of chess between two human players.           *
+ *                                                                            *
+ * This file is part of ChessSim.                                             *
+ *                                                                            *
+ * ChessSim is free software: you can redistribute it and/or modify           *
+ * it under the terms of the GNU General Public License as published by       *
+ * the Free Software Foundation, either version 3 of the License, or          *
+ * (at your option) any later version.                                        *
+ *                                                                            *
+ * ChessSim is distributed in the hope that it will be useful,                *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of             *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the              *
+ * GNU General Public License for more details.                               *
+ *                                                                            *
+ * You should have received a copy of the GNU General Public License          *
+ * along with ChessSim.  If not, see <http://www.gnu.org/licenses/>.          *
+ ******************************************************************************/
+
+/**
+ ** This class lets chess GUIs and tournament managers use the engine,
+ ** utilised in the ChessSim program. It speaks the Universal Chess
+ ** Interface: commands come in on one stream, a line at a time, and
+ ** replies go out on another.
+ **
+ ** Searches run on a thread of their own, so the thread reading commands
+ ** is never held up by one: "stop" and "isready" are answered straight
+ ** away, however long the search has left to go. With the OwnBook option
+ ** on, positions in the Polyglot book named by BookFile are played from
+ ** the book without searching. TablebasePath names a directory of
+ ** endgame tables (made by `TablebaseGenerator`) for the search to use, and
+ ** EvalFile a `Network` to score positions with in place of the
+ ** `Evaluator`.
+ **/
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ **   @author  Ben Goldsworthy (rumperuu) <me+chesssim@bengoldsworthy.net>
+ **   @version 0.92
+ **/
+public class UciEngine {
+   public static final String START_FEN =
+      "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1";
+   // the time kept back from every move for passing messages around, in
+   // milliseconds
+   public static final int MOVE_OVERHEAD = 30;
+   // how many moves the remaining time is shared over, when the GUI doesn't
+   // say
+   public static final int DEFAULT_MOVES_TO_GO = 30;
+
+   private final BufferedReader in;
+   private final PrintStream out;
+   private final TranspositionTable table = new TranspositionTable();
+   private final ParallelSearch search = new ParallelSearch(1, table);
+   private final ExecutorService searchThread;
+   private Game game = new Game();
+   private Future<?> searching;
+   // counted down by "stop", for an infinite search that has to wait for
+   // one before it can give its move
+   private CountDownLatch stopSignal = new CountDownLatch(0);
+   private PolyglotBook book;
+   private boolean ownBook;
+   private final Random bookRandom = new Random();
+
+   /**
+    **   Constructor function.
+    **   @param in where the commands come from
+    **   @param out where the replies go
+    **/
+   public UciEngine(InputStream in, PrintStream out) {
+      this.in = new BufferedReader(new InputStreamReader(in));
+      this.out = out;
+      searchThread = Executors.newSingleThreadExecutor(task -> {
+         Thread thread = new Thread(task, "uci search");
+         thread.setDaemon(true);
+         return thread;
+      });
+      search.setListener((depth, score, nodes, millis, pv, pvLength) -> {
+         StringBuilder line = new StringBuilder("info depth ");
+         line.append(depth).append(" score ").append(scoreText(score))
+             .append(" nodes ").append(nodes).append(" nps ")
+             .append(nodes * 1000 / Math.max(1, millis)).append(" time ")
+             .append(millis).append(" hashfull ")
+             .append(table.getOccupancy()).append(" pv");
+         for (int i = 0; i < pvLength; i++)
+            line.append(' ').append(Move.toString(pv[i]));
+         send(line.toString());
+      });
+   }
+
+   /**
+    **   Reads and carries out commands until "quit", or the end of the
+    **   input.
+    **   @throws IOException if the input can't be read
+    **/
+   public void run() throws IOException {
+      String line;
+      while ((line = in.readLine()) != null) {
+         String[] words = line.trim().split("\\s+");
+         switch (words[0]) {
+         case "uci":
+            send("id name ChessSim 0.92");
+            send("id author Ben Goldsworthy");
+            send("option name Hash type spin default "
+                 + TranspositionTable.DEFAULT_MEGABYTES + " min 1 max "
+                 + TranspositionTable.MAX_MEGABYTES);
+            send("option name Threads type spin default 1 min 1 max "
+                 + ParallelSearch.MAX_THREADS);
+            send("option name OwnBook type check default false");
+            send("option name BookFile type string default <empty>");
+            send("option name TablebasePath type string default <empty>");
+            send("option name EvalFile type string default <empty>");
+            send("uciok");
+            break;
+         case "isready":
+            send("readyok");
+            break;
+         case "ucinewgame":
+            waitForSearch();
+            table.clear();
+            break;
+         case "setoption":
+            setOption(words);
+            break;
+         case "position":
+            waitForSearch();
+            position(words);
+            break;
+         case "go":
+            waitForSearch();
+            go(words);
+            break;
+         case "stop":
+            stop();
+            break;
+         case "quit":
+            waitForSearch();
+            search.shutdown();
+            return;
+         default:
+            // anything else is ignored, as the protocol says
+         }
+      }
+      waitForSearch();
+      search.shutdown();
+   }
+
+   /*
+    * Handles "setoption name <name> value <value>".
+    */
+   private void setOption(String[] words) {
+      String name = wordAfter(words, "name");
+      String value = wordAfter(words, "value");
+      if (name == null || value == null) return;
+      waitForSearch();
+      try {
+         if (name.equalsIgnoreCase("Hash")) {
+            table.resize(Integer.parseInt(value));
+         } else if (name.equalsIgnoreCase("Threads")) {
+            search.setThreads(Integer.parseInt(value));
+         } else if (name.equalsIgnoreCase("OwnBook")) {
+            ownBook = Boolean.parseBoolean(value);
+         } else if (name.equalsIgnoreCase("BookFile")) {
+            book = value.equals("<empty>") ? null
+                                           : new PolyglotBook(Paths.get(value));
+         } else if (name.equalsIgnoreCase("TablebasePath")) {
+            Tablebase tablebase = value.equals("<empty>") ? null
+                                  : new Tablebase(Paths.get(value));
+            search.setTablebase(tablebase);
+            if (tablebase != null)
+               send("info string " + tablebase.getTableCount()
+                    + " tables, up to " + tablebase.getMaxPieces()
+                    + " pieces");
+         } else if (name.equalsIgnoreCase("EvalFile")) {
+            search.setNetwork(value.equals("<empty>") ? null
+                              : new Network(Paths.get(value)));
+         } else {
+            send("info string unknown option " + name);
+         }
+      } catch (IllegalArgumentException | IllegalStateException
+               | IOException e) {
+         send("info string " + e.getMessage());
+      }
+   }
+
+   /*
+    * Handles "position [startpos | fen <fen>] [moves <move> ...]".
+    */
+   private void position(String[] words) {
+      int i = 1;
+      String fen = START_FEN;
+      if (i < words.length && words[i].equals("fen")) {
+         StringBuilder text = new StringBuilder();
+         for (i++; i < words.length && !words[i].equals("moves"); i++)
+            text.append(words[i]).append(' ');
+         fen = text.toString();
+      } else if (i < words.length && words[i].equals("startpos")) {
+         i++;
+      }
+      try {
+         game = new Game(fen);
+      } catch (IllegalArgumentException e) {
+         send("info string bad position: " + e.getMessage());
+         game = new Game();
+         return;
+      }
+      if (i < words.length && words[i].equals("moves")) {
+         for (i++; i < words.length; i++) {
+            if (!game.applyMove(game.parseMove(words[i]))) {
+               send("info string illegal move " + words[i]);
+               return;
+            }
+         }
+      }
+   }
+
+   /*
+    * Handles "go" with any of depth, nodes, movetime, wtime, btime, winc,
+    * binc, movestogo and infinite, starting the search on the search
+    * thread. A book move, if there is one, is given straight away instead
+    * (bar for an infinite search, which is for analysing).
+    */
+   private void go(String[] words) {
+      final boolean white = game.getSideToMove() == Position.WHITE;
+      SearchLimits limits = new SearchLimits();
+      limits.setDepth((int) number(words, "depth"));
+      limits.setNodes(number(words, "nodes"));
+      limits.setMoveTime(number(words, "movetime"));
+      String clock = white ? "wtime" : "btime";
+      long time = number(words, clock);
+      long increment = number(words, white ? "winc" : "binc");
+      int movesToGo = (int) number(words, "movestogo");
+      boolean infinite = false;
+      for (String word : words) infinite |= word.equals("infinite");
+      // a clock that's run out (or gone negative, from lag) is still a
+      // clock, and gets the shortest search rather than an endless one
+      if (limits.getMoveTime() == 0 && given(words, clock))
+         limits.setMoveTime(allotTime(Math.max(0, time), increment,
+                                      movesToGo));
+
+      final Position root = new Position();
+      root.copyFrom(game.getPosition());
+      if (ownBook && book != null && !infinite) {
+         int move = book.pickMove(root, bookRandom);
+         if (move != Move.NONE) {
+            send("info string book move");
+            send("bestmove " + Move.toString(move));
+            return;
+         }
+      }
+      final boolean waitForStop = infinite;
+      stopSignal = new CountDownLatch(1);
+      final CountDownLatch signal = stopSignal;
+      // cleared here rather than when the search starts, so a "stop" sent
+      // straight after "go" still counts
+      search.clearStop();
+      searching = searchThread.submit(() -> {
+         int move = search.search(root, limits);
+         // an infinite search mustn't give its move until it's told to
+         // stop, even if it runs out of things to search first
+         if (waitForStop) {
+            try {
+               signal.await();
+            } catch (InterruptedException e) {
+               Thread.currentThread().interrupt();
+            }
+         }
+         send("info nodes " + search.getNodes() + " nps "
+              + search.getNodesPerSecond() + " tbhits "
+              + search.getTablebaseHits() + " time " + search.getElapsed());
+         send("bestmove " + ((move == Move.NONE) ? "0000"
+                                                 : Move.toString(move)));
+      });
+   }
+
+   /*
+    * Works out how long to spend on a move, from the time left on the
+    * clock. It's never less than a millisecond.
+    */
+   private static long allotTime(long time, long increment, int movesToGo) {
+      long share = time / ((movesToGo > 0) ? movesToGo : DEFAULT_MOVES_TO_GO)
+                   + increment * 3 / 4;
+      return Math.max(1, Math.min(share, time - MOVE_OVERHEAD));
+   }
+
+   /*
+    * Stops the search, if there is one; it gives its move as it finishes.
+    */
+   private void stop() {
+      search.stop();
+      stopSignal.countDown();
+   }
+
+   /*
+    * Stops the search, if there is one, and waits for it to give its move,
+    * so nothing can change underneath it.
+    */
+   private void waitForSearch() {
+      if (searching == null) return;
+      stop();
+      try {
+         searching.get();
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      } catch (ExecutionException e) {
+         throw new IllegalStateException(e.getCause());
+      }
+      searching = null;
+   }
+
+   /*
+    * Writes a score the UCI way: "cp" and centipawns, or "mate" and the
+    * number of moves (negative if it's the engine getting mated).
+    */
+   private static String scoreText(int score) {
+      if (!Search.isMateScore(score)) return "cp " + score;
+      int moves = (Search.MATE - Math.abs(score) + 1) / 2;
+      return "mate " + ((score > 0) ? moves : -moves);
+   }
+
+   /*
+    * Determines whether a keyword has a value after it.
+    */
+   private static boolean given(String[] words, String keyword) {
+      for (int i = 0; i < words.length - 1; i++)
+         if (words[i].equals(keyword)) return true;
+      return false;
+   }
+
+   /*
+    * Finds the number after a keyword, or 0 if the keyword isn't there or
+    * what follows it isn't a number.
+    */
+   private static long number(String[] words, String keyword) {
+      for (int i = 0; i < words.length - 1; i++) {
+         if (!words[i].equals(keyword)) continue;
+         try {
+            return Long.parseLong(words[i + 1]);
+         } catch (NumberFormatException e) {
+            return 0;
+         }
+      }
+      return 0;
+   }
+
+   /*
+    * Finds the word after a keyword, or null if there isn't one. Option
+    * names are allowed to have spaces in, so everything up to "value"
+    * counts.
+    */
+   private static String wordAfter(String[] words, String keyword) {
+      for (int i = 0; i < words.length - 1; i++) {
+         if (!words[i].equals(keyword)) continue;
+         StringBuilder text = new StringBuilder(words[i + 1]);
+         for (int j = i + 2; j < words.length && !words[j].equals("value");
+              j++)
+            text.append(' ').append(words[j]);
+         return text.toString();
+      }
+      return null;
+   }
+
+   /*
+    * Writes a line out straight away. The search thread and the command
+    * thread both write, so whole lines are written under a lock.
+    */
+   private void send(String line) {
+      synchronized (out) {
+         out.println(line);
+         out.flush();
+      }
+   }
+}
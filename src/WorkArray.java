@@ -0,0 +1,208 @@
+/******************************************************************************
+ *                             ChessSim 0.9                                   *
+ *                  Copyright © 2015 Ben Goldsworthy (rumperuu)               *
+ *                                                                            *
+ * A program to simulate a game of chess between two human players.           *
+ *                                                                            *
+ * This file is part of ChessSim.                                             *
+ *                                                                            *
+ * ChessSim is free software: you can redistribute it and/or modify           *
+ * it under the terms of the GNU General Public License as published by       *
+ * the Free Software Foundation, either version 3 of the License, or          *
+ * (at your option) any later version.                                        *
+ *                                                                            *
+ * ChessSim is distributed in the hope that it will be useful,                *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of             *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the              *
+ * GNU General Public License for more details.                               *
+ *                                                                            *
+ * You should have received a copy of the GNU General Public License          *
+ * along with ChessSim.  If not, see <http://www.gnu.org/licenses/>.          *
+ ******************************************************************************/
+
+/**
+ ** This class is a big array of bytes, or of bits, kept in a file rather
+ ** than the heap, utilised in the ChessSim program by the tablebase
+ ** generator. The file is memory-mapped, so the operating system pages it
+ ** in and out as it's used, and arrays far bigger than the heap are fine.
+ ** Bytes can be compared-and-set and bits set atomically, so many threads
+ ** can update one array at once without locks. The file is deleted by
+ ** `delete()`.
+ **/
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ **   @author  Ben Goldsworthy (rumperuu) <me+chesssim@bengoldsworthy.net>
+ **   @version 0.92
+ **/
+public class WorkArray {
+   // the most one mapping can hold, rounded down to whole longs
+   public static final long MAX_BYTES = Integer.MAX_VALUE & ~7L;
+   private static final VarHandle INTS = MethodHandles.byteBufferViewVarHandle(
+      int[].class, ByteOrder.nativeOrder());
+   private static final VarHandle LONGS =
+      MethodHandles.byteBufferViewVarHandle(long[].class,
+                                            ByteOrder.nativeOrder());
+   private static final boolean LITTLE_ENDIAN =
+      ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+
+   private final Path file;
+   private final MappedByteBuffer buffer;
+   private final long bytes;
+
+   /**
+    **   Constructor function. Makes a temporary file of zeroes and maps it.
+    **   @param directory where to put the file
+    **   @param bytes the size of the array in bytes
+    **   @throws IOException if the file can't be made
+    **/
+   public WorkArray(Path directory, long bytes) throws IOException {
+      // a whole number of longs, so bits can be worked on a word at a time
+      bytes = Math.max(8, (bytes + 7) & ~7L);
+      if (bytes > MAX_BYTES)
+         throw new IllegalArgumentException("Work array too big: " + bytes);
+      this.bytes = bytes;
+      file = Files.createTempFile(directory, "work", ".tmp");
+      try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+         raf.setLength(bytes);
+         buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+                                       bytes);
+      }
+      buffer.order(ByteOrder.nativeOrder());
+   }
+
+   /**
+    **   Makes an array of bits, all clear.
+    **   @param directory where to put the file
+    **   @param bits the number of bits
+    **   @return the array
+    **   @throws IOException if the file can't be made
+    **/
+   public static WorkArray bits(Path directory, long bits)
+   throws IOException {
+      return new WorkArray(directory, (bits + 63) / 64 * 8);
+   }
+
+   /**
+    **   Gets the size of the array.
+    **   @return the size in bytes
+    **/
+   public long size() {
+      return bytes;
+   }
+
+   /**
+    **   Gets one byte.
+    **   @param index the byte's index
+    **   @return the byte, from 0 to 255
+    **/
+   public int getByte(long index) {
+      return buffer.get((int) index) & 0xFF;
+   }
+
+   /**
+    **   Sets one byte. Only safe if no other thread is writing the same
+    **   byte; use `compareAndSetByte()` if one might be.
+    **   @param index the byte's index
+    **   @param value the byte, from 0 to 255
+    **/
+   public void setByte(long index, int value) {
+      buffer.put((int) index, (byte) value);
+   }
+
+   /**
+    **   Sets one byte if it holds the expected value, atomically.
+    **   @param index the byte's index
+    **   @param expected the value it must hold, from 0 to 255
+    **   @param value the value to set it to, from 0 to 255
+    **   @return whether it was set
+    **/
+   public boolean compareAndSetByte(long index, int expected, int value) {
+      // bytes can't be set atomically on their own, so the int holding the
+      // byte is, with the other three bytes left as they were
+      int word = (int) (index & ~3L);
+      int offset = (int) (index & 3);
+      int shift = 8 * (LITTLE_ENDIAN ? offset : 3 - offset);
+      while (true) {
+         int old = (int) INTS.getVolatile(buffer, word);
+         if (((old >>> shift) & 0xFF) != expected) return false;
+         int updated = (old & ~(0xFF << shift)) | (value << shift);
+         if (INTS.compareAndSet(buffer, word, old, updated)) return true;
+      }
+   }
+
+   /**
+    **   Sets every byte to the same value.
+    **   @param value the value, from 0 to 255
+    **/
+   public void fill(int value) {
+      long pattern = (value & 0xFFL) * 0x0101010101010101L;
+      for (int i = 0; i < bytes; i += 8) buffer.putLong(i, pattern);
+   }
+
+   /**
+    **   Gets one bit.
+    **   @param index the bit's index
+    **   @return a boolean value
+    **/
+   public boolean getBit(long index) {
+      return ((getWord(index >>> 6) >>> (index & 63)) & 1) != 0;
+   }
+
+   /**
+    **   Sets one bit, atomically.
+    **   @param index the bit's index
+    **   @return whether it was clear before
+    **/
+   public boolean setBit(long index) {
+      long mask = 1L << (index & 63);
+      return ((long) LONGS.getAndBitwiseOr(buffer, (int) ((index >>> 6) << 3),
+                                           mask) & mask) == 0;
+   }
+
+   /**
+    **   Gets 64 bits at once.
+    **   @param word the index of the word, which holds bits `64 * word` to
+    **          `64 * word + 63`
+    **   @return the bits
+    **/
+   public long getWord(long word) {
+      return (long) LONGS.getVolatile(buffer, (int) (word << 3));
+   }
+
+   /**
+    **   Gets the number of 64-bit words in the array.
+    **   @return the number of words
+    **/
+   public long words() {
+      return bytes >>> 3;
+   }
+
+   /**
+    **   Determines whether any bit is set.
+    **   @return a boolean value
+    **/
+   public boolean isEmpty() {
+      for (long w = 0; w < words(); w++)
+         if (getWord(w) != 0) return false;
+      return true;
+   }
+
+   /**
+    **   Deletes the file behind the array. The array mustn't be used
+    **   afterwards.
+    **   @throws IOException if the file can't be deleted
+    **/
+   public void delete() throws IOException {
+      Files.deleteIfExists(file);
+   }
+}
@@ -0,0 +1,119 @@
+/******************************************************************************
+ *                             ChessSim 0.9                                   *
+ *                  Copyright © 2015 Ben Goldsworthy (rumperuu)               *
+ *                                                                            *
+ * A program to simulate a game of chess between two human players.           *
+ *                                                                            *
+ * This file is part of ChessSim.                                             *
+ *                                                                            *
+ * ChessSim is free software: you can redistribute it and/or modify           *
+ * it under the terms of the GNU General Public License as published by       *
+ * the Free Software Foundation, either version 3 of the License, or          *
+ * (at your option) any later version.                                        *
+ *                                                                            *
+ * ChessSim is distributed in the hope that it will be useful,                *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of             *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the              *
+ * GNU General Public License for more details.                               *
+ *                                                                            *
+ * You should have received a copy of the GNU General Public License          *
+ * along with ChessSim.  If not, see <http://www.gnu.org/licenses/>.          *
+ ******************************************************************************/
+
+/**
+ ** This class runs the board's heavy lifting (working out moves, and the
+ ** computer thinking) away from the Swing event dispatch thread, utilised in
+ ** the ChessSim program, so the board keeps responding in the meantime.
+ **
+ ** Work is submitted on a numbered channel, from the event dispatch thread.
+ ** Each channel has a worker thread of its own, so a long search on one
+ ** doesn't hold up quick jobs on another. Submitting to a channel
+ ** supersedes whatever was already submitted to it: if the old job hasn't
+ ** started it never will, if it's running it's asked to stop, and if it
+ ** finishes anyway its result is thrown away. So when the mouse moves on
+ ** from a square before its moves are worked out, they never get drawn.
+ ** Results are handed back on the event dispatch thread.
+ **/
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+import javax.swing.SwingUtilities;
+
+/**
+ **   @author  Ben Goldsworthy (rumperuu) <me+chesssim@bengoldsworthy.net>
+ **   @version 0.92
+ **/
+public class WorkerPipeline {
+   private final ExecutorService[] executors;
+   // the number of the latest job on each channel; a job whose number is
+   // no longer the latest has been superseded
+   private final AtomicLongArray latest;
+   // what to call to stop each channel's latest job early, if anything
+   private final Runnable[] stoppers;
+
+   /**
+    **   Creates the pipeline, with its worker threads.
+    **   @param channels the number of channels
+    **/
+   public WorkerPipeline(int channels) {
+      executors = new ExecutorService[channels];
+      latest = new AtomicLongArray(channels);
+      stoppers = new Runnable[channels];
+      for (int i = 0; i < channels; i++) {
+         final String name = "board worker " + i;
+         executors[i] = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, name);
+            thread.setDaemon(true);
+            return thread;
+         });
+      }
+   }
+
+   /**
+    **   Submits a job, superseding any other on the same channel. Must be
+    **   called on the event dispatch thread.
+    **   @param channel the channel
+    **   @param job the work, which runs on the channel's worker thread
+    **   @param stopper what to call to make `job` finish early if it's
+    **          superseded while running, or null if it's quick enough not
+    **          to need stopping
+    **   @param publish what to do with the result, on the event dispatch
+    **          thread, if the job hasn't been superseded by then
+    **/
+   public <T> void submit(int channel, Callable<T> job, Runnable stopper,
+                          Consumer<T> publish) {
+      cancel(channel);
+      final long id = latest.get(channel);
+      stoppers[channel] = stopper;
+      executors[channel].execute(() -> {
+         if (latest.get(channel) != id) return;
+         T result;
+         try {
+            result = job.call();
+         } catch (Exception e) {
+            throw new IllegalStateException(e);
+         }
+         SwingUtilities.invokeLater(() -> {
+            if (latest.get(channel) != id) return;
+            stoppers[channel] = null;
+            publish.accept(result);
+         });
+      });
+   }
+
+   /**
+    **   Cancels whatever was submitted to a channel. Must be called on the
+    **   event dispatch thread.
+    **   @param channel the channel
+    **/
+   public void cancel(int channel) {
+      latest.incrementAndGet(channel);
+      if (stoppers[channel] != null) {
+         stoppers[channel].run();
+         stoppers[channel] = null;
+      }
+   }
+}
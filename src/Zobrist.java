@@ -0,0 +1,70 @@
+/******************************************************************************
+ *                             ChessSim 0.9                                   *
+ *                  Copyright © 2015 Ben Goldsworthy (rumperuu)               *
+ *                                                                            *
+ * A program to simulate a game of chess between two human players.           *
+ *                                                                            *
+ * This file is part of ChessSim.                                             *
+ *                                                                            *
+ * ChessSim is free software: you can redistribute it and/or modify           *
+ * it under the terms of the GNU General Public License as published by       *
+ * the Free Software Foundation, either version 3 of the License, or          *
+ * (at your option) any later version.                                        *
+ *                                                                            *
+ * ChessSim is distributed in the hope that it will be useful,                *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of             *
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the              *
+ * GNU General Public License for more details.                               *
+ *                                                                            *
+ * You should have received a copy of the GNU General Public License          *
+ * along with ChessSim.  If not, see <http://www.gnu.org/licenses/>.          *
+ ******************************************************************************/
+
+/**
+ ** This class holds the random numbers behind Zobrist hashing, utilised in
+ ** the ChessSim program. A position's key is the XOR of one number for each
+ ** piece on each square, plus numbers for the side to move, the castling
+ ** rights and the en passant file. Since XOR undoes itself, a move only has
+ ** to XOR out what changed and XOR in what replaced it, rather than adding
+ ** the whole board up again.
+ **/
+
+/**
+ **   @author  Ben Goldsworthy (rumperuu) <me+chesssim@bengoldsworthy.net>
+ **   @version 0.92
+ **/
+public final class Zobrist {
+   // indexed by piece code (`team * 6 + type`) and square
+   public static final long[][] PIECE = new long[12][64];
+   // XORed in when it's Black's turn
+   public static final long SIDE;
+   // indexed by the whole set of castling flags; no rights at all is 0
+   public static final long[] CASTLING = new long[16];
+   // indexed by file, XORed in when there's an en passant square
+   public static final long[] EP_FILE = new long[8];
+
+   // the state of the random number generator. It always starts from the
+   // same seed, so keys are the same from one run to the next.
+   private static long seed = 0x2545F4914F6CDD1DL;
+
+   static {
+      for (int piece = 0; piece < 12; piece++)
+         for (int sq = 0; sq < 64; sq++) PIECE[piece][sq] = random();
+      SIDE = random();
+      for (int rights = 1; rights < 16; rights++) CASTLING[rights] = random();
+      for (int file = 0; file < 8; file++) EP_FILE[file] = random();
+   }
+
+   private Zobrist() {
+   }
+
+   /*
+    * Gets the next number from an xorshift* generator.
+    */
+   private static long random() {
+      seed ^= seed >>> 12;
+      seed ^= seed << 25;
+      seed ^= seed >>> 27;
+      return seed * 2685821657736338717L;
+   }
+}